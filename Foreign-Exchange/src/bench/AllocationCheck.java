@@ -0,0 +1,87 @@
+package bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Allocation regression check of the scoring paths and of window updates of
+ * the feature stage, which must not allocate per call (a stray boxing or
+ * iterator would bring garbage collection pauses back into scorers). Each path is measured as a benchmark by
+ * BenchmarkRunner: after warm-up (so the JIT compiler has applied escape
+ * analysis), bytes allocated per call are read from the allocation counter
+ * of the thread, and compared with the budget of the path.
+ *
+ * Exits with status 1 if a path exceeds its budget, so it can be run as a
+ * build step.
+ *
+ * Usage: AllocationCheck [-records 10000] [-trees 10]
+ *
+ * @author zzuo
+ *
+ */
+public class AllocationCheck {
+
+	/*
+	 * Allowed bytes per call above the budget, covering the measurement
+	 * itself; an allocation of 16 bytes (the smallest object) every 160 calls
+	 * or more often is still caught
+	 */
+	private static final double MEASUREMENT_SLACK = 0.1;
+
+	/**
+	 * @return budgets, in bytes per call, of the checked paths
+	 */
+	static Map<Benchmark, Double> budgets() {
+		Map<Benchmark, Double> budgets = new LinkedHashMap<>();
+		budgets.put(new Benchmarks.RandomForestDecide(), 0.0);
+		budgets.put(new Benchmarks.RandomForestDecideBatch(), 0.0);
+		budgets.put(new Benchmarks.FlatTreeDecide(), 0.0);
+		budgets.put(new Benchmarks.DecisionTreeDecide(), 0.0);
+		budgets.put(new Benchmarks.TickWindowAdd(), 0.0);
+		return budgets;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int records = 10000;
+		int trees = 10;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-records":
+				records = Integer.parseInt(args[++i]);
+				break;
+			case "-trees":
+				trees = Integer.parseInt(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument "
+						+ args[i] + ", usage: [-records n] [-trees n]");
+			}
+		}
+
+		BenchmarkRunner runner = new BenchmarkRunner();
+
+		System.out.println(String.format("%-24s %12s %12s %6s", "path",
+				"B/call", "budget", ""));
+
+		int failures = 0;
+
+		for (Map.Entry<Benchmark, Double> e : budgets().entrySet()) {
+			BenchmarkRunner.Result r = runner.measure(e.getKey(), records,
+					trees);
+
+			boolean ok = r.bytesPerOp <= e.getValue() + MEASUREMENT_SLACK;
+			if (!ok) {
+				failures++;
+			}
+
+			System.out.println(String.format("%-24s %12.2f %12.2f %6s",
+					r.name, r.bytesPerOp, e.getValue(), ok ? "OK" : "FAIL"));
+		}
+
+		if (failures > 0) {
+			System.out.println(failures + " path(s) over allocation budget");
+			System.exit(1);
+		}
+	}
+}
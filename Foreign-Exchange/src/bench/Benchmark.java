@@ -0,0 +1,76 @@
+package bench;
+
+/**
+ * A benchmark run by BenchmarkRunner. It is set up once for each combination
+ * of parameters (number of records, number of trees), then run repeatedly.
+ * Results of the runs must be folded into the checksum, so that the JIT
+ * compiler cannot remove the measured work.
+ *
+ * @author zzuo
+ *
+ */
+public abstract class Benchmark {
+
+	/*
+	 * Number of records (or ticks) of the current setup
+	 */
+	protected int records;
+
+	/*
+	 * Number of trees of the current setup
+	 */
+	protected int trees;
+
+	/*
+	 * Folded results of all runs
+	 */
+	protected long checksum;
+
+	/**
+	 * @return name of the benchmark
+	 */
+	public abstract String getName();
+
+	/**
+	 * @return true if results depend on the number of trees, otherwise the
+	 *         benchmark is only run with the first tree count
+	 */
+	public boolean usesTrees() {
+		return false;
+	}
+
+	/**
+	 * Prepare data for a combination of parameters
+	 *
+	 * @param records
+	 *            number of records
+	 * @param trees
+	 *            number of trees
+	 * @throws Exception
+	 */
+	public void setUp(int records, int trees) throws Exception {
+		this.records = records;
+		this.trees = trees;
+	}
+
+	/**
+	 * Run the benchmark once
+	 *
+	 * @return number of operations done (e.g. records scored), results are
+	 *         reported per operation
+	 * @throws Exception
+	 */
+	public abstract int run() throws Exception;
+
+	/**
+	 * Release resources of the current setup
+	 *
+	 * @throws Exception
+	 */
+	public void tearDown() throws Exception {
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+}
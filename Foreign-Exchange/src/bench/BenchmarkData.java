@@ -0,0 +1,107 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import prep.RawDataRecord;
+
+/**
+ * Reproducible synthetic data for benchmarks
+ *
+ * @author zzuo
+ *
+ */
+public class BenchmarkData {
+
+	/*
+	 * Price step of the random walk of bids
+	 */
+	private static final double PIP = 0.00005;
+
+	/**
+	 * Generate raw ticks: a random walk of bids with random spreads, and
+	 * random gaps of up to 2 seconds between ticks
+	 *
+	 * @param n
+	 *            number of ticks
+	 * @param seed
+	 *            random seed
+	 * @return raw records
+	 */
+	public static List<RawDataRecord> ticks(int n, long seed) {
+		Random random = new Random(seed);
+		List<RawDataRecord> ticks = new ArrayList<>(n);
+
+		DateTime time = new DateTime(2015, 1, 5, 0, 0);
+		double bid = 1.2;
+
+		for (int i = 0; i < n; i++) {
+			time = time.plusMillis(random.nextInt(2000));
+			bid += (random.nextInt(3) - 1) * PIP;
+			double ask = bid + (1 + random.nextInt(6)) * PIP;
+			ticks.add(new RawDataRecord(time, bid, ask));
+		}
+
+		return ticks;
+	}
+
+	/**
+	 * Write raw ticks in the format read by DataPrep.readRecords
+	 *
+	 * @param fileName
+	 *            file name
+	 * @param ticks
+	 *            raw records
+	 * @throws IOException
+	 */
+	public static void writeTicks(String fileName, List<RawDataRecord> ticks)
+			throws IOException {
+		DateTimeFormatter formatter = DateTimeFormat
+				.forPattern("yyyyMMdd HH:mm:ss.SSS").withZone(DateTimeZone.UTC);
+
+		try (BufferedWriter writer = new BufferedWriter(
+				new FileWriter(fileName))) {
+			for (RawDataRecord r : ticks) {
+				writer.write("EUR/USD," + formatter.print(r.getTime()) + ","
+						+ r.getBid() + "," + r.getAsk() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Generate boolean records (5 features and the label). The label follows
+	 * the delta_bid and diff_bid features with some noise, so that trees have
+	 * something to learn.
+	 *
+	 * @param n
+	 *            number of records
+	 * @param seed
+	 *            random seed
+	 * @return records
+	 */
+	public static List<boolean[]> records(int n, long seed) {
+		Random random = new Random(seed);
+		List<boolean[]> records = new ArrayList<>(n);
+
+		for (int i = 0; i < n; i++) {
+			boolean[] r = new boolean[6];
+			for (int j = 0; j < 5; j++) {
+				r[j] = random.nextBoolean();
+			}
+			r[5] = random.nextDouble() < 0.2 ? random.nextBoolean()
+					: (r[3] || r[2]) && random.nextDouble() < 0.8;
+			records.add(r);
+		}
+
+		return records;
+	}
+}
@@ -0,0 +1,306 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs benchmarks (see Benchmarks) over combinations of dataset sizes and tree
+ * counts. Each combination is warmed up, then measured for several
+ * iterations, reporting time per operation, bytes allocated per operation
+ * (from the allocation counter of the benchmark thread), allocation rate and
+ * garbage collections. Results can be written to a csv file, and compared
+ * with a baseline csv file written earlier.
+ *
+ * Usage: BenchmarkRunner [-records 10000,100000] [-trees 10,100] [-warmup 3]
+ * [-iterations 5] [-time 500] [-out results.csv] [-baseline baseline.csv]
+ * [benchmark name prefixes...]
+ *
+ * @author zzuo
+ *
+ */
+public class BenchmarkRunner {
+
+	private static final String CSV_HEADER = "benchmark,records,trees,ns_per_op,error_ns_per_op,bytes_per_op,alloc_mb_per_s,gc_count,gc_ms";
+
+	private int[] recordCounts = { 10000, 100000 };
+
+	private int[] treeCounts = { 10, 100 };
+
+	private int warmupIterations = 3;
+
+	private int iterations = 5;
+
+	/*
+	 * Minimum time of an iteration, in milliseconds
+	 */
+	private long iterationMillis = 500;
+
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/**
+	 * Result of a benchmark for a combination of parameters
+	 */
+	static class Result {
+		String name;
+		int records;
+		int trees;
+		double nsPerOp;
+		double errorNsPerOp;
+		double bytesPerOp;
+		double allocMbPerSec;
+		long gcCount;
+		long gcMillis;
+
+		String key() {
+			return name + "," + records + "," + trees;
+		}
+
+		String toCsv() {
+			return String.format("%s,%.1f,%.1f,%.1f,%.1f,%d,%d", key(),
+					nsPerOp, errorNsPerOp, bytesPerOp, allocMbPerSec,
+					gcCount, gcMillis);
+		}
+	}
+
+	/**
+	 * Run a benchmark for a combination of parameters
+	 */
+	Result measure(Benchmark b, int records, int trees) throws Exception {
+		PrintStream out = System.out;
+		// benchmarked code prints progress
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+
+		try {
+			b.setUp(records, trees);
+
+			for (int i = 0; i < warmupIterations; i++) {
+				iteration(b);
+			}
+
+			long gcCount = gcCount();
+			long gcMillis = gcMillis();
+
+			double[] nsPerOp = new double[iterations];
+			long totalOps = 0;
+			long totalNanos = 0;
+			long totalBytes = 0;
+
+			for (int i = 0; i < iterations; i++) {
+				long[] it = iteration(b);
+				nsPerOp[i] = it[1] / (double) it[0];
+				totalOps += it[0];
+				totalNanos += it[1];
+				totalBytes += it[2];
+			}
+
+			b.tearDown();
+
+			Result r = new Result();
+			r.name = b.getName();
+			r.records = records;
+			r.trees = trees;
+			r.nsPerOp = totalNanos / (double) totalOps;
+			r.errorNsPerOp = stddev(nsPerOp);
+			r.bytesPerOp = totalBytes / (double) totalOps;
+			r.allocMbPerSec = totalBytes / (1024.0 * 1024.0)
+					/ (totalNanos / 1e9);
+			r.gcCount = gcCount() - gcCount;
+			r.gcMillis = gcMillis() - gcMillis;
+			return r;
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Run a benchmark repeatedly for at least iterationMillis
+	 *
+	 * @return {operations, nanoseconds, bytes allocated}
+	 */
+	private long[] iteration(Benchmark b) throws Exception {
+		long thread = Thread.currentThread().getId();
+		long ops = 0;
+
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long end;
+
+		do {
+			ops += b.run();
+			end = System.nanoTime();
+		} while (end - start < iterationMillis * 1000000L);
+
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		return new long[] { ops, end - start, bytes };
+	}
+
+	private static double stddev(double[] values) {
+		double mean = 0;
+		for (double v : values) {
+			mean += v;
+		}
+		mean /= values.length;
+
+		double sum = 0;
+		for (double v : values) {
+			sum += (v - mean) * (v - mean);
+		}
+		return values.length > 1 ? Math.sqrt(sum / (values.length - 1)) : 0;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	/**
+	 * Read ns/op of results in a csv file written by an earlier run
+	 */
+	private static Map<String, Double> readBaseline(String fileName)
+			throws IOException {
+		Map<String, Double> baseline = new HashMap<>();
+
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(fileName))) {
+			String line = reader.readLine();
+			while ((line = reader.readLine()) != null) {
+				String[] strs = line.split(",");
+				baseline.put(strs[0] + "," + strs[1] + "," + strs[2],
+						Double.parseDouble(strs[3]));
+			}
+		}
+
+		return baseline;
+	}
+
+	private static int[] parseInts(String s) {
+		String[] strs = s.split(",");
+		int[] values = new int[strs.length];
+		for (int i = 0; i < strs.length; i++) {
+			values[i] = Integer.parseInt(strs[i]);
+		}
+		return values;
+	}
+
+	private static boolean selected(Benchmark b, List<String> prefixes) {
+		if (prefixes.isEmpty()) {
+			return true;
+		}
+		for (String p : prefixes) {
+			if (b.getName().startsWith(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkRunner runner = new BenchmarkRunner();
+		String outFile = null;
+		String baselineFile = null;
+		List<String> prefixes = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-records":
+				runner.recordCounts = parseInts(args[++i]);
+				break;
+			case "-trees":
+				runner.treeCounts = parseInts(args[++i]);
+				break;
+			case "-warmup":
+				runner.warmupIterations = Integer.parseInt(args[++i]);
+				break;
+			case "-iterations":
+				runner.iterations = Integer.parseInt(args[++i]);
+				break;
+			case "-time":
+				runner.iterationMillis = Long.parseLong(args[++i]);
+				break;
+			case "-out":
+				outFile = args[++i];
+				break;
+			case "-baseline":
+				baselineFile = args[++i];
+				break;
+			default:
+				prefixes.add(args[i]);
+			}
+		}
+
+		Map<String, Double> baseline = baselineFile == null ? null
+				: readBaseline(baselineFile);
+
+		System.out.println(String.format("%-24s %8s %6s %14s %12s %12s %10s %6s",
+				"benchmark", "records", "trees", "ns/op", "error", "B/op",
+				"MB/s", "change"));
+
+		List<Result> results = new ArrayList<>();
+
+		for (Benchmark b : Benchmarks.all()) {
+			if (!selected(b, prefixes)) {
+				continue;
+			}
+
+			for (int records : runner.recordCounts) {
+				int[] trees = b.usesTrees() ? runner.treeCounts
+						: new int[] { runner.treeCounts[0] };
+
+				for (int t : trees) {
+					Result r = runner.measure(b, records, t);
+					results.add(r);
+
+					String change = "";
+					if (baseline != null && baseline.containsKey(r.key())) {
+						change = String.format("%+.1f%%", 100
+								* (r.nsPerOp / baseline.get(r.key()) - 1));
+					}
+
+					System.out.println(String.format(
+							"%-24s %8d %6s %14.1f %12.1f %12.1f %10.1f %6s",
+							r.name, r.records, b.usesTrees() ? "" + t : "-",
+							r.nsPerOp, r.errorNsPerOp, r.bytesPerOp,
+							r.allocMbPerSec, change));
+				}
+			}
+		}
+
+		if (outFile != null) {
+			try (PrintWriter writer = new PrintWriter(outFile)) {
+				writer.println(CSV_HEADER);
+				for (Result r : results) {
+					writer.println(r.toCsv());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import dtree.DecisionTree;
+import dtree.FlatTree;
+import forest.RandomForest;
+import prep.DataPrep;
+import prep.ProcessedDataRecord;
+import prep.RawDataRecord;
+import prep.TickWindow;
+import util.RecordSource;
+import util.RecordStream;
+import util.SerializeUtil;
+
+/**
+ * Benchmarks of data preparation, training, inference and serialization
+ *
+ * @author zzuo
+ *
+ */
+public class Benchmarks {
+
+	private static final long SEED = 42;
+
+	private static final List<String> FEATURES = Arrays.asList(new String[] {
+			"avg_bid", "range_bid", "diff_bid", "delta_bid", "spread" });
+
+	/*
+	 * Maximum passes of out-of-core training, as in forest.Driver
+	 */
+	private static final int MAX_PASSES = 4;
+
+	/**
+	 * @return all benchmarks
+	 */
+	public static List<Benchmark> all() {
+		return Arrays.asList(new ReadRecords(), new ProcessRecord(),
+				new TickWindowAdd(),
+				new DecisionTreeTrain(), new DecisionTreeDecide(),
+				new FlatTreeDecide(), new RandomForestTrain(),
+				new RandomForestTrainOutOfCore(), new RandomForestDecide(),
+				new RandomForestDecideBatch(), new SerializeJson(),
+				new SerializeBinary());
+	}
+
+	/**
+	 * DataPrep.readRecords, per tick
+	 */
+	public static class ReadRecords extends Benchmark {
+		private File file;
+
+		@Override
+		public String getName() {
+			return "prep.readRecords";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			file = File.createTempFile("bench-ticks", ".csv");
+			BenchmarkData.writeTicks(file.getPath(),
+					BenchmarkData.ticks(records, SEED));
+		}
+
+		@Override
+		public int run() {
+			List<RawDataRecord> ticks = new DataPrep()
+					.readRecords(file.getPath());
+			checksum += ticks.size();
+			return ticks.size();
+		}
+
+		@Override
+		public void tearDown() {
+			file.delete();
+		}
+	}
+
+	/**
+	 * DataPrep.processRecord, per record (first and last 100 ticks skipped,
+	 * as in DataPrep.prepareData)
+	 */
+	public static class ProcessRecord extends Benchmark {
+		private List<RawDataRecord> ticks;
+
+		@Override
+		public String getName() {
+			return "prep.processRecord";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			ticks = BenchmarkData.ticks(records + 200, SEED);
+		}
+
+		@Override
+		public int run() {
+			DataPrep prep = new DataPrep();
+			for (int i = 100; i < ticks.size() - 100; i++) {
+				ProcessedDataRecord p = prep.processRecord(ticks, i);
+				checksum += Double.doubleToLongBits(p.getAvgBid());
+			}
+			return ticks.size() - 200;
+		}
+	}
+
+	/**
+	 * TickWindow.add over windows of 10s, 1m, 5m, 15m and 1h, per tick. The
+	 * window is kept across runs, with times shifted after each run.
+	 */
+	public static class TickWindowAdd extends Benchmark {
+		private static final long[] WINDOWS = { 10 * 1000, 60 * 1000,
+				5 * 60 * 1000, 15 * 60 * 1000, 60 * 60 * 1000 };
+
+		private long[] times;
+
+		private double[] bids;
+
+		private double[] asks;
+
+		private TickWindow window;
+
+		private long offset;
+
+		@Override
+		public String getName() {
+			return "prep.windowAdd";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			List<RawDataRecord> ticks = BenchmarkData.ticks(records, SEED);
+			times = new long[records];
+			bids = new double[records];
+			asks = new double[records];
+			for (int i = 0; i < records; i++) {
+				times[i] = ticks.get(i).getTime().getMillis();
+				bids[i] = ticks.get(i).getBid();
+				asks[i] = ticks.get(i).getAsk();
+			}
+			window = new TickWindow(WINDOWS);
+			offset = 0;
+		}
+
+		@Override
+		public int run() {
+			for (int i = 0; i < times.length; i++) {
+				window.add(times[i] + offset, bids[i], asks[i]);
+				checksum += window.getCount(i % WINDOWS.length);
+			}
+			offset += times[times.length - 1] - times[0] + 1;
+			return times.length;
+		}
+	}
+
+	/**
+	 * DecisionTree.train on all features, per tree
+	 */
+	public static class DecisionTreeTrain extends Benchmark {
+		protected List<boolean[]> data;
+
+		protected Set<Integer> featureIds;
+
+		@Override
+		public String getName() {
+			return "dtree.train";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			data = BenchmarkData.records(records, SEED);
+			featureIds = new HashSet<>();
+			for (int i = 0; i < FEATURES.size(); i++) {
+				featureIds.add(i);
+			}
+		}
+
+		@Override
+		public int run() {
+			DecisionTree tree = new DecisionTree(FEATURES);
+			tree.train(data, featureIds);
+			checksum += tree.flatten().size();
+			return 1;
+		}
+	}
+
+	/**
+	 * DecisionTree.decide, per record
+	 */
+	public static class DecisionTreeDecide extends DecisionTreeTrain {
+		private DecisionTree tree;
+
+		@Override
+		public String getName() {
+			return "dtree.decide";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			tree = new DecisionTree(FEATURES);
+			tree.train(data, featureIds);
+		}
+
+		@Override
+		public int run() {
+			for (boolean[] r : data) {
+				if (tree.decide(r)) {
+					checksum++;
+				}
+			}
+			return data.size();
+		}
+	}
+
+	/**
+	 * FlatTree.decide (compiled tree), per record
+	 */
+	public static class FlatTreeDecide extends DecisionTreeTrain {
+		private FlatTree tree;
+
+		@Override
+		public String getName() {
+			return "dtree.flatDecide";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			DecisionTree t = new DecisionTree(FEATURES);
+			t.train(data, featureIds);
+			tree = t.flatten();
+		}
+
+		@Override
+		public int run() {
+			for (int i = 0; i < data.size(); i++) {
+				if (tree.decide(data.get(i))) {
+					checksum++;
+				}
+			}
+			return data.size();
+		}
+	}
+
+	/**
+	 * RandomForest.train (in memory, bootstrap samples), per forest
+	 */
+	public static class RandomForestTrain extends Benchmark {
+		protected List<boolean[]> data;
+
+		@Override
+		public String getName() {
+			return "forest.train";
+		}
+
+		@Override
+		public boolean usesTrees() {
+			return true;
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			data = BenchmarkData.records(records, SEED);
+		}
+
+		@Override
+		public int run() throws Exception {
+			RandomForest forest = new RandomForest(trees);
+			forest.train(data, null);
+			checksum += forest.getTrees().size();
+			return 1;
+		}
+	}
+
+	/**
+	 * RandomForest.trainOutOfCore (streamed records), per forest
+	 */
+	public static class RandomForestTrainOutOfCore extends RandomForestTrain {
+		@Override
+		public String getName() {
+			return "forest.trainOutOfCore";
+		}
+
+		@Override
+		public int run() throws Exception {
+			RandomForest forest = new RandomForest(trees);
+			forest.trainOutOfCore(source(data), MAX_PASSES);
+			checksum += forest.getTrees().size();
+			return 1;
+		}
+	}
+
+	/**
+	 * RandomForest.decide, per record
+	 */
+	public static class RandomForestDecide extends RandomForestTrain {
+		protected RandomForest forest;
+
+		@Override
+		public String getName() {
+			return "forest.decide";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			forest = new RandomForest(trees);
+			forest.trainOutOfCore(source(data), MAX_PASSES);
+		}
+
+		@Override
+		public int run() {
+			for (boolean[] r : data) {
+				if (forest.decide(r)) {
+					checksum++;
+				}
+			}
+			return data.size();
+		}
+	}
+
+	/**
+	 * RandomForest.decide on batches of records, per record
+	 */
+	public static class RandomForestDecideBatch extends RandomForestDecide {
+		private static final int BATCH_SIZE = 256;
+
+		private boolean[][] batch;
+
+		private boolean[] decisions;
+
+		@Override
+		public String getName() {
+			return "forest.decideBatch";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			batch = new boolean[BATCH_SIZE][];
+			decisions = new boolean[BATCH_SIZE];
+		}
+
+		@Override
+		public int run() {
+			for (int from = 0; from < data.size(); from += BATCH_SIZE) {
+				int count = Math.min(BATCH_SIZE, data.size() - from);
+				for (int i = 0; i < count; i++) {
+					batch[i] = data.get(from + i);
+				}
+
+				forest.decide(batch, count, decisions);
+
+				for (int i = 0; i < count; i++) {
+					if (decisions[i]) {
+						checksum++;
+					}
+				}
+			}
+			return data.size();
+		}
+	}
+
+	/**
+	 * SerializeUtil JSON round trip, per forest
+	 */
+	public static class SerializeJson extends RandomForestDecide {
+		protected File file;
+
+		@Override
+		public String getName() {
+			return "serialize.json";
+		}
+
+		@Override
+		public void setUp(int records, int trees) throws Exception {
+			super.setUp(records, trees);
+			file = File.createTempFile("bench-forest", ".model");
+		}
+
+		@Override
+		public int run() {
+			SerializeUtil.serializeRandomForest(forest, file.getPath());
+			RandomForest read = SerializeUtil
+					.deserializeRandomForest(file.getPath());
+			checksum += read.getTrees().size();
+			return 1;
+		}
+
+		@Override
+		public void tearDown() {
+			file.delete();
+		}
+	}
+
+	/**
+	 * SerializeUtil binary round trip, per forest
+	 */
+	public static class SerializeBinary extends SerializeJson {
+		@Override
+		public String getName() {
+			return "serialize.binary";
+		}
+
+		@Override
+		public int run() {
+			SerializeUtil.serializeRandomForestBinary(forest, file.getPath());
+			RandomForest read = SerializeUtil
+					.deserializeRandomForestBinary(file.getPath());
+			// loaded up to the trees compiled for scoring
+			checksum += read.getDistinctTrees();
+			return 1;
+		}
+	}
+
+	/**
+	 * @return record source streaming records from memory
+	 */
+	private static RecordSource source(final List<boolean[]> data) {
+		return new RecordSource() {
+			@Override
+			public RecordStream open() throws IOException {
+				return new RecordStream() {
+					private int next = 0;
+
+					@Override
+					public boolean[] next() {
+						return next < data.size() ? data.get(next++) : null;
+					}
+
+					@Override
+					public void close() {
+					}
+				};
+			}
+		};
+	}
+}
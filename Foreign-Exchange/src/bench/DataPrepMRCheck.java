@@ -0,0 +1,239 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.joda.time.DateTime;
+
+import mapreduce.DataPrepMR;
+import mapreduce.DatasetSnapshotOutputFormat;
+import prep.CsvTickSink;
+import prep.DataPrep;
+import prep.ProcessedDataRecord;
+import prep.RawDataRecord;
+import prep.TickGenerator;
+import prep.TickReader;
+import prep.TickSink;
+import util.DatasetSnapshot;
+
+/**
+ * Local check of the data preparation job (DataPrepMR), run with the local
+ * job runner and file system on generated ticks (TickGenerator) of two pairs,
+ * in two files separated by a gap of several buckets, with small buckets, so
+ * windows cross bucket boundaries and the gap. The features of the records
+ * of each pair must be those of DataPrep.processRecord over all ticks of the
+ * pair, binarized with the mean thresholds of the pair. Labels are not
+ * compared, as ticks without a bid change in the look-ahead of the job get
+ * random labels.
+ *
+ * Exits with status 1 if a check fails, so it can be run as a build step.
+ *
+ * Usage: DataPrepMRCheck [-ticks 20000]
+ *
+ * @author zzuo
+ *
+ */
+public class DataPrepMRCheck {
+
+	private static final String[] PAIRS = { "EUR/USD", "USD/JPY" };
+
+	/*
+	 * Size of a time bucket, and gap between the ticks of the two files
+	 */
+	private static final long BUCKET_MILLIS = 1000 * 60 * 10;
+
+	private static final long GAP_MILLIS = 1000 * 60 * 60 * 3;
+
+	public static void main(String[] args) throws Exception {
+		int ticks = 20000;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-ticks":
+				ticks = Integer.parseInt(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument "
+						+ args[i] + ", usage: [-ticks n]");
+			}
+		}
+
+		File dir = Files.createTempDirectory("prepcheck").toFile();
+
+		boolean ok;
+		try {
+			ok = check(dir, ticks);
+		} finally {
+			FileUtil.fullyDelete(dir);
+		}
+
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean check(File dir, int ticks) throws Exception {
+		// two files of ticks, the second one starting after a gap
+		File input = new File(dir, "ticks");
+		input.mkdirs();
+
+		TickGenerator first = new TickGenerator(0, PAIRS);
+		String firstFile = new File(input, "ticks-0.csv").getPath();
+		try (TickSink sink = new CsvTickSink(firstFile)) {
+			first.generate(ticks / 2, sink);
+		}
+
+		Map<String, List<RawDataRecord>> raw = readTicks(firstFile,
+				new LinkedHashMap<String, List<RawDataRecord>>());
+		long last = 0;
+		for (List<RawDataRecord> records : raw.values()) {
+			last = Math.max(last,
+					records.get(records.size() - 1).getTime().getMillis());
+		}
+
+		TickGenerator second = new TickGenerator(1, PAIRS);
+		second.setStartMillis(last + GAP_MILLIS);
+		String secondFile = new File(input, "ticks-1.csv").getPath();
+		try (TickSink sink = new CsvTickSink(secondFile)) {
+			second.generate(ticks - ticks / 2, sink);
+		}
+		readTicks(secondFile, raw);
+
+		// the job, with the local job runner
+		Configuration conf = new Configuration();
+		conf.set("mapred.job.tracker", "local");
+		conf.set("fs.default.name", "file:///");
+		conf.setLong(DataPrepMR.BUCKET_MILLIS_KEY, BUCKET_MILLIS);
+
+		File output = new File(dir, "prepared");
+
+		if (!DataPrepMR.run(conf, new Path(input.getPath()),
+				new Path(output.getPath()))) {
+			System.out.println("FAIL: job failed");
+			return false;
+		}
+
+		boolean ok = true;
+
+		for (Map.Entry<String, List<RawDataRecord>> e : raw.entrySet()) {
+			Map<String, Integer> expected = expectedFeatures(e.getValue());
+			Map<String, Integer> actual = readFeatures(
+					new File(output, DataPrepMR.pairDir(e.getKey())));
+
+			int count = 0;
+			for (int n : actual.values()) {
+				count += n;
+			}
+
+			boolean same = expected.equals(actual);
+			ok &= same;
+
+			System.out.println(String.format("%-8s %8d ticks %8d records: %s",
+					e.getKey(), e.getValue().size(), count,
+					same ? "OK" : "FAIL"));
+		}
+
+		return ok;
+	}
+
+	/**
+	 * Add the ticks of a file to the ticks of their pair
+	 */
+	private static Map<String, List<RawDataRecord>> readTicks(
+			String fileName, Map<String, List<RawDataRecord>> ticks)
+			throws IOException {
+		try (TickReader reader = new TickReader(fileName)) {
+			while (reader.next()) {
+				List<RawDataRecord> records = ticks.get(reader.getPair());
+				if (records == null) {
+					records = new ArrayList<>();
+					ticks.put(reader.getPair(), records);
+				}
+				records.add(new RawDataRecord(new DateTime(reader.getTime()),
+						reader.getBid(), reader.getAsk()));
+			}
+		}
+		return ticks;
+	}
+
+	/**
+	 * @return binarized features of the records of all ticks of a pair but
+	 *         the first one, with their number of occurrences
+	 */
+	private static Map<String, Integer> expectedFeatures(
+			List<RawDataRecord> raw) {
+		DataPrep prep = new DataPrep();
+
+		List<ProcessedDataRecord> processed = new ArrayList<>();
+		for (int i = 2; i <= raw.size(); i++) {
+			processed.add(prep.processRecord(raw, i));
+		}
+
+		// mean thresholds, as in DataPrep
+		double avgBid = 0;
+		double rangeBid = 0;
+		double spread = 0;
+		for (ProcessedDataRecord r : processed) {
+			avgBid += r.getAvgBid();
+			rangeBid += r.getRangeBid();
+			spread += r.getSpread();
+		}
+
+		int n = processed.size();
+
+		Map<String, Integer> features = new TreeMap<>();
+		for (ProcessedDataRecord r : processed) {
+			add(features, DataPrep.binarizeRecord(r, avgBid / n,
+					rangeBid / n, 0, 0, spread / n));
+		}
+		return features;
+	}
+
+	/**
+	 * @return binarized features of the records of the snapshots of a pair,
+	 *         with their number of occurrences
+	 */
+	private static Map<String, Integer> readFeatures(File pairDir)
+			throws IOException {
+		Map<String, Integer> features = new TreeMap<>();
+
+		File[] files = pairDir.listFiles();
+		if (files == null) {
+			return features;
+		}
+
+		for (File f : files) {
+			if (!f.getName()
+					.endsWith(DatasetSnapshotOutputFormat.SNAPSHOT_EXTENSION)) {
+				continue;
+			}
+
+			DatasetSnapshot snapshot = DatasetSnapshot.open(f.getPath());
+			boolean[] record = new boolean[snapshot.columns()];
+			for (int i = 0; i < snapshot.size(); i++) {
+				add(features, snapshot.get(i, record));
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Count the features of a record, without its label
+	 */
+	private static void add(Map<String, Integer> features, boolean[] record) {
+		String key = Arrays
+				.toString(Arrays.copyOf(record, record.length - 1));
+		Integer n = features.get(key);
+		features.put(key, n == null ? 1 : n + 1);
+	}
+}
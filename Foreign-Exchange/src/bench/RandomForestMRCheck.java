@@ -0,0 +1,206 @@
+package bench;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+
+import forest.RandomForest;
+import mapreduce.FakeInputFormat;
+import mapreduce.ForestScoringMR;
+import mapreduce.ForestScoringMapper.ScoringCounters;
+import mapreduce.RandomForestMR;
+import mapreduce.RandomForestMapper;
+import prep.CsvTickSink;
+import prep.DataPrep;
+import prep.HorizonLabeler;
+import prep.TickGenerator;
+import prep.TickSink;
+import util.CsvRecordSource;
+import util.MemoryDataStore;
+import util.RecordStream;
+import util.RecordView;
+import util.SerializeUtil;
+
+/**
+ * Local check of the random forest job (RandomForestMR), run with the local
+ * job runner and file system, so the training snapshot goes through the
+ * distributed cache as on a cluster. Records are prepared (DataPrep) from
+ * generated ticks (TickGenerator) and split in time into the training and
+ * testing records of a MemoryDataStore. The forest of the job is loaded from
+ * its shards, and must hold all trees and be about as accurate on the testing
+ * records as a forest trained in memory. The output directory of the job is
+ * then scored by the scoring job (ForestScoringMR) on the testing records,
+ * with the same accuracy as the loaded forest.
+ *
+ * Exits with status 1 if a check fails, so it can be run as a build step.
+ *
+ * Usage: RandomForestMRCheck [-ticks 40000] [-trees 20]
+ *
+ * @author zzuo
+ *
+ */
+public class RandomForestMRCheck {
+
+	/*
+	 * Allowed accuracy below the forest trained in memory, as the forests
+	 * sample different records
+	 */
+	private static final double ACCURACY_SLACK = 0.05;
+
+	/*
+	 * Trees grown by each map task, so the job runs several tasks
+	 */
+	private static final int TREES_PER_SPLIT = 5;
+
+	/*
+	 * Records left out between training and testing records (see
+	 * RecordView.split)
+	 */
+	private static final int GAP = 100;
+
+	public static void main(String[] args) throws Exception {
+		int ticks = 40000;
+		int trees = 20;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-ticks":
+				ticks = Integer.parseInt(args[++i]);
+				break;
+			case "-trees":
+				trees = Integer.parseInt(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown argument "
+						+ args[i] + ", usage: [-ticks n] [-trees n]");
+			}
+		}
+
+		File dir = Files.createTempDirectory("rfcheck").toFile();
+
+		boolean ok;
+		try {
+			ok = check(dir, ticks, trees);
+		} finally {
+			FileUtil.fullyDelete(dir);
+		}
+
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	private static boolean check(File dir, int ticks, int trees)
+			throws Exception {
+		// generated ticks of one pair, prepared into labeled records
+		String tickFile = new File(dir, "ticks.csv").getPath();
+		try (TickSink sink = new CsvTickSink(tickFile)) {
+			new TickGenerator(0, "EUR/USD").generate(ticks, sink);
+		}
+
+		String labeledFile = new File(dir, "labeled.csv").getPath();
+		new DataPrep().prepareData(tickFile, labeledFile,
+				HorizonLabeler.NEXT_CHANGE);
+
+		RecordView.Fold split = RecordView
+				.load(new CsvRecordSource(labeledFile)).split(0.8, GAP);
+
+		MemoryDataStore store = new MemoryDataStore();
+		store.writeRecords(true, split.getTrain());
+		store.writeRecords(false, split.getTest());
+
+		// the job, with the local job runner
+		Configuration conf = new Configuration();
+		conf.set("mapred.job.tracker", "local");
+		conf.set("fs.default.name", "file:///");
+		conf.set(RandomForestMR.SNAPSHOT_DIR_KEY,
+				new File(dir, "staging").getPath());
+		conf.setInt(FakeInputFormat.TREES_KEY, trees);
+		conf.setInt(FakeInputFormat.TREES_PER_SPLIT_KEY, TREES_PER_SPLIT);
+		conf.setLong(RandomForestMapper.SEED_KEY, 0);
+
+		Path output = new Path(new File(dir, "forest").getPath());
+
+		if (!RandomForestMR.run(conf, store.records(true),
+				new Path(dir.getPath()), output)) {
+			System.out.println("FAIL: job failed");
+			return false;
+		}
+
+		RandomForest forest = SerializeUtil
+				.deserializeShardedRandomForest(output.toString());
+		if (forest == null || forest.getTrees().size() != trees) {
+			System.out.println("FAIL: expected " + trees + " trees, loaded "
+					+ (forest == null ? 0 : forest.getTrees().size()));
+			return false;
+		}
+
+		forest.test(store);
+		double accuracy = store.getPerformance(false).get(trees);
+
+		// reference forest, trained in memory on the same records
+		RandomForest local = new RandomForest(trees);
+		local.train(split.getTrain(), store.performanceSink());
+		double localAccuracy = 1 - local.test(split.getTest());
+
+		boolean ok = accuracy >= localAccuracy - ACCURACY_SLACK;
+
+		System.out.println(String.format(
+				"%d trees, accuracy %.4f, in memory %.4f: %s", trees,
+				accuracy, localAccuracy, ok ? "OK" : "FAIL"));
+
+		// the output directory of the job, scored by the scoring job
+		double scoredAccuracy = score(conf, dir, output, split.getTest());
+		boolean same = scoredAccuracy == accuracy;
+
+		System.out.println(String.format("scoring job accuracy %.4f: %s",
+				scoredAccuracy, same ? "OK" : "FAIL"));
+
+		return ok && same;
+	}
+
+	/**
+	 * Score records with the scoring job
+	 * 
+	 * @return accuracy of the job on the records, -1 if it failed
+	 */
+	private static double score(Configuration conf, File dir, Path model,
+			RecordView records) throws Exception {
+		File input = new File(dir, "test.csv");
+		try (PrintWriter out = new PrintWriter(input);
+				RecordStream stream = records.open()) {
+			boolean[] record;
+			while ((record = stream.next()) != null) {
+				StringBuilder line = new StringBuilder();
+				for (boolean b : record) {
+					if (line.length() > 0) {
+						line.append(",");
+					}
+					line.append(b);
+				}
+				out.println(line);
+			}
+		}
+
+		Counters counters = ForestScoringMR.run(conf, model,
+				new Path(input.getPath()),
+				new Path(new File(dir, "scored").getPath()));
+		if (counters == null) {
+			return -1;
+		}
+
+		long correct = counters.findCounter(ScoringCounters.TRUE_TO_TRUE)
+				.getValue()
+				+ counters.findCounter(ScoringCounters.FALSE_TO_FALSE)
+						.getValue();
+		long scored = counters.findCounter(ScoringCounters.RECORDS)
+				.getValue();
+
+		return scored == 0 ? -1 : (double) correct / scored;
+	}
+}
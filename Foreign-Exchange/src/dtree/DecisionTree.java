@@ -36,6 +36,92 @@ public class DecisionTree implements Serializable {
 		this.features = features;
 	}
 
+	/**
+	 * Rebuild a decision tree from its flat (compiled) form
+	 * 
+	 * @param features
+	 *            names of all features
+	 * @param flat
+	 *            flat tree
+	 * @return decision tree
+	 */
+	public static DecisionTree fromFlatTree(List<String> features,
+			FlatTree flat) {
+		DecisionTree tree = new DecisionTree(features);
+		tree.root = buildNode(features, flat, 0);
+		return tree;
+	}
+
+	private static TreeNode buildNode(List<String> features, FlatTree flat,
+			int i) {
+		TreeNode n = new TreeNode(null);
+		n.pos = flat.pos[i];
+		n.neg = flat.neg[i];
+
+		if (flat.feature[i] >= 0) {
+			n.featureName = features.get(flat.feature[i]);
+			n.left = buildNode(features, flat, i + 1);
+			n.right = buildNode(features, flat, flat.right[i]);
+		}
+
+		return n;
+	}
+
+	/**
+	 * Compile the tree into flat node arrays (pre-order)
+	 * 
+	 * @return flat tree
+	 */
+	public FlatTree flatten() {
+		int size = countNodes(root);
+		FlatTree flat = new FlatTree(new int[size], new int[size],
+				new int[size], new int[size]);
+		flattenNode(root, flat, 0);
+		return flat;
+	}
+
+	private static int countNodes(TreeNode n) {
+		if (n.featureName == null) {
+			return 1;
+		}
+		return 1 + countNodes(n.left) + countNodes(n.right);
+	}
+
+	/**
+	 * Write a node and its subtree into flat arrays
+	 * 
+	 * @return index of the next free slot
+	 */
+	private int flattenNode(TreeNode n, FlatTree flat, int i) {
+		flat.pos[i] = n.pos;
+		flat.neg[i] = n.neg;
+
+		if (n.featureName == null) {
+			flat.feature[i] = -1;
+			flat.right[i] = -1;
+			return i + 1;
+		}
+
+		flat.feature[i] = features.indexOf(n.featureName);
+		int next = flattenNode(n.left, flat, i + 1);
+		flat.right[i] = next;
+		return flattenNode(n.right, flat, next);
+	}
+
+	/**
+	 * @return root node (for tree builders in this package)
+	 */
+	TreeNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * @return names of all features
+	 */
+	List<String> getFeatures() {
+		return features;
+	}
+
 	/**
 	 * Train the tree (used by RandomForest)
 	 * 
@@ -1,7 +1,10 @@
 package dtree;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
+import metrics.Tracer;
+
 /**
  * Illustrate use of DecisionTree class
  * 
@@ -9,16 +12,27 @@ import java.util.ArrayList;
  *
  */
 public class Driver {
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		String trainFile = "sample_train.csv";
 		String testFile = "sample_test.csv";
 
-		DecisionTree tree = new DecisionTree(new ArrayList<String>());
+		double err;
+
+		// phases are traced if -Dforex.trace=<trace file> is given
+		try (Tracer.Span span = Tracer.span("dtree.Driver")) {
+			DecisionTree tree = new DecisionTree(new ArrayList<String>());
 
-		tree.train(trainFile);
+			try (Tracer.Span phase = Tracer.span("train")) {
+				tree.train(trainFile);
+			}
 
-		double err = tree.test(testFile);
+			try (Tracer.Span phase = Tracer.span("test")) {
+				err = tree.test(testFile);
+			}
+		}
 
 		System.out.println("Test error: " + err + ", accuracy: " + (1 - err));
+
+		Tracer.finish();
 	}
 }
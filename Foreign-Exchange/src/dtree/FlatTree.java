@@ -0,0 +1,173 @@
+package dtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class represents a decision tree compiled into flat node arrays. Nodes
+ * are stored in pre-order, so the left child of node i is node i + 1 and only
+ * the index of the right child needs to be stored. Used for fast scoring and
+ * for the binary model format.
+ *
+ * @author zzuo
+ *
+ */
+public class FlatTree {
+
+	/*
+	 * index of the feature each node splits on, -1 for leaf nodes
+	 */
+	final int[] feature;
+
+	/*
+	 * index of the right child of each node (feature value negative)
+	 */
+	final int[] right;
+
+	/*
+	 * number of positive labels of each node
+	 */
+	final int[] pos;
+
+	/*
+	 * number of negative labels of each node
+	 */
+	final int[] neg;
+
+	public FlatTree(int[] feature, int[] right, int[] pos, int[] neg) {
+		this.feature = feature;
+		this.right = right;
+		this.pos = pos;
+		this.neg = neg;
+	}
+
+	/**
+	 * Make a decision on a given record
+	 *
+	 * @param record
+	 *            record to make decision on
+	 * @return decision
+	 */
+	public boolean decide(boolean[] record) {
+		int i = 0;
+		while (feature[i] >= 0) {
+			i = record[feature[i]] ? i + 1 : right[i];
+		}
+		return pos[i] > neg[i];
+	}
+
+	/**
+	 * Canonical form of the tree, which only keeps what decisions depend on:
+	 * leaves keep their decision (pos and neg counts become 1 and 0, or 0 and
+	 * 1), and a split whose subtrees are the same becomes that subtree. Trees
+	 * making the same decisions through the same splits have equal canonical
+	 * forms, whatever their label counts.
+	 *
+	 * @return canonical tree, making the same decisions as this tree
+	 */
+	public FlatTree canonical() {
+		List<Integer> code = new ArrayList<>();
+		encode(0, code);
+
+		int size = code.size() / 2;
+		FlatTree tree = new FlatTree(new int[size], new int[size],
+				new int[size], new int[size]);
+		tree.decode(code, 0, 0);
+		return tree;
+	}
+
+	/**
+	 * Encode the canonical form of a subtree in pre-order, two ints per
+	 * node: feature and 0 for a split, -1 and the decision for a leaf
+	 *
+	 * @return index of the node after the subtree
+	 */
+	private int encode(int i, List<Integer> code) {
+		if (feature[i] < 0) {
+			code.add(-1);
+			code.add(pos[i] > neg[i] ? 1 : 0);
+			return i + 1;
+		}
+
+		int start = code.size();
+		code.add(feature[i]);
+		code.add(0);
+
+		int mid = code.size();
+		encode(i + 1, code);
+		int end = code.size();
+		int next = encode(right[i], code);
+
+		// both branches decide the same way: drop the split
+		if (code.subList(mid, end).equals(code.subList(end, code.size()))) {
+			code.subList(end, code.size()).clear();
+			code.subList(start, mid).clear();
+		}
+
+		return next;
+	}
+
+	/**
+	 * Decode a subtree encoded by encode into node i of this tree
+	 *
+	 * @return position in the code, and index of the node, after the
+	 *         subtree
+	 */
+	private int decode(List<Integer> code, int c, int i) {
+		int f = code.get(c);
+		feature[i] = f;
+		if (f < 0) {
+			right[i] = -1;
+			pos[i] = code.get(c + 1);
+			neg[i] = 1 - pos[i];
+			return c + 2;
+		}
+
+		int next = decode(code, c + 2, i + 1);
+		right[i] = i + 1 + (next - c - 2) / 2;
+		return decode(code, next, right[i]);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FlatTree)) {
+			return false;
+		}
+		FlatTree t = (FlatTree) o;
+		return Arrays.equals(feature, t.feature)
+				&& Arrays.equals(right, t.right)
+				&& Arrays.equals(pos, t.pos) && Arrays.equals(neg, t.neg);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = Arrays.hashCode(feature);
+		h = 31 * h + Arrays.hashCode(right);
+		h = 31 * h + Arrays.hashCode(pos);
+		return 31 * h + Arrays.hashCode(neg);
+	}
+
+	/**
+	 * @return number of nodes in the tree
+	 */
+	public int size() {
+		return feature.length;
+	}
+
+	public int[] getFeature() {
+		return feature;
+	}
+
+	public int[] getRight() {
+		return right;
+	}
+
+	public int[] getPos() {
+		return pos;
+	}
+
+	public int[] getNeg() {
+		return neg;
+	}
+}
@@ -0,0 +1,334 @@
+package dtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Grows a decision tree from a stream of (weighted) records without keeping
+ * the records in memory. Only sufficient statistics (positive / negative
+ * counts) are kept for the nodes that are still being grown (the "frontier").
+ *
+ * Each pass over the data accumulates statistics for the frontier nodes. If a
+ * frontier node has few enough unused features, a joint histogram over all of
+ * them is collected and its whole subtree is grown at the end of the pass;
+ * otherwise only per-feature counts are collected, and the node is split one
+ * level per pass. The resulting tree is the same as the one DecisionTree.train
+ * grows from the same (weighted) records.
+ *
+ * @author zzuo
+ *
+ */
+public class StreamingTreeBuilder {
+
+	/*
+	 * Maximum number of unused features for which a joint histogram is
+	 * collected (2^k cells of positive / negative counts)
+	 */
+	private static final int MAX_JOINT_FEATURES = 10;
+
+	private final DecisionTree tree;
+
+	/*
+	 * Root of the routing tree, mirrors the decision tree while it is grown
+	 */
+	private final BuildNode root;
+
+	/*
+	 * Nodes that are collecting statistics in the current pass
+	 */
+	private List<BuildNode> frontier = new ArrayList<>();
+
+	public StreamingTreeBuilder(DecisionTree tree, Set<Integer> featureIds) {
+		this.tree = tree;
+
+		int[] candidates = new int[featureIds.size()];
+		int j = 0;
+		for (int id : featureIds) {
+			candidates[j++] = id;
+		}
+		Arrays.sort(candidates);
+
+		this.root = new BuildNode(tree.getRoot(), candidates);
+		root.startCollecting();
+		frontier.add(root);
+	}
+
+	/**
+	 * @return true if no node needs more statistics
+	 */
+	public boolean isComplete() {
+		return frontier.isEmpty();
+	}
+
+	/**
+	 * Add a record (with its bootstrap weight) to the statistics of the
+	 * frontier node it falls into
+	 *
+	 * @param record
+	 *            record (features followed by the label)
+	 * @param weight
+	 *            number of times the record is counted
+	 */
+	public void accumulate(boolean[] record, int weight) {
+		if (weight == 0) {
+			return;
+		}
+
+		BuildNode n = root;
+		while (n.featureId >= 0) {
+			n = record[n.featureId] ? n.left : n.right;
+		}
+
+		if (n.counts == null) {
+			// record falls into a finished leaf
+			return;
+		}
+
+		int label = record[record.length - 1] ? 0 : 1;
+		int[] candidates = n.candidates;
+
+		if (n.joint) {
+			int cell = 0;
+			for (int j = 0; j < candidates.length; j++) {
+				if (record[candidates[j]]) {
+					cell |= 1 << j;
+				}
+			}
+			n.counts[cell * 2 + label] += weight;
+		} else {
+			for (int j = 0; j < candidates.length; j++) {
+				int side = record[candidates[j]] ? 0 : 2;
+				n.counts[j * 4 + side + label] += weight;
+			}
+		}
+	}
+
+	/**
+	 * Finish a pass: grow the tree using the statistics collected for the
+	 * frontier nodes, and set up the frontier for the next pass
+	 *
+	 * @param lastPass
+	 *            if true, nodes that would need another pass become leaves
+	 */
+	public void endPass(boolean lastPass) {
+		List<BuildNode> next = new ArrayList<>();
+
+		for (BuildNode n : frontier) {
+			if (n.joint) {
+				int all = (1 << n.candidates.length) - 1;
+				int[] counts = sumCells(n, 0, 0);
+				n.node.pos = counts[0];
+				n.node.neg = counts[1];
+				growFromHistogram(n.node, n, 0, 0, all);
+			} else {
+				splitOneLevel(n, lastPass ? null : next);
+			}
+			n.counts = null;
+		}
+
+		for (BuildNode n : next) {
+			n.startCollecting();
+		}
+
+		frontier = next;
+	}
+
+	/**
+	 * Split a node on the feature with max mutual information, using the
+	 * per-feature counts collected in the last pass
+	 *
+	 * @param n
+	 *            node to split
+	 * @param next
+	 *            frontier for the next pass, or null if no more passes
+	 */
+	private void splitOneLevel(BuildNode n, List<BuildNode> next) {
+		TreeNode node = n.node;
+		int[] c = n.counts;
+
+		// every candidate sees every record, so any of them gives the totals
+		node.pos = c[0] + c[2];
+		node.neg = c[1] + c[3];
+
+		if (node.pos == 0 || node.neg == 0) {
+			return;
+		}
+
+		double maxMI = 0.0;
+		int maxJ = -1;
+		node.left = new TreeNode(null);
+		node.right = new TreeNode(null);
+
+		for (int j = 0; j < n.candidates.length; j++) {
+			setChildCounts(node, c[j * 4], c[j * 4 + 1], c[j * 4 + 2],
+					c[j * 4 + 3]);
+
+			double mi = node.mutualInformation();
+			if (mi > maxMI) {
+				maxMI = mi;
+				maxJ = j;
+			}
+		}
+
+		if (maxMI <= 0) {
+			node.left = null;
+			node.right = null;
+			return;
+		}
+
+		setChildCounts(node, c[maxJ * 4], c[maxJ * 4 + 1], c[maxJ * 4 + 2],
+				c[maxJ * 4 + 3]);
+		node.featureName = tree.getFeatures().get(n.candidates[maxJ]);
+		n.featureId = n.candidates[maxJ];
+
+		int[] remaining = without(n.candidates, maxJ);
+		n.left = new BuildNode(node.left, remaining);
+		n.right = new BuildNode(node.right, remaining);
+
+		if (next != null && remaining.length > 0) {
+			if (node.left.pos > 0 && node.left.neg > 0) {
+				next.add(n.left);
+			}
+			if (node.right.pos > 0 && node.right.neg > 0) {
+				next.add(n.right);
+			}
+		}
+	}
+
+	/**
+	 * Grow a subtree from a joint histogram, following the same rules as
+	 * DecisionTree.trainNode
+	 *
+	 * @param node
+	 *            current node, with its counts already set
+	 * @param n
+	 *            frontier node owning the histogram
+	 * @param fixedMask
+	 *            histogram bits fixed by the path from n to node
+	 * @param fixedValues
+	 *            values of the fixed bits
+	 * @param unused
+	 *            histogram bits not yet used under this path
+	 */
+	private void growFromHistogram(TreeNode node, BuildNode n, int fixedMask,
+			int fixedValues, int unused) {
+		if (node.pos == 0 || node.neg == 0 || unused == 0) {
+			return;
+		}
+
+		double maxMI = 0.0;
+		int maxJ = -1;
+		node.left = new TreeNode(null);
+		node.right = new TreeNode(null);
+
+		for (int j = 0; j < n.candidates.length; j++) {
+			if ((unused & (1 << j)) == 0) {
+				continue;
+			}
+
+			int[] l = sumCells(n, fixedMask | (1 << j), fixedValues | (1 << j));
+			setChildCounts(node, l[0], l[1], node.pos - l[0], node.neg - l[1]);
+
+			double mi = node.mutualInformation();
+			if (mi > maxMI) {
+				maxMI = mi;
+				maxJ = j;
+			}
+		}
+
+		if (maxMI <= 0) {
+			node.left = null;
+			node.right = null;
+			return;
+		}
+
+		int bit = 1 << maxJ;
+		int[] l = sumCells(n, fixedMask | bit, fixedValues | bit);
+		setChildCounts(node, l[0], l[1], node.pos - l[0], node.neg - l[1]);
+		node.featureName = tree.getFeatures().get(n.candidates[maxJ]);
+
+		growFromHistogram(node.left, n, fixedMask | bit, fixedValues | bit,
+				unused & ~bit);
+		growFromHistogram(node.right, n, fixedMask | bit, fixedValues,
+				unused & ~bit);
+	}
+
+	/**
+	 * Sum positive and negative counts of histogram cells matching given bits
+	 *
+	 * @return {pos, neg}
+	 */
+	private static int[] sumCells(BuildNode n, int mask, int values) {
+		int pos = 0;
+		int neg = 0;
+		int cells = 1 << n.candidates.length;
+
+		for (int cell = 0; cell < cells; cell++) {
+			if ((cell & mask) == values) {
+				pos += n.counts[cell * 2];
+				neg += n.counts[cell * 2 + 1];
+			}
+		}
+
+		return new int[] { pos, neg };
+	}
+
+	private static void setChildCounts(TreeNode node, int leftPos,
+			int leftNeg, int rightPos, int rightNeg) {
+		node.left.pos = leftPos;
+		node.left.neg = leftNeg;
+		node.right.pos = rightPos;
+		node.right.neg = rightNeg;
+	}
+
+	private static int[] without(int[] candidates, int j) {
+		int[] res = new int[candidates.length - 1];
+		System.arraycopy(candidates, 0, res, 0, j);
+		System.arraycopy(candidates, j + 1, res, j, res.length - j);
+		return res;
+	}
+
+	/**
+	 * A node of the routing tree
+	 */
+	private static final class BuildNode {
+		final TreeNode node;
+
+		/*
+		 * features this node may still split on
+		 */
+		final int[] candidates;
+
+		/*
+		 * whether a joint histogram is collected for this node
+		 */
+		final boolean joint;
+
+		/*
+		 * feature this node was split on in an earlier pass, -1 otherwise
+		 */
+		int featureId = -1;
+
+		/*
+		 * statistics collected in the current pass, null if not in frontier
+		 */
+		int[] counts;
+
+		BuildNode left;
+
+		BuildNode right;
+
+		BuildNode(TreeNode node, int[] candidates) {
+			this.node = node;
+			this.candidates = candidates;
+			this.joint = candidates.length <= MAX_JOINT_FEATURES;
+		}
+
+		void startCollecting() {
+			counts = joint ? new int[2 << candidates.length]
+					: new int[4 * candidates.length];
+		}
+	}
+}
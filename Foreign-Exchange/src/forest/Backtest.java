@@ -0,0 +1,365 @@
+package forest;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import metrics.Tracer;
+import prep.QuantileBinarizer;
+import util.CsvRecordSource;
+import util.DatasetSnapshot;
+import util.GlobalParams;
+import util.RecordView;
+
+/**
+ * Walk-forward backtest of a random forest retrained on a rolling schedule.
+ * The dataset is walked in steps: at each step a forest is trained on the
+ * trailing window of records and scores the records of the next step, as a
+ * model retrained every step would in production. Steps are independent and
+ * run on a pool of threads; the dataset is loaded (or mapped) once, and the
+ * overlapping windows of the steps are views of it (see
+ * RecordView.rolling), so no record is copied or reloaded.
+ *
+ * Each step reports its accuracy, hit rate (fraction of up decisions which
+ * are right, i.e. of trades taken on the decisions which win) and training
+ * and scoring times.
+ *
+ * @author zzuo
+ *
+ */
+public class Backtest {
+
+	/*
+	 * Maximum passes over the window of a step for out-of-core training
+	 */
+	private static final int MAX_PASSES = 4;
+
+	/*
+	 * System properties of the number of trees of each forest
+	 * (GlobalParams.TREES by default), of the number of threads (all
+	 * processors by default), and of the number of records left out between
+	 * the window and the scored records of each step
+	 */
+	private static final String TREES_PROPERTY = "forex.backtest.trees";
+
+	private static final String THREADS_PROPERTY = "forex.backtest.threads";
+
+	private static final String GAP_PROPERTY = "forex.backtest.gap";
+
+	private static final int DEFAULT_GAP = 100;
+
+	/*
+	 * System property of the cut points file of records (see
+	 * QuantileBinarizer)
+	 */
+	private static final String BINARIZER_PROPERTY = "forex.binarizer";
+
+	private final RecordView data;
+
+	private final int numOfTrees;
+
+	private final QuantileBinarizer binarizer;
+
+	/**
+	 * @param data
+	 *            labeled records, in time order
+	 * @param numOfTrees
+	 *            number of trees of the forest of each step
+	 * @param binarizer
+	 *            cut points of the records, or null
+	 */
+	public Backtest(RecordView data, int numOfTrees,
+			QuantileBinarizer binarizer) {
+		this.data = data;
+		this.numOfTrees = numOfTrees;
+		this.binarizer = binarizer;
+	}
+
+	/**
+	 * Run the backtest
+	 *
+	 * @param window
+	 *            number of training records of each step
+	 * @param step
+	 *            number of scored records of each step
+	 * @param gap
+	 *            number of records left out between the window and the
+	 *            scored records, so labels of the window do not look ahead
+	 *            into them
+	 * @param threads
+	 *            number of steps run in parallel
+	 * @return result of each step, in time order
+	 * @throws IOException
+	 */
+	public List<Step> run(int window, int step, int gap, int threads)
+			throws IOException {
+		List<RecordView.Fold> folds = data.rolling(window, step, gap);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Step>> futures = new ArrayList<>(folds.size());
+			for (int i = 0; i < folds.size(); i++) {
+				final int index = i;
+				final RecordView.Fold fold = folds.get(i);
+				futures.add(executor.submit(new Callable<Step>() {
+					@Override
+					public Step call() throws IOException {
+						return runStep(index, fold);
+					}
+				}));
+			}
+
+			List<Step> steps = new ArrayList<>(folds.size());
+			for (Future<Step> f : futures) {
+				steps.add(f.get());
+			}
+			return steps;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Backtest interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Train a forest on the window of a step and score its records
+	 */
+	private Step runStep(int index, RecordView.Fold fold) throws IOException {
+		try (Tracer.Span span = Tracer.span("step")) {
+			Step s = new Step(index, fold.getTrain().dataIndex(0),
+					fold.getTest().dataIndex(0), fold.getTest().size());
+
+			long start = System.nanoTime();
+
+			RandomForest forest = new RandomForest(numOfTrees);
+			forest.setBinarizer(binarizer);
+			// one pass over the shared window, instead of in-memory bootstrap
+			// samples and per tree validation
+			forest.trainOutOfCore(fold.getTrain(), MAX_PASSES);
+
+			long trainEnd = System.nanoTime();
+			s.trainNanos = trainEnd - start;
+
+			RecordView test = fold.getTest();
+			boolean[] record = new boolean[test.columns()];
+			for (int i = 0; i < test.size(); i++) {
+				boolean[] r = test.get(i, record);
+				boolean decision = forest.decide(r);
+				boolean label = r[r.length - 1];
+
+				if (decision) {
+					if (label) {
+						s.trueToTrue++;
+					} else {
+						s.falseToTrue++;
+					}
+				} else if (label) {
+					s.trueToFalse++;
+				} else {
+					s.falseToFalse++;
+				}
+			}
+
+			s.scoreNanos = System.nanoTime() - trainEnd;
+
+			return s;
+		}
+	}
+
+	/**
+	 * Result of a step of a backtest
+	 */
+	public static class Step {
+
+		private final int index;
+
+		/*
+		 * Index of the first record of the window and of the scored records,
+		 * and number of scored records
+		 */
+		private final int trainStart;
+
+		private final int testStart;
+
+		private final int testCount;
+
+		/*
+		 * Confusion counts: label to decision
+		 */
+		private int trueToTrue;
+
+		private int trueToFalse;
+
+		private int falseToTrue;
+
+		private int falseToFalse;
+
+		private long trainNanos;
+
+		private long scoreNanos;
+
+		Step(int index, int trainStart, int testStart, int testCount) {
+			this.index = index;
+			this.trainStart = trainStart;
+			this.testStart = testStart;
+			this.testCount = testCount;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getTrainStart() {
+			return trainStart;
+		}
+
+		public int getTestStart() {
+			return testStart;
+		}
+
+		public int getTestCount() {
+			return testCount;
+		}
+
+		public int getCorrect() {
+			return trueToTrue + falseToFalse;
+		}
+
+		/**
+		 * @return number of up decisions
+		 */
+		public int getTrades() {
+			return trueToTrue + falseToTrue;
+		}
+
+		/**
+		 * @return number of up decisions which are right
+		 */
+		public int getHits() {
+			return trueToTrue;
+		}
+
+		public double getAccuracy() {
+			return testCount == 0 ? 0 : (double) getCorrect() / testCount;
+		}
+
+		/**
+		 * @return fraction of up decisions which are right, 0 without any
+		 */
+		public double getHitRate() {
+			return getTrades() == 0 ? 0 : (double) getHits() / getTrades();
+		}
+
+		public long getTrainNanos() {
+			return trainNanos;
+		}
+
+		public long getScoreNanos() {
+			return scoreNanos;
+		}
+	}
+
+	/**
+	 * Write a report of the steps, one csv line per step
+	 *
+	 * @param steps
+	 *            results of the steps
+	 * @param out
+	 *            report
+	 */
+	public static void writeReport(List<Step> steps, PrintWriter out) {
+		out.println("step,train_start,test_start,test_count,accuracy,"
+				+ "trades,hit_rate,train_ms,score_ms");
+		for (Step s : steps) {
+			out.println(s.getIndex() + "," + s.getTrainStart() + ","
+					+ s.getTestStart() + "," + s.getTestCount() + ","
+					+ s.getAccuracy() + "," + s.getTrades() + ","
+					+ s.getHitRate() + "," + s.getTrainNanos() / 1000000
+					+ "," + s.getScoreNanos() / 1000000);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Usage: Backtest labeled.csv|data.snapshot window step [report.csv]
+	 *
+	 * window and step are numbers of records, the number of trees of each
+	 * forest is given by -Dforex.backtest.trees. Snapshots are read through a
+	 * mapping, csv files are loaded once. The report of each step is printed,
+	 * or written to report.csv, followed by the overall accuracy and hit rate.
+	 */
+	public static void main(String[] args) throws IOException {
+		long startTime = System.currentTimeMillis();
+
+		int window = Integer.parseInt(args[1]);
+		int step = Integer.parseInt(args[2]);
+		int trees = Integer.getInteger(TREES_PROPERTY, GlobalParams.TREES);
+		int gap = Integer.getInteger(GAP_PROPERTY, DEFAULT_GAP);
+		int threads = Integer.getInteger(THREADS_PROPERTY,
+				Runtime.getRuntime().availableProcessors());
+
+		try (Tracer.Span span = Tracer.span("forest.Backtest")) {
+			RecordView data;
+			try (Tracer.Span phase = Tracer.span("load")) {
+				data = args[0].endsWith(".snapshot")
+						? RecordView.of(DatasetSnapshot.open(args[0]))
+						: RecordView.load(new CsvRecordSource(args[0]));
+			}
+
+			String binarizer = System.getProperty(BINARIZER_PROPERTY);
+
+			long loadTime = System.currentTimeMillis();
+
+			List<Step> steps = new Backtest(data, trees, binarizer == null
+					? null : QuantileBinarizer.read(binarizer))
+							.run(window, step, gap, threads);
+
+			long runTime = System.currentTimeMillis();
+
+			if (args.length > 3) {
+				try (PrintWriter out = new PrintWriter(args[3])) {
+					writeReport(steps, out);
+				}
+			} else {
+				writeReport(steps, new PrintWriter(System.out));
+			}
+
+			long correct = 0;
+			long scored = 0;
+			long trades = 0;
+			long hits = 0;
+			long stepNanos = 0;
+			for (Step s : steps) {
+				correct += s.getCorrect();
+				scored += s.getTestCount();
+				trades += s.getTrades();
+				hits += s.getHits();
+				stepNanos += s.getTrainNanos() + s.getScoreNanos();
+			}
+
+			System.out.println("\n" + steps.size() + " steps over "
+					+ data.size() + " records, " + trees + " trees, " + threads
+					+ " threads");
+			System.out.println("Accuracy: " + (double) correct / scored
+					+ ", hit rate: " + (double) hits / trades + " (" + trades
+					+ " trades)");
+			System.out.println("Load: " + (loadTime - startTime)
+					+ " ms, steps: " + (runTime - loadTime) + " ms ("
+					+ stepNanos / 1000000 + " ms of step time)");
+		}
+
+		Tracer.finish();
+	}
+}
@@ -1,8 +1,20 @@
 package forest;
 
-import com.datastax.driver.core.Cluster;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
-import util.GlobalParams;
+import metrics.Metrics;
+import metrics.MetricsReporter;
+import metrics.Tracer;
+import prep.QuantileBinarizer;
+import util.CsvRecordSource;
+import util.DataStore;
+import util.DatasetSnapshot;
+import util.DataStores;
+import util.LabelColumnSource;
+import util.RecordSource;
+import util.RecordView;
 import util.SerializeUtil;
 
 /**
@@ -12,34 +24,189 @@ import util.SerializeUtil;
  *
  */
 public class Driver {
-	public static void main(String[] args) {
+
+	/*
+	 * Maximum passes over the data for out-of-core training
+	 */
+	private static final int MAX_PASSES = 4;
+
+	/*
+	 * Number of feature columns of prepared data (see DataPrep)
+	 */
+	private static final int NUM_OF_FEATURES = 5;
+
+	/*
+	 * System property of the cut points file of training records
+	 */
+	private static final String BINARIZER_PROPERTY = "forex.binarizer";
+
+	/*
+	 * System properties of walk-forward validation: number of folds, and
+	 * number of records left out before the testing records of each fold
+	 */
+	private static final String FOLDS_PROPERTY = "forex.folds";
+
+	private static final String FOLD_GAP_PROPERTY = "forex.fold.gap";
+
+	private static final int DEFAULT_FOLD_GAP = 100;
+
+	/*
+	 * Seconds between metrics snapshots
+	 */
+	private static final long METRICS_PERIOD = 10;
+
+	public static void main(String[] args) throws IOException {
 		// number of trees to grow
 		int N = 30;
 
 		long startTime = System.currentTimeMillis();
 
-		// create a random forest
-		RandomForest forest = new RandomForest(N);
+		// export metrics over JMX, and report them periodically
+		Metrics.enableJmx();
+		MetricsReporter reporter = new MetricsReporter(System.out,
+				METRICS_PERIOD);
+
+		// phases are traced if -Dforex.trace=<trace file> is given
+		try (Tracer.Span span = Tracer.span("forest.Driver")) {
+			// create a random forest
+			RandomForest forest = new RandomForest(N);
+
+			// records binarized with quantile cut points (see
+			// QuantileBinarizer) are trained with their cut points, which are
+			// saved with the model
+			String binarizer = System.getProperty(BINARIZER_PROPERTY);
+			if (binarizer != null) {
+				forest.setBinarizer(QuantileBinarizer.read(binarizer));
+			}
+
+			int folds = Integer.getInteger(FOLDS_PROPERTY, 0);
+
+			// storage chosen by -Dforex.store (Cassandra by default); a forest
+			// trained from a file is only tested on a store given explicitly
+			boolean testOnStore = args.length == 0 || (folds == 0
+					&& System.getProperty(DataStores.STORE_PROPERTY) != null);
+
+			DataStore store = testOnStore ? DataStores.fromConfig() : null;
+
+			if (args.length > 0 && args[0].endsWith(".snapshot")) {
+				// records of a snapshot, read through a mapping
+				DatasetSnapshot snapshot = DatasetSnapshot.open(args[0]);
+
+				if (folds > 0) {
+					walkForward(RecordView.of(snapshot), folds, N,
+							forest.getBinarizer());
+				} else {
+					System.out.println("Training: ");
 
-		Cluster cluster = Cluster.builder().addContactPoint(GlobalParams.CASSANDRA_ADDR)
-				.build();
+					forest.trainOutOfCore(snapshot, MAX_PASSES);
+				}
+			} else if (args.length > 0) {
+				// records streamed from a labeled csv file
+				CsvRecordSource csv = new CsvRecordSource(args[0]);
+				RecordSource source = csv;
+				if (args.length > 1) {
+					// label column of a horizon, e.g. label_10s
+					int column = Arrays.asList(csv.getColumnNames())
+							.indexOf(args[1]);
+					if (column < 0) {
+						throw new IllegalArgumentException("No label column "
+								+ args[1] + " in " + args[0]);
+					}
+					int features = binarizer != null
+							? forest.getBinarizer().getFeatures().size()
+							: NUM_OF_FEATURES;
+					source = new LabelColumnSource(source, features, column);
+				}
 
-		System.out.println("Training: ");
+				if (folds > 0) {
+					// records are loaded once, and shared by all folds
+					RecordView data;
+					try (Tracer.Span phase = Tracer.span("load")) {
+						data = RecordView.load(source);
+					}
 
-		forest.train(cluster);
+					walkForward(data, folds, N, forest.getBinarizer());
+				} else {
+					System.out.println("Training: ");
+
+					// out-of-core training
+					forest.trainOutOfCore(source, MAX_PASSES);
+				}
+			} else {
+				System.out.println("Training: ");
+
+				forest.train(store);
+			}
 		
-//		SerializeUtil.serializeRandomForest(forest, "forest.json");
+//			SerializeUtil.serializeRandomForest(forest, "forest.json");
 		
-//		forest = SerializeUtil.deserializeRandomForest("forest.json");
+//			forest = SerializeUtil.deserializeRandomForest("forest.json");
+
+//			SerializeUtil.serializeRandomForestBinary(forest, "forest.bin");
+
+//			forest = SerializeUtil.deserializeRandomForestBinary("forest.bin");
 
-		System.out.println("\nTesting: ");
+			if (testOnStore) {
+				System.out.println("\nTesting: ");
 
-		forest.test(cluster);
+				forest.test(store);
 
-		cluster.close();
+				try (Tracer.Span close = Tracer.span("close")) {
+					store.close();
+				}
+			} else if (folds == 0) {
+				System.out.println("\nNot tested: no testing store given (-D"
+						+ DataStores.STORE_PROPERTY + "), or validate with -D"
+						+ FOLDS_PROPERTY);
+			}
+		}
+
+		reporter.close();
 
 		long endTime = System.currentTimeMillis();
 
 		System.out.println("\nTime elapsed: " + (endTime - startTime) + " ms");
+
+		Tracer.finish();
+	}
+
+	/**
+	 * Walk-forward validation: a forest is trained on the records before
+	 * each fold and tested on the fold, on views of the records without
+	 * copying them
+	 * 
+	 * @param data
+	 *            labeled records, in time order
+	 * @param numOfFolds
+	 *            number of folds
+	 * @param N
+	 *            number of trees of each forest
+	 * @param binarizer
+	 *            cut points of the records, or null
+	 * @throws IOException
+	 */
+	private static void walkForward(RecordView data, int numOfFolds, int N,
+			QuantileBinarizer binarizer) throws IOException {
+		int gap = Integer.getInteger(FOLD_GAP_PROPERTY, DEFAULT_FOLD_GAP);
+
+		List<RecordView.Fold> folds = data.walkForward(numOfFolds, gap, true);
+		double accuracy = 0;
+
+		for (int k = 0; k < folds.size(); k++) {
+			RecordView.Fold fold = folds.get(k);
+
+			System.out.println("Fold " + (k + 1) + ": training on "
+					+ fold.getTrain().size() + " records, testing on "
+					+ fold.getTest().size() + " records");
+
+			RandomForest forest = new RandomForest(N);
+			forest.setBinarizer(binarizer);
+			forest.train(fold.getTrain(), null);
+
+			accuracy += 1 - forest.test(fold.getTest());
+		}
+
+		System.out.println("\nWalk-forward accuracy: "
+				+ accuracy / folds.size());
 	}
 }
@@ -10,16 +10,26 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import com.datastax.driver.core.Cluster;
-import com.datastax.driver.core.Session;
 import com.google.gson.Gson;
-import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.Row;
 
 import dtree.DecisionTree;
+import dtree.FlatTree;
+import dtree.StreamingTreeBuilder;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.Metrics;
+import metrics.Tracer;
+import prep.QuantileBinarizer;
+import util.DataStore;
+import util.PerformanceSink;
+import util.RecordSource;
+import util.RecordStream;
+import util.RecordView;
 
 /**
  * This class represents a random forest. It contains methods to train a random
@@ -34,10 +44,17 @@ public class RandomForest implements Serializable {
 	private static final long serialVersionUID = 6140645275698012409L;
 
 	/*
-	 * List of trees in the forest
+	 * List of trees in the forest, null until built (see getTrees) for a
+	 * forest loaded in flat form
 	 */
 	private List<DecisionTree> trees;
 
+	/*
+	 * Trees of a forest loaded in flat form (from a binary model), scored as
+	 * they are; null once their nodes are built
+	 */
+	private transient volatile List<FlatTree> flatTrees;
+
 	/*
 	 * Number of trees to grow
 	 */
@@ -58,11 +75,83 @@ public class RandomForest implements Serializable {
 	 */
 	private List<String> features;
 
+	/*
+	 * Binarization of continuous features the forest is trained on, or null
+	 * if records were binarized with mean thresholds (DataPrep)
+	 */
+	private QuantileBinarizer binarizer;
+
+	/*
+	 * Maximum passes over the data for out-of-core training of views
+	 */
+	private static final int MAX_PASSES = 4;
+
 	/*
 	 * Fraction of training records to be used for training a tree
 	 */
 	private static final double FRACTION_TRAINING_RECORDS = 2.0 / 3.0;
 
+	/*
+	 * Probability that a record is not drawn for a tree in out-of-core
+	 * training
+	 */
+	private static final double POISSON_ZERO = Math
+			.exp(-FRACTION_TRAINING_RECORDS);
+
+	/*
+	 * One record in SCORE_SAMPLE_MASK + 1 has its scoring latency measured,
+	 * and scored records are counted at that time (timing or counting every
+	 * record would cost a large part of scoring a small forest)
+	 */
+	private static final int SCORE_SAMPLE_MASK = 63;
+
+	/*
+	 * Records scored by each thread, for sampling, so threads scoring in
+	 * parallel do not race on a shared counter
+	 */
+	private static final ThreadLocal<int[]> SCORE_TICKS = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+	/*
+	 * Training and scoring metrics
+	 */
+	private static final Counter RECORDS_LOADED = Metrics
+			.counter("forest.records.loaded");
+
+	private static final Histogram LOAD_NANOS = Metrics
+			.histogram("forest.load.nanos");
+
+	private static final Histogram BOOTSTRAP_NANOS = Metrics
+			.histogram("forest.bootstrap.nanos");
+
+	private static final Histogram TREE_TRAIN_NANOS = Metrics
+			.histogram("forest.tree.train.nanos");
+
+	private static final Histogram TREE_NODES = Metrics
+			.histogram("forest.tree.nodes");
+
+	private static final Histogram PASS_NANOS = Metrics
+			.histogram("forest.pass.nanos");
+
+	private static final Counter RECORDS_SCORED = Metrics
+			.counter("forest.score.records");
+
+	private static final Histogram SCORE_RECORD_NANOS = Metrics
+			.histogram("forest.score.record.nanos");
+
+	private static final Histogram SCORE_BATCH_NANOS = Metrics
+			.histogram("forest.score.batch.nanos");
+
+	/*
+	 * Trees compiled into flat arrays for scoring, rebuilt when trees are
+	 * added
+	 */
+	private transient Votes compiled;
+
 	public RandomForest(int N) {
 		this.N = N;
 		this.trees = new ArrayList<>();
@@ -70,17 +159,80 @@ public class RandomForest implements Serializable {
 	}
 
 	/**
-	 * Train the random forest
+	 * Create a random forest from already trained trees
 	 * 
-	 * @param trainFileName
+	 * @param features
+	 *            names of features
+	 * @param trees
+	 *            trained trees
 	 */
-	public void train(Cluster cluster) {
-		List<boolean[]> records = readInRecordsFromCassandra(cluster, true);
+	public RandomForest(List<String> features, List<DecisionTree> trees) {
+		this.N = trees.size();
+		this.trees = trees;
+		this.features = features;
+		this.numOfFeaturesToBuildTree = (int) Math.sqrt(features.size());
+	}
 
-		createPerformanceTable(cluster, true);
-		
-		features = Arrays.asList(new String[] { "avg_bid", "range_bid",
-				"diff_bid", "delta_bid", "spread" });
+	/**
+	 * Create a random forest from already trained trees in flat form, e.g.
+	 * read from a binary model. Trees are scored in this form, and their
+	 * nodes are only built when needed (see getTrees).
+	 * 
+	 * @param features
+	 *            names of features
+	 * @param flatTrees
+	 *            trained trees in flat form
+	 * @return the forest
+	 */
+	public static RandomForest fromFlatTrees(List<String> features,
+			List<FlatTree> flatTrees) {
+		RandomForest forest = new RandomForest(flatTrees.size());
+		forest.trees = null;
+		forest.flatTrees = flatTrees;
+		forest.features = features;
+		forest.numOfFeaturesToBuildTree = (int) Math.sqrt(features.size());
+		return forest;
+	}
+
+	/**
+	 * Train the random forest on the training records of a data store
+	 * 
+	 * @param store
+	 *            data store
+	 * @throws IOException
+	 */
+	public void train(DataStore store) throws IOException {
+		try (Tracer.Span span = Tracer.span("train")) {
+			List<boolean[]> records;
+			try (Tracer.Span phase = Tracer.span("load")) {
+				records = readRecords(store.records(true));
+			}
+
+			PerformanceSink sink;
+			try (Tracer.Span phase = Tracer.span("createTable")) {
+				sink = store.performanceSink();
+
+				sink.createTable(true);
+			}
+
+			train(records, sink);
+
+			try (Tracer.Span phase = Tracer.span("flush")) {
+				sink.close();
+			}
+		}
+	}
+
+	/**
+	 * Train the random forest on records in memory
+	 * 
+	 * @param records
+	 *            training records
+	 * @param sink
+	 *            sink of validation performance, or null
+	 */
+	public void train(List<boolean[]> records, PerformanceSink sink) {
+		features = trainingFeatures();
 
 		numOfFeaturesToBuildTree = (int) Math.sqrt(features.size());
 		
@@ -89,46 +241,208 @@ public class RandomForest implements Serializable {
 
 		// grow N trees
 		for (int i = 0; i < N; i++) {
-			DecisionTree tree = new DecisionTree(features);
-			trees.add(tree);
+			try (Tracer.Span treeSpan = Tracer.span("tree")) {
+				DecisionTree tree = new DecisionTree(features);
+				getTrees().add(tree);
 
-			Set<Integer> featureIds = selectFeatures();
-			
-			List<boolean[]> trainRecords = new ArrayList<>();
-			List<boolean[]> testRecords = new ArrayList<>();
+				Set<Integer> featureIds;
+
+				List<boolean[]> trainRecords = new ArrayList<>();
+				List<boolean[]> testRecords = new ArrayList<>();
+
+				long trainStart;
+				try (Tracer.Span span = Tracer.span("bootstrap")) {
+					long start = System.nanoTime();
+
+					featureIds = selectFeatures();
+
+					splitTrainAndTestRecords(records, trainRecords,
+							testRecords);
+
+					trainStart = System.nanoTime();
+					BOOTSTRAP_NANOS.record(trainStart - start);
+				}
+
+				try (Tracer.Span span = Tracer.span("grow")) {
+					tree.train(trainRecords, featureIds);
+
+					TREE_TRAIN_NANOS.record(System.nanoTime() - trainStart);
+					TREE_NODES.record(tree.flatten().size());
+				}
+
+				// after adding a new tree, use the data not used in training
+				// down the forest to get the performance statistics (error
+				// rate)
+				double errRate;
+				try (Tracer.Span span = Tracer.span("evaluate")) {
+					errRate = testInternal(testRecords);
+				}
+
+				System.out.println((i + 1) + " trees, error rate: " + errRate
+						+ ", accuracy: " + (1 - errRate));
+
+				if (sink != null) {
+					sink.insert((i + 1), 1 - errRate, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Train the random forest on a view of a dataset, e.g. the training
+	 * records of a walk-forward fold. Views over records in memory are
+	 * trained in memory, on the records of the dataset without copying them;
+	 * views over a snapshot are trained out of core, streaming records from
+	 * the mapping.
+	 * 
+	 * @param view
+	 *            training records
+	 * @param sink
+	 *            sink of validation performance, or null
+	 * @throws IOException
+	 */
+	public void train(RecordView view, PerformanceSink sink)
+			throws IOException {
+		if (view.isInMemory()) {
+			train(view.asList(), sink);
+		} else {
+			trainOutOfCore(view, MAX_PASSES);
+		}
+	}
+
+	/**
+	 * Train the random forest out of core: records are streamed from the
+	 * source instead of being loaded into memory. During each pass all N trees
+	 * are updated at the same time, each record being counted k times for a
+	 * tree, with k drawn from a Poisson distribution (online bootstrap). The
+	 * draw only depends on the tree and the record position, so every pass
+	 * sees the same bootstrap sample.
+	 * 
+	 * With the default number of features per tree, one pass grows complete
+	 * trees; trees with more features may need up to one pass per level.
+	 * 
+	 * @param source
+	 *            source of training records
+	 * @param maxPasses
+	 *            maximum number of passes over the data, nodes still
+	 *            unsplit after the last pass become leaves
+	 * @throws IOException
+	 */
+	public void trainOutOfCore(RecordSource source, int maxPasses)
+			throws IOException {
+		features = trainingFeatures();
+
+		numOfFeaturesToBuildTree = (int) Math.sqrt(features.size());
+
+		long seed = (long) (Math.random() * Long.MAX_VALUE);
 
-			splitTrainAndTestRecords(records, trainRecords, testRecords);
+		StreamingTreeBuilder[] builders = new StreamingTreeBuilder[N];
 
-			tree.train(trainRecords, featureIds);
+		for (int i = 0; i < N; i++) {
+			DecisionTree tree = new DecisionTree(features);
+			getTrees().add(tree);
+			builders[i] = new StreamingTreeBuilder(tree, selectFeatures());
+		}
 
-			// after adding a new tree, use the data not used in training down
-			// the forest to get the performance statistics (error rate)
-			double errRate = testInternal(testRecords);
+		int pass = 0;
+		long recordCnt = 0;
+
+		try (Tracer.Span span = Tracer.span("trainOutOfCore")) {
+			while (pass < maxPasses && !allComplete(builders)) {
+				pass++;
+				recordCnt = 0;
+
+				try (Tracer.Span passSpan = Tracer.span("pass");
+						RecordStream stream = source.open()) {
+					long start = System.nanoTime();
+
+					boolean[] record;
+					while ((record = stream.next()) != null) {
+						for (int i = 0; i < N; i++) {
+							builders[i].accumulate(record,
+									bootstrapWeight(seed, i, recordCnt));
+						}
+						recordCnt++;
+					}
+
+					for (StreamingTreeBuilder b : builders) {
+						b.endPass(pass == maxPasses);
+					}
+
+					RECORDS_LOADED.add(recordCnt);
+					PASS_NANOS.record(System.nanoTime() - start);
+				}
+			}
 
-			System.out.println((i + 1) + " trees, error rate: " + errRate
-					+ ", accuracy: " + (1 - errRate));
+			for (DecisionTree tree : trees) {
+				TREE_NODES.record(tree.flatten().size());
+			}
 
-			insertPerformance(cluster, (i + 1), 1 - errRate, true);
+			numOfTrainRecordsToBuildTree = (int) (FRACTION_TRAINING_RECORDS
+					* recordCnt);
 		}
+
+		System.out.println(N + " trees trained out of core in " + pass
+				+ " pass(es) over " + recordCnt + " records");
 	}
 
 	/**
-	 * Test the performance of this random forest. First load records from data
-	 * file, and then test on these records
+	 * Test the performance of this random forest. First load the testing
+	 * records of a data store, and then test on these records
 	 * 
-	 * @param testFileName
+	 * @param store
+	 *            data store
+	 * @throws IOException
 	 */
-	public void test(Cluster cluster) {
-		List<boolean[]> records = readInRecordsFromCassandra(cluster, false);
+	public void test(DataStore store) throws IOException {
+		double errRate;
 
-		createPerformanceTable(cluster, false);
+		try (Tracer.Span span = Tracer.span("test")) {
+			List<boolean[]> records;
+			try (Tracer.Span phase = Tracer.span("load")) {
+				records = readRecords(store.records(false));
+			}
+
+			PerformanceSink sink;
+			try (Tracer.Span phase = Tracer.span("createTable")) {
+				sink = store.performanceSink();
 
-		double errRate = testInternal(records);
+				sink.createTable(false);
+			}
 
-		insertPerformance(cluster, N, 1 - errRate, false);
+			try (Tracer.Span phase = Tracer.span("evaluate")) {
+				errRate = testInternal(records);
+			}
+
+			try (Tracer.Span phase = Tracer.span("flush")) {
+				sink.insert(N, 1 - errRate, false);
+
+				sink.close();
+			}
+		}
+
+		System.out.println(
+				"Test error rate: " + errRate + ", accuracy: " + (1 - errRate));
+	}
+
+	/**
+	 * Test the performance of this random forest on a view of a dataset,
+	 * e.g. the testing records of a walk-forward fold
+	 * 
+	 * @param view
+	 *            testing records
+	 * @return error rate
+	 */
+	public double test(RecordView view) {
+		double errRate;
+		try (Tracer.Span span = Tracer.span("test")) {
+			errRate = testInternal(view);
+		}
 
 		System.out.println(
 				"Test error rate: " + errRate + ", accuracy: " + (1 - errRate));
+
+		return errRate;
 	}
 
 	/**
@@ -137,6 +451,17 @@ public class RandomForest implements Serializable {
 	 * @param records
 	 */
 	private double testInternal(List<boolean[]> records) {
+		return testInternal(RecordView.of(records));
+	}
+
+	/**
+	 * Test the performance of this random forest, based on a view of records
+	 * 
+	 * @param view
+	 */
+	private double testInternal(RecordView view) {
+		long start = System.nanoTime();
+
 		int errCnt = 0;
 		
 		int trueToTrue = 0;
@@ -144,7 +469,11 @@ public class RandomForest implements Serializable {
 		int falseToTrue = 0;
 		int falseToFalse = 0;
 
-		for (boolean[] r : records) {
+		boolean[] record = new boolean[view.columns()];
+
+		for (int i = 0; i < view.size(); i++) {
+			boolean[] r = view.get(i, record);
+
 			boolean decision = decide(r);
 
 			// check if decision is the same with the label
@@ -163,9 +492,11 @@ public class RandomForest implements Serializable {
 			}
 		}
 		
+		SCORE_BATCH_NANOS.record(System.nanoTime() - start);
+
 		System.out.println(trueToTrue + " " + trueToFalse + " " + falseToTrue + " " + falseToFalse);
 
-		double errRate = (double) errCnt / records.size();
+		double errRate = (double) errCnt / view.size();
 
 		return errRate;
 	}
@@ -179,22 +510,213 @@ public class RandomForest implements Serializable {
 	 * @return decision result
 	 */
 	public boolean decide(boolean[] record) {
+		if ((++SCORE_TICKS.get()[0] & SCORE_SAMPLE_MASK) != 0) {
+			return vote(record);
+		}
+
+		RECORDS_SCORED.add(SCORE_SAMPLE_MASK + 1);
+
+		long start = System.nanoTime();
+		boolean decision = vote(record);
+		SCORE_RECORD_NANOS.record(System.nanoTime() - start);
+		return decision;
+	}
+
+	/**
+	 * Make decision on continuous features, binarized with the cut points
+	 * the forest was trained with
+	 * 
+	 * @param values
+	 *            values of the inputs of the binarizer
+	 * @param binaries
+	 *            array receiving the binary features, reused between calls
+	 * @return decision result
+	 * @throws IllegalStateException
+	 *             if the forest has no cut points
+	 */
+	public boolean decide(double[] values, boolean[] binaries) {
+		if (binarizer == null) {
+			throw new IllegalStateException(
+					"Forest trained without cut points, decide on binary records");
+		}
+		binarizer.binarize(values, binaries);
+		return decide(binaries);
+	}
+
+	/**
+	 * Make decisions on a batch of records, without allocating
+	 * 
+	 * @param records
+	 *            records to decide on
+	 * @param count
+	 *            number of records of the batch (the first ones of records)
+	 * @param decisions
+	 *            receives the decision on each record
+	 */
+	public void decide(boolean[][] records, int count, boolean[] decisions) {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < count; i++) {
+			decisions[i] = vote(records[i]);
+		}
+
+		RECORDS_SCORED.add(count);
+		SCORE_BATCH_NANOS.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Majority vote of trees in the forest
+	 */
+	private boolean vote(boolean[] record) {
 		int pos = 0;
 		int neg = 0;
 
-		// let each tree to vote (decide), and count positive and negative votes
-		for (int i = 0; i < trees.size(); i++) {
-			boolean des = trees.get(i).decide(record);
+		Votes votes = compiledTrees();
+		FlatTree[] flatTrees = votes.trees;
+		int[] weights = votes.weights;
+
+		// let each distinct tree vote (decide) for all its copies, and count
+		// positive and negative votes
+		for (int i = 0; i < flatTrees.length; i++) {
+			boolean des = flatTrees[i].decide(record);
 			if (des) {
-				pos++;
+				pos += weights[i];
 			} else {
-				neg++;
+				neg += weights[i];
 			}
 		}
 
 		return pos >= neg;
 	}
 
+	/**
+	 * Get trees compiled into flat arrays, compiling them if trees were added
+	 * since last time. Trees are only ever appended, after being trained.
+	 * 
+	 * Trees are compiled into their canonical form (see FlatTree.canonical),
+	 * and trees with the same canonical form, which make the same decisions,
+	 * are merged into one tree with the number of trees as its vote weight.
+	 * With few features, many trees of the forest are the same (with 5
+	 * features and 2 per tree, there are only 10 feature subsets), so each
+	 * distinct tree is only evaluated once per decision.
+	 * 
+	 * @return distinct compiled trees, and their weights
+	 */
+	private Votes compiledTrees() {
+		Votes votes = compiled;
+
+		// trees of a forest loaded in flat form are compiled as they are,
+		// unless their nodes were built since (then trees is set)
+		List<FlatTree> flat = flatTrees;
+		int count = flat != null ? flat.size() : trees.size();
+
+		if (votes == null || votes.numOfTrees != count) {
+			Map<FlatTree, Integer> weights = new LinkedHashMap<>();
+			for (int i = 0; i < count; i++) {
+				FlatTree tree = (flat != null ? flat.get(i)
+						: trees.get(i).flatten()).canonical();
+				Integer w = weights.get(tree);
+				weights.put(tree, w == null ? 1 : w + 1);
+			}
+
+			votes = new Votes(count,
+					weights.keySet().toArray(new FlatTree[weights.size()]),
+					new int[weights.size()]);
+			int i = 0;
+			for (int w : weights.values()) {
+				votes.weights[i++] = w;
+			}
+			compiled = votes;
+		}
+
+		return votes;
+	}
+
+	/**
+	 * Distinct compiled trees of the forest, with their vote weights
+	 */
+	private static final class Votes {
+		/*
+		 * Number of trees of the forest compiled
+		 */
+		final int numOfTrees;
+
+		final FlatTree[] trees;
+
+		final int[] weights;
+
+		Votes(int numOfTrees, FlatTree[] trees, int[] weights) {
+			this.numOfTrees = numOfTrees;
+			this.trees = trees;
+			this.weights = weights;
+		}
+	}
+
+	/**
+	 * @return number of distinct trees voting in decisions (see
+	 *         compiledTrees)
+	 */
+	public int getDistinctTrees() {
+		return compiledTrees().trees.length;
+	}
+
+	/**
+	 * @return trees of the forest, whose nodes are built first for a forest
+	 *         loaded in flat form (e.g. for JSON serialization)
+	 */
+	public synchronized List<DecisionTree> getTrees() {
+		if (trees == null) {
+			List<DecisionTree> built = new ArrayList<>(flatTrees.size());
+			for (FlatTree flat : flatTrees) {
+				built.add(DecisionTree.fromFlatTree(features, flat));
+			}
+			// set before flatTrees is cleared, for concurrent scoring
+			trees = built;
+			flatTrees = null;
+		}
+		return trees;
+	}
+
+	public List<String> getFeatures() {
+		return features;
+	}
+
+	public QuantileBinarizer getBinarizer() {
+		return binarizer;
+	}
+
+	/**
+	 * Set the binarization of training records, before training. Its binary
+	 * features become the features of the forest, and it is persisted with
+	 * the forest.
+	 * 
+	 * @param binarizer
+	 *            binarizer, or null for records binarized with mean
+	 *            thresholds
+	 */
+	public void setBinarizer(QuantileBinarizer binarizer) {
+		this.binarizer = binarizer;
+	}
+
+	/**
+	 * Build the trees of a forest loaded in flat form before writing it
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		getTrees();
+		out.defaultWriteObject();
+	}
+
+	/**
+	 * @return names of features of training records
+	 */
+	private List<String> trainingFeatures() {
+		if (binarizer != null) {
+			return binarizer.getFeatures();
+		}
+		return Arrays.asList(new String[] { "avg_bid", "range_bid",
+				"diff_bid", "delta_bid", "spread" });
+	}
+
 	/**
 	 * Randomly select part of features from feature set to build a tree
 	 * 
@@ -217,6 +739,51 @@ public class RandomForest implements Serializable {
 		return featureIds;
 	}
 
+	private static boolean allComplete(StreamingTreeBuilder[] builders) {
+		for (StreamingTreeBuilder b : builders) {
+			if (!b.isComplete()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Number of times a record is drawn into the bootstrap sample of a tree.
+	 * Follows a Poisson distribution with mean FRACTION_TRAINING_RECORDS (the
+	 * limit of sampling that fraction of records with replacement), derived
+	 * from a hash so that it is the same in every pass.
+	 * 
+	 * @param seed
+	 *            seed of this training run
+	 * @param tree
+	 *            tree index
+	 * @param record
+	 *            record position in the stream
+	 * @return bootstrap weight
+	 */
+	public static int bootstrapWeight(long seed, int tree, long record) {
+		long h = seed ^ (tree * 0x9E3779B97F4A7C15L)
+				^ (record * 0xC2B2AE3D27D4EB4FL);
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		h = h ^ (h >>> 33);
+
+		double u = (h >>> 11) * 0x1.0p-53;
+
+		// invert the Poisson cumulative distribution
+		int k = 0;
+		double p = POISSON_ZERO;
+		double cdf = p;
+		while (u > cdf && k < 32) {
+			k++;
+			p *= FRACTION_TRAINING_RECORDS / k;
+			cdf += p;
+		}
+
+		return k;
+	}
+
 	/**
 	 * Randomly split records for training and testing a tree from all records
 	 * 
@@ -244,88 +811,30 @@ public class RandomForest implements Serializable {
 	}
 
 	/**
-	 * Create validation (during training) or testing performance table
-	 * 
-	 * @param cluster
-	 *            Cassandra cluster
-	 * @param isTrain
-	 *            is this for training
-	 */
-	private void createPerformanceTable(Cluster cluster, boolean isTrain) {
-		Session session = cluster.connect("test");
-
-		String tableName = isTrain ? "validation_perf" : "test_perf";
-
-		session.execute("DROP TABLE IF EXISTS " + tableName);
-		session.execute("CREATE TABLE " + tableName
-				+ " (trees int PRIMARY KEY, accuracy double)");
-	}
-
-	/**
-	 * Insert performance stats into Cassandra database table, for validation
-	 * (during training) or testing
-	 * 
-	 * @param cluster
-	 *            Cassandra cluster
-	 * @param trees
-	 *            current number of trees in forest
-	 * @param accuracy
-	 *            validation accuracy
-	 * @param isTrain
-	 *            is this for training
-	 */
-	private void insertPerformance(Cluster cluster, int trees, double accuracy,
-			boolean isTrain) {
-		Session session = cluster.connect("test");
-
-		String tableName = isTrain ? "validation_perf" : "test_perf";
-
-		StringBuilder sb = new StringBuilder();
-
-		sb.append("INSERT INTO ");
-		sb.append(tableName);
-		sb.append(" (trees, accuracy) VALUES (");
-		sb.append(trees).append(", ").append(accuracy).append(")");
-
-		session.execute(sb.toString());
-	}
-
-	/**
-	 * Read in data records from Cassandra database, can read data for training
-	 * or testing
+	 * Read all records of a source into memory
 	 * 
-	 * @param cluster
-	 *            Cassandra cluster
-	 * @param isTrain
-	 *            is this for training
+	 * @param source
+	 *            source of records
 	 * @return list of boolean records
+	 * @throws IOException
 	 */
-	private List<boolean[]> readInRecordsFromCassandra(Cluster cluster,
-			boolean isTrain) {
-		Session session = cluster.connect("test");
-
-		ResultSet rs;
-
-		if (isTrain) {
-			rs = session.execute("SELECT * FROM train_data");
-		} else {
-			rs = session.execute("SELECT * FROM test_data");
-		}
+	private static List<boolean[]> readRecords(RecordSource source)
+			throws IOException {
+		long start = System.nanoTime();
 
 		List<boolean[]> results = new ArrayList<>();
 
-		for (Row row : rs) {
-			boolean[] binaries = new boolean[6];
-			binaries[0] = row.getBool("avg_bid");
-			binaries[1] = row.getBool("range_bid");
-			binaries[2] = row.getBool("diff_bid");
-			binaries[3] = row.getBool("delta_bid");
-			binaries[4] = row.getBool("spread");
-			binaries[5] = row.getBool("label");
-
-			results.add(binaries);
+		try (RecordStream stream = source.open()) {
+			boolean[] record;
+			while ((record = stream.next()) != null) {
+				// streams may reuse their arrays
+				results.add(record.clone());
+			}
 		}
 
+		RECORDS_LOADED.add(results.size());
+		LOAD_NANOS.record(System.nanoTime() - start);
+
 		return results;
 	}
 }
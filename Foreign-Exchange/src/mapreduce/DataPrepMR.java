@@ -0,0 +1,719 @@
+package mapreduce;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import prep.DataPrep;
+import prep.ProcessedDataRecord;
+import prep.QuantileBinarizer;
+import prep.QuantileSketch;
+
+/**
+ * The driver class for preparing data with MapReduce (the distributed
+ * counterpart of DataPrep.prepareData). It runs four jobs:
+ *
+ * 0. preceding ticks: the last tick before the window of each bucket is found
+ * (PrecedingTickMapper, LatestTickReducer), as window features compare with
+ * it and it may be any number of buckets earlier after a gap in the data;
+ *
+ * 1. features: raw ticks are partitioned by (pair, time bucket), and each
+ * bucket generates the processed records of its ticks (TickBucketMapper,
+ * TickBucketReducer), with the same features as DataPrep.processRecord on
+ * all ticks of the pair;
+ *
+ * 2. thresholds: the binarization thresholds of each pair are aggregated
+ * (mean values, as in DataPrep), or, if prep.quantile.bits is set, quantile
+ * cut points: each map task sketches the features of its split
+ * (QuantileSketch), and sketches of all tasks are merged per pair;
+ *
+ * 3. binarize: a map-only job binarizes the processed records and writes them
+ * into compact binary snapshots, one directory per pair. Quantile cut points
+ * of a pair are saved in its directory (thresholds.bin, see
+ * QuantileBinarizer.write), to be set on the forest trained on it.
+ *
+ * @author zzuo
+ *
+ */
+public class DataPrepMR {
+
+	/*
+	 * Configuration key and default of the size of a time bucket
+	 */
+	public static final String BUCKET_MILLIS_KEY = "prep.bucket.millis";
+
+	public static final long DEFAULT_BUCKET_MILLIS = 1000 * 60 * 60;
+
+	/*
+	 * Configuration key and default of the size of the feature window
+	 */
+	public static final String WINDOW_MILLIS_KEY = "prep.window.millis";
+
+	public static final long DEFAULT_WINDOW_MILLIS = 1000 * 60 * 5;
+
+	/*
+	 * Configuration key and default of how far ticks of the next bucket are
+	 * visible when labeling the last ticks of a bucket. If the bid doesn't
+	 * change within this period, the label is random, as in DataPrep.
+	 */
+	public static final String LOOK_AHEAD_MILLIS_KEY = "prep.lookahead.millis";
+
+	public static final long DEFAULT_LOOK_AHEAD_MILLIS = 1000 * 60;
+
+	/*
+	 * Configuration key of the number of quantile bits of each feature, 0
+	 * (default) for one bit with mean thresholds
+	 */
+	public static final String QUANTILE_BITS_KEY = "prep.quantile.bits";
+
+	/*
+	 * Name of the quantile cut points file in the directory of a pair
+	 */
+	public static final String THRESHOLDS_NAME = "thresholds.bin";
+
+	/*
+	 * Continuous features of processed records, binarized in quantile mode
+	 */
+	static final List<String> INPUTS = Arrays.asList(new String[] {
+			"avg_bid", "range_bid", "diff_bid", "delta_bid", "spread" });
+
+	/*
+	 * Configuration key of the output directory of the preceding ticks job,
+	 * read by the reducers of the features job
+	 */
+	static final String PRECEDING_DIR_KEY = "prep.preceding.dir";
+
+	/*
+	 * Prefix of configuration keys of thresholds of each pair
+	 */
+	private static final String THRESHOLDS_KEY_PREFIX = "prep.thresholds.";
+
+	/**
+	 * @return key of a (pair, time bucket)
+	 */
+	static String bucketKey(String pair, long bucket) {
+		return pair + "|" + bucket;
+	}
+
+	static String pairOf(String bucketKey) {
+		return bucketKey.substring(0, bucketKey.lastIndexOf('|'));
+	}
+
+	static long bucketOf(String bucketKey) {
+		return Long.parseLong(
+				bucketKey.substring(bucketKey.lastIndexOf('|') + 1));
+	}
+
+	/**
+	 * Mapper of the preceding ticks job. A tick is before the window of all
+	 * buckets from the first one whose window starts after it; it is sent to
+	 * that bucket, keeping the last tick of each bucket in the split.
+	 */
+	public static class PrecedingTickMapper
+			extends Mapper<LongWritable, Text, Text, TickWritable> {
+
+		private final Map<String, TickWritable> latest = new HashMap<>();
+
+		private final TickWritable tick = new TickWritable();
+
+		private long bucketMillis;
+
+		private long windowMillis;
+
+		@Override
+		protected void setup(Context context) {
+			Configuration conf = context.getConfiguration();
+			bucketMillis = conf.getLong(BUCKET_MILLIS_KEY,
+					DEFAULT_BUCKET_MILLIS);
+			windowMillis = conf.getLong(WINDOW_MILLIS_KEY,
+					DEFAULT_WINDOW_MILLIS);
+		}
+
+		@Override
+		public void map(LongWritable key, Text value, Context context) {
+			String pair = TickBucketMapper.parseTick(key, value, tick);
+			if (pair == null) {
+				return;
+			}
+
+			// first bucket b with b * bucketMillis - windowMillis > time
+			long bucket = (tick.getTime() + windowMillis) / bucketMillis + 1;
+			String k = bucketKey(pair, bucket);
+
+			TickWritable t = latest.get(k);
+			if (t == null) {
+				latest.put(k, t = new TickWritable());
+				t.set(tick.getTime(), tick.getPosition(), tick.getBid(),
+						tick.getAsk());
+			} else if (tick.isAfter(t)) {
+				t.set(tick.getTime(), tick.getPosition(), tick.getBid(),
+						tick.getAsk());
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context)
+				throws IOException, InterruptedException {
+			Text key = new Text();
+			for (Map.Entry<String, TickWritable> e : latest.entrySet()) {
+				key.set(e.getKey());
+				context.write(key, e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Reducer (and combiner) of the preceding ticks job, keeps the last tick
+	 * sent to each bucket
+	 */
+	public static class LatestTickReducer
+			extends Reducer<Text, TickWritable, Text, TickWritable> {
+
+		private final TickWritable last = new TickWritable();
+
+		@Override
+		public void reduce(Text key, Iterable<TickWritable> values,
+				Context context) throws IOException, InterruptedException {
+			boolean first = true;
+			for (TickWritable t : values) {
+				if (first || t.isAfter(last)) {
+					last.set(t.getTime(), t.getPosition(), t.getBid(),
+							t.getAsk());
+					first = false;
+				}
+			}
+			context.write(key, last);
+		}
+	}
+
+	/**
+	 * Read the output of the preceding ticks job
+	 * 
+	 * @param conf
+	 *            configuration with the output directory of the job
+	 * @return for each pair, last tick sent to each bucket, by bucket
+	 * @throws IOException
+	 */
+	static Map<String, TreeMap<Long, TickWritable>> readPrecedingTicks(
+			Configuration conf) throws IOException {
+		Map<String, TreeMap<Long, TickWritable>> ticks = new HashMap<>();
+
+		String dir = conf.get(PRECEDING_DIR_KEY);
+		if (dir == null) {
+			return ticks;
+		}
+
+		Path path = new Path(dir);
+		FileSystem fs = path.getFileSystem(conf);
+		Text key = new Text();
+
+		for (FileStatus status : fs.listStatus(path)) {
+			if (!status.getPath().getName().startsWith("part-")) {
+				continue;
+			}
+
+			try (SequenceFile.Reader reader = new SequenceFile.Reader(fs,
+					status.getPath(), conf)) {
+				TickWritable t = new TickWritable();
+				while (reader.next(key, t)) {
+					String pair = pairOf(key.toString());
+					TreeMap<Long, TickWritable> byBucket = ticks.get(pair);
+					if (byBucket == null) {
+						ticks.put(pair, byBucket = new TreeMap<>());
+					}
+					byBucket.put(bucketOf(key.toString()), t);
+					t = new TickWritable();
+				}
+			}
+		}
+
+		return ticks;
+	}
+
+	/**
+	 * Sums of the features that have mean thresholds
+	 */
+	public static class FeatureSums implements Writable {
+		double avgBid;
+		double rangeBid;
+		double spread;
+		long count;
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeDouble(avgBid);
+			out.writeDouble(rangeBid);
+			out.writeDouble(spread);
+			out.writeLong(count);
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			avgBid = in.readDouble();
+			rangeBid = in.readDouble();
+			spread = in.readDouble();
+			count = in.readLong();
+		}
+	}
+
+	/**
+	 * Mapper of the thresholds job, sums features of its split per pair
+	 */
+	public static class ThresholdMapper extends
+			Mapper<Text, ProcessedRecordWritable, Text, FeatureSums> {
+
+		private final FeatureSums sums = new FeatureSums();
+
+		private Text pair = null;
+
+		@Override
+		public void map(Text key, ProcessedRecordWritable value,
+				Context context) throws IOException, InterruptedException {
+			if (pair != null && !pair.equals(key)) {
+				flush(context);
+			}
+			if (pair == null) {
+				pair = new Text(key);
+			}
+
+			ProcessedDataRecord r = value.getRecord();
+			sums.avgBid += r.getAvgBid();
+			sums.rangeBid += r.getRangeBid();
+			sums.spread += r.getSpread();
+			sums.count++;
+		}
+
+		@Override
+		protected void cleanup(Context context)
+				throws IOException, InterruptedException {
+			if (pair != null) {
+				flush(context);
+			}
+		}
+
+		private void flush(Context context)
+				throws IOException, InterruptedException {
+			context.write(pair, sums);
+			pair = null;
+			sums.avgBid = 0;
+			sums.rangeBid = 0;
+			sums.spread = 0;
+			sums.count = 0;
+		}
+	}
+
+	/**
+	 * Reducer of the thresholds job, outputs thresholds of each pair
+	 */
+	public static class ThresholdReducer
+			extends Reducer<Text, FeatureSums, Text, Text> {
+		@Override
+		public void reduce(Text key, Iterable<FeatureSums> values,
+				Context context) throws IOException, InterruptedException {
+			FeatureSums total = new FeatureSums();
+
+			for (FeatureSums s : values) {
+				total.avgBid += s.avgBid;
+				total.rangeBid += s.rangeBid;
+				total.spread += s.spread;
+				total.count += s.count;
+			}
+
+			context.write(key, new Text((total.avgBid / total.count) + ","
+					+ (total.rangeBid / total.count) + ","
+					+ (total.spread / total.count)));
+		}
+	}
+
+	/**
+	 * Mapper of the thresholds job in quantile mode, sketches features of its
+	 * split per pair
+	 */
+	public static class SketchMapper extends
+			Mapper<Text, ProcessedRecordWritable, Text, BytesWritable> {
+
+		private final double[] values = new double[INPUTS.size()];
+
+		private QuantileSketch[] sketches = null;
+
+		private Text pair = null;
+
+		@Override
+		public void map(Text key, ProcessedRecordWritable value,
+				Context context) throws IOException, InterruptedException {
+			if (pair != null && !pair.equals(key)) {
+				flush(context);
+			}
+			if (pair == null) {
+				pair = new Text(key);
+				sketches = new QuantileSketch[INPUTS.size()];
+				for (int i = 0; i < sketches.length; i++) {
+					sketches[i] = new QuantileSketch();
+				}
+			}
+
+			inputs(value.getRecord(), values);
+			for (int i = 0; i < sketches.length; i++) {
+				sketches[i].add(values[i]);
+			}
+		}
+
+		@Override
+		protected void cleanup(Context context)
+				throws IOException, InterruptedException {
+			if (pair != null) {
+				flush(context);
+			}
+		}
+
+		private void flush(Context context)
+				throws IOException, InterruptedException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				for (QuantileSketch sketch : sketches) {
+					sketch.write(out);
+				}
+			}
+			context.write(pair, new BytesWritable(bytes.toByteArray()));
+			pair = null;
+			sketches = null;
+		}
+	}
+
+	/**
+	 * Reducer of the thresholds job in quantile mode, merges sketches of each
+	 * pair and outputs its cut points (a binarizer, base64 encoded)
+	 */
+	public static class SketchReducer
+			extends Reducer<Text, BytesWritable, Text, Text> {
+		@Override
+		public void reduce(Text key, Iterable<BytesWritable> values,
+				Context context) throws IOException, InterruptedException {
+			QuantileSketch[] sketches = new QuantileSketch[INPUTS.size()];
+
+			for (BytesWritable v : values) {
+				DataInputStream in = new DataInputStream(
+						new ByteArrayInputStream(v.getBytes(), 0,
+								v.getLength()));
+				for (int i = 0; i < sketches.length; i++) {
+					QuantileSketch sketch = QuantileSketch.read(in);
+					if (sketches[i] == null) {
+						sketches[i] = sketch;
+					} else {
+						sketches[i].merge(sketch);
+					}
+				}
+			}
+
+			QuantileBinarizer binarizer = QuantileBinarizer.fromSketches(INPUTS,
+					sketches,
+					context.getConfiguration().getInt(QUANTILE_BITS_KEY, 1));
+
+			context.write(key, new Text(encodeBinarizer(binarizer)));
+		}
+	}
+
+	/**
+	 * Continuous features of a processed record, in the order of INPUTS
+	 */
+	static void inputs(ProcessedDataRecord r, double[] values) {
+		values[0] = r.getAvgBid();
+		values[1] = r.getRangeBid();
+		values[2] = r.getDiffBid();
+		values[3] = r.getDeltaBid();
+		values[4] = r.getSpread();
+	}
+
+	/**
+	 * @return binarizer encoded into a configuration value (base64)
+	 */
+	static String encodeBinarizer(QuantileBinarizer binarizer)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			binarizer.write(out);
+		}
+		return Base64.getEncoder().encodeToString(bytes.toByteArray());
+	}
+
+	/**
+	 * @return binarizer encoded by encodeBinarizer
+	 */
+	static QuantileBinarizer decodeBinarizer(String encoded) {
+		return QuantileBinarizer
+				.read(ByteBuffer.wrap(Base64.getDecoder().decode(encoded)));
+	}
+
+	/**
+	 * Mapper of the binarize job, binarizes records with the thresholds of
+	 * their pair and writes them to the snapshot of the pair
+	 */
+	public static class BinarizeMapper extends
+			Mapper<Text, ProcessedRecordWritable, NullWritable, RecordWritable> {
+
+		private final RecordWritable record = new RecordWritable();
+
+		private MultipleOutputs<NullWritable, RecordWritable> outputs;
+
+		/*
+		 * Quantile mode: cut points of each pair, and buffers
+		 */
+		private boolean quantiles;
+
+		private final Map<String, QuantileBinarizer> binarizers = new HashMap<>();
+
+		private final double[] values = new double[INPUTS.size()];
+
+		@Override
+		protected void setup(Context context) {
+			outputs = new MultipleOutputs<>(context);
+			quantiles = context.getConfiguration().getInt(QUANTILE_BITS_KEY,
+					0) > 0;
+		}
+
+		@Override
+		public void map(Text key, ProcessedRecordWritable value,
+				Context context) throws IOException, InterruptedException {
+			String pair = key.toString();
+			String thresholds = context.getConfiguration()
+					.get(THRESHOLDS_KEY_PREFIX + pair);
+
+			if (quantiles) {
+				QuantileBinarizer binarizer = binarizers.get(pair);
+				if (binarizer == null) {
+					binarizer = decodeBinarizer(thresholds);
+					binarizers.put(pair, binarizer);
+				}
+
+				int n = binarizer.getFeatures().size();
+				boolean[] r = new boolean[n + 1];
+				inputs(value.getRecord(), values);
+				binarizer.binarize(values, r);
+				r[n] = value.getRecord().getLabel() == 1;
+				record.set(r);
+			} else {
+				String[] strs = thresholds.split(",");
+
+				record.set(DataPrep.binarizeRecord(value.getRecord(),
+						Double.parseDouble(strs[0]),
+						Double.parseDouble(strs[1]), 0, 0,
+						Double.parseDouble(strs[2])));
+			}
+
+			outputs.write(NullWritable.get(), record, pairDir(pair) + "/part");
+		}
+
+		@Override
+		protected void cleanup(Context context)
+				throws IOException, InterruptedException {
+			outputs.close();
+		}
+	}
+
+	/**
+	 * Run the four prep jobs (preceding ticks, features, thresholds, binarize)
+	 *
+	 * @param conf
+	 *            job configuration
+	 * @param input
+	 *            raw tick files (pair, time, bid, ask)
+	 * @param output
+	 *            output directory, gets one sub directory of snapshots per
+	 *            pair
+	 * @return true if all jobs succeeded
+	 * @throws Exception
+	 */
+	public static boolean run(Configuration conf, Path input, Path output)
+			throws Exception {
+		Path preceding = new Path(output.toString() + "_preceding");
+		Path features = new Path(output.toString() + "_features");
+		Path thresholds = new Path(output.toString() + "_thresholds");
+
+		FileSystem fs = output.getFileSystem(conf);
+
+		try {
+			// 0. preceding ticks
+			Job job = Job.getInstance(conf, "prep preceding ticks");
+			job.setJarByClass(DataPrepMR.class);
+			job.setMapperClass(PrecedingTickMapper.class);
+			job.setCombinerClass(LatestTickReducer.class);
+			job.setReducerClass(LatestTickReducer.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(TickWritable.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+			FileInputFormat.addInputPath(job, input);
+			FileOutputFormat.setOutputPath(job, preceding);
+
+			if (!job.waitForCompletion(true)) {
+				return false;
+			}
+
+			// 1. features
+			Configuration featuresConf = new Configuration(conf);
+			featuresConf.set(PRECEDING_DIR_KEY,
+					fs.makeQualified(preceding).toString());
+
+			job = Job.getInstance(featuresConf, "prep features");
+			job.setJarByClass(DataPrepMR.class);
+			job.setMapperClass(TickBucketMapper.class);
+			job.setReducerClass(TickBucketReducer.class);
+			job.setMapOutputKeyClass(Text.class);
+			job.setMapOutputValueClass(TickWritable.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(ProcessedRecordWritable.class);
+			job.setOutputFormatClass(SequenceFileOutputFormat.class);
+			FileInputFormat.addInputPath(job, input);
+			FileOutputFormat.setOutputPath(job, features);
+
+			if (!job.waitForCompletion(true)) {
+				return false;
+			}
+
+			// 2. thresholds
+			job = Job.getInstance(conf, "prep thresholds");
+			job.setJarByClass(DataPrepMR.class);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			if (conf.getInt(QUANTILE_BITS_KEY, 0) > 0) {
+				job.setMapperClass(SketchMapper.class);
+				job.setReducerClass(SketchReducer.class);
+				job.setMapOutputValueClass(BytesWritable.class);
+			} else {
+				job.setMapperClass(ThresholdMapper.class);
+				job.setReducerClass(ThresholdReducer.class);
+				job.setMapOutputValueClass(FeatureSums.class);
+			}
+			job.setMapOutputKeyClass(Text.class);
+			job.setOutputKeyClass(Text.class);
+			job.setOutputValueClass(Text.class);
+			job.setOutputFormatClass(TextOutputFormat.class);
+			job.setNumReduceTasks(1);
+			FileInputFormat.addInputPath(job, features);
+			FileOutputFormat.setOutputPath(job, thresholds);
+
+			if (!job.waitForCompletion(true)) {
+				return false;
+			}
+
+			// 3. binarize
+			Configuration binarizeConf = new Configuration(conf);
+			readThresholds(fs, thresholds, binarizeConf);
+
+			job = Job.getInstance(binarizeConf, "prep binarize");
+			job.setJarByClass(DataPrepMR.class);
+			job.setInputFormatClass(SequenceFileInputFormat.class);
+			job.setMapperClass(BinarizeMapper.class);
+			job.setOutputKeyClass(NullWritable.class);
+			job.setOutputValueClass(RecordWritable.class);
+			LazyOutputFormat.setOutputFormatClass(job,
+					DatasetSnapshotOutputFormat.class);
+			job.setNumReduceTasks(0);
+			FileInputFormat.addInputPath(job, features);
+			FileOutputFormat.setOutputPath(job, output);
+
+			if (!job.waitForCompletion(true)) {
+				return false;
+			}
+
+			if (conf.getInt(QUANTILE_BITS_KEY, 0) > 0) {
+				writeBinarizers(fs, binarizeConf, output);
+			}
+
+			return true;
+		} finally {
+			fs.delete(preceding, true);
+			fs.delete(features, true);
+			fs.delete(thresholds, true);
+		}
+	}
+
+	/**
+	 * @return name of the output directory of a pair
+	 */
+	public static String pairDir(String pair) {
+		return pair.replaceAll("[^A-Za-z0-9]", "");
+	}
+
+	/**
+	 * Save the quantile cut points of each pair in its output directory
+	 */
+	private static void writeBinarizers(FileSystem fs, Configuration conf,
+			Path output) throws IOException {
+		for (Map.Entry<String, String> e : conf
+				.getValByRegex("^" + Pattern.quote(THRESHOLDS_KEY_PREFIX))
+				.entrySet()) {
+			String pair = e.getKey().substring(THRESHOLDS_KEY_PREFIX.length());
+			Path file = new Path(new Path(output, pairDir(pair)),
+					THRESHOLDS_NAME);
+			try (DataOutputStream out = fs.create(file, true)) {
+				decodeBinarizer(e.getValue()).write(out);
+			}
+		}
+	}
+
+	/**
+	 * Read thresholds computed by the thresholds job into the configuration
+	 */
+	private static void readThresholds(FileSystem fs, Path dir,
+			Configuration conf) throws IOException {
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (!status.getPath().getName().startsWith("part-")) {
+				continue;
+			}
+
+			try (BufferedReader reader = new BufferedReader(
+					new InputStreamReader(fs.open(status.getPath())))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] strs = line.split("\t");
+					conf.set(THRESHOLDS_KEY_PREFIX + strs[0], strs[1]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Usage: DataPrepMR input output [quantile bits]
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		if (args.length > 2) {
+			conf.setInt(QUANTILE_BITS_KEY, Integer.parseInt(args[2]));
+		}
+		System.exit(run(conf, new Path(args[0]), new Path(args[1])) ? 0 : 1);
+	}
+}
@@ -0,0 +1,57 @@
+package mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import util.DatasetSnapshot;
+
+/**
+ * Output format writing boolean records of a task into a compact binary
+ * dataset snapshot (see DatasetSnapshot)
+ * 
+ * @author zzuo
+ *
+ */
+public class DatasetSnapshotOutputFormat
+		extends FileOutputFormat<NullWritable, RecordWritable> {
+
+	/*
+	 * Configuration key of the number of columns of records
+	 */
+	public static final String COLUMNS_KEY = "snapshot.columns";
+
+	/*
+	 * Extension of snapshot files
+	 */
+	public static final String SNAPSHOT_EXTENSION = ".snapshot";
+
+	@Override
+	public RecordWriter<NullWritable, RecordWritable> getRecordWriter(
+			TaskAttemptContext context) throws IOException {
+		Path file = getDefaultWorkFile(context, SNAPSHOT_EXTENSION);
+		FileSystem fs = file.getFileSystem(context.getConfiguration());
+
+		final DatasetSnapshot.Writer writer = new DatasetSnapshot.Writer(
+				fs.create(file, false),
+				context.getConfiguration().getInt(COLUMNS_KEY, 6));
+
+		return new RecordWriter<NullWritable, RecordWritable>() {
+			@Override
+			public void write(NullWritable key, RecordWritable value)
+					throws IOException {
+				writer.write(value.get());
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				writer.close();
+			}
+		};
+	}
+}
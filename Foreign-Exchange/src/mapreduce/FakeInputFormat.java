@@ -1,56 +1,229 @@
 package mapreduce;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.LineRecordReader;
 
 import util.GlobalParams;
 
 /**
- * This class represents a input format that fakes input splits to ensure that
- * the number of mappers equals to the number of decision trees in the random
- * forest
+ * This class represents a input format that fakes input splits, each split
+ * standing for a range of decision trees in the random forest. The number of
+ * trees and trees per split are configurable, so that a large forest doesn't
+ * launch one map task per tree.
  * 
  * @author zzuo
  *
  */
-public class FakeInputFormat extends FileInputFormat<LongWritable, Text> {
+public class FakeInputFormat extends FileInputFormat<LongWritable, IntWritable> {
+
+	/*
+	 * Configuration key of the number of trees to grow
+	 */
+	public static final String TREES_KEY = "randomforest.trees";
+
+	/*
+	 * Configuration key of the number of trees grown by one map task
+	 */
+	public static final String TREES_PER_SPLIT_KEY = "randomforest.trees.per.split";
+
+	/*
+	 * Default number of trees grown by one map task
+	 */
+	public static final int DEFAULT_TREES_PER_SPLIT = 10;
+
+	/*
+	 * Configuration key of the path of the training snapshot, whose block
+	 * locations are used as split locality hints
+	 */
+	public static final String SNAPSHOT_PATH_KEY = "randomforest.snapshot.path";
+
 	@Override
-	public RecordReader<LongWritable, Text> createRecordReader(InputSplit split,
-			TaskAttemptContext context) throws IOException {
+	public RecordReader<LongWritable, IntWritable> createRecordReader(
+			InputSplit split, TaskAttemptContext context) throws IOException {
 		context.setStatus(split.toString());
-		return new LineRecordReader();
+		return new TreeRecordReader();
 	}
 
 	@Override
 	public List<InputSplit> getSplits(JobContext job) throws IOException {
+		Configuration conf = job.getConfiguration();
+
+		int trees = conf.getInt(TREES_KEY, GlobalParams.TREES);
+		int treesPerSplit = Math.max(1,
+				conf.getInt(TREES_PER_SPLIT_KEY, DEFAULT_TREES_PER_SPLIT));
+
+		String[] hosts = snapshotHosts(conf);
+
 		List<InputSplit> splits = new ArrayList<InputSplit>();
 
-		for (int i = 0; i < GlobalParams.TREES; i++) {
-			splits.add(new InputSplit() {
-				@Override
-				public long getLength()
-						throws IOException, InterruptedException {
-					return 0;
-				}
-
-				@Override
-				public String[] getLocations()
-						throws IOException, InterruptedException {
-					return new String[] { "" };
-				}
-			});
+		for (int first = 0; first < trees; first += treesPerSplit) {
+			splits.add(new TreeSplit(first,
+					Math.min(treesPerSplit, trees - first), hosts));
 		}
 		return splits;
 	}
 
+	/**
+	 * Hosts holding blocks of the training snapshot (the data every task
+	 * loads), most blocks first
+	 * 
+	 * @param conf
+	 * @return host names, empty if unknown
+	 * @throws IOException
+	 */
+	private static String[] snapshotHosts(Configuration conf)
+			throws IOException {
+		String snapshot = conf.get(SNAPSHOT_PATH_KEY);
+		if (snapshot == null) {
+			return new String[0];
+		}
+
+		Path path = new Path(snapshot);
+		FileSystem fs = path.getFileSystem(conf);
+		FileStatus status = fs.getFileStatus(path);
+
+		Set<String> hosts = new LinkedHashSet<>();
+		for (BlockLocation block : fs.getFileBlockLocations(status, 0,
+				status.getLen())) {
+			for (String host : block.getHosts()) {
+				hosts.add(host);
+			}
+		}
+
+		return hosts.toArray(new String[hosts.size()]);
+	}
+
+	/**
+	 * An input split standing for a range of trees. It is Writable so that
+	 * the framework can ship it to the task.
+	 */
+	public static class TreeSplit extends InputSplit implements Writable {
+
+		/*
+		 * index of the first tree grown from this split
+		 */
+		private int firstTree;
+
+		/*
+		 * number of trees grown from this split
+		 */
+		private int numTrees;
+
+		private String[] hosts;
+
+		public TreeSplit() {
+
+		}
+
+		public TreeSplit(int firstTree, int numTrees, String[] hosts) {
+			this.firstTree = firstTree;
+			this.numTrees = numTrees;
+			this.hosts = hosts;
+		}
+
+		public int getFirstTree() {
+			return firstTree;
+		}
+
+		public int getNumTrees() {
+			return numTrees;
+		}
+
+		@Override
+		public long getLength() throws IOException, InterruptedException {
+			return numTrees;
+		}
+
+		@Override
+		public String[] getLocations() throws IOException, InterruptedException {
+			return hosts;
+		}
+
+		@Override
+		public void write(DataOutput out) throws IOException {
+			out.writeInt(firstTree);
+			out.writeInt(numTrees);
+		}
+
+		@Override
+		public void readFields(DataInput in) throws IOException {
+			firstTree = in.readInt();
+			numTrees = in.readInt();
+			// locations are only used for scheduling
+			hosts = new String[0];
+		}
+
+		@Override
+		public String toString() {
+			return "trees " + firstTree + "-" + (firstTree + numTrees - 1);
+		}
+	}
+
+	/**
+	 * Record reader producing a single record per split: the index of the
+	 * first tree and the number of trees to grow
+	 */
+	private static class TreeRecordReader
+			extends RecordReader<LongWritable, IntWritable> {
+
+		private final LongWritable key = new LongWritable();
+
+		private final IntWritable value = new IntWritable();
+
+		private boolean done = false;
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) {
+			TreeSplit s = (TreeSplit) split;
+			key.set(s.getFirstTree());
+			value.set(s.getNumTrees());
+		}
+
+		@Override
+		public boolean nextKeyValue() {
+			if (done) {
+				return false;
+			}
+			done = true;
+			return true;
+		}
+
+		@Override
+		public LongWritable getCurrentKey() {
+			return key;
+		}
+
+		@Override
+		public IntWritable getCurrentValue() {
+			return value;
+		}
+
+		@Override
+		public float getProgress() {
+			return done ? 1.0f : 0.0f;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
 }
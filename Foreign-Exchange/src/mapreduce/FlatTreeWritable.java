@@ -0,0 +1,53 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+import dtree.FlatTree;
+import util.SerializeUtil;
+
+/**
+ * Writable wrapper of a decision tree in flat form. Uses the same layout as a
+ * tree in the binary model format.
+ * 
+ * @author zzuo
+ *
+ */
+public class FlatTreeWritable implements Writable {
+
+	private FlatTree tree;
+
+	public FlatTreeWritable() {
+
+	}
+
+	public FlatTreeWritable(FlatTree tree) {
+		this.tree = tree;
+	}
+
+	public FlatTree get() {
+		return tree;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		SerializeUtil.writeTree(out, tree);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int size = in.readInt();
+
+		int[][] arrays = new int[4][size];
+		for (int[] array : arrays) {
+			for (int i = 0; i < size; i++) {
+				array[i] = in.readInt();
+			}
+		}
+
+		tree = new FlatTree(arrays[0], arrays[1], arrays[2], arrays[3]);
+	}
+}
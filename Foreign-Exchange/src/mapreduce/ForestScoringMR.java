@@ -0,0 +1,232 @@
+package mapreduce;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import mapreduce.ForestScoringMapper.ScoringCounters;
+import util.SerializeUtil;
+
+/**
+ * The driver class for scoring a dataset with a trained forest in a map-only
+ * job. The forest (binary model file, or sharded model directory written by
+ * RandomForestMR) is shipped to the mappers through the distributed cache,
+ * and the dataset (csv files of boolean records) is split by regular file
+ * splits and scored in parallel. Each output line is an input record
+ * followed by the decision.
+ * 
+ * @author zzuo
+ *
+ */
+public class ForestScoringMR {
+
+	/*
+	 * Extension of the name under which the forest is linked in the task's
+	 * working directory
+	 */
+	public static final String MODEL_EXTENSION = ".rfm";
+
+	/*
+	 * Configuration key of the column names of the records, read from the
+	 * header of the input, unset for input without a header
+	 */
+	public static final String COLUMNS_KEY = "forest.scoring.columns";
+
+	/*
+	 * Configuration key and default of the name of the label column records
+	 * are scored against, e.g. label_10s
+	 */
+	public static final String LABEL_KEY = "forest.scoring.label";
+
+	public static final String DEFAULT_LABEL = "label";
+
+	/**
+	 * Run the scoring job
+	 * 
+	 * @param conf
+	 *            job configuration
+	 * @param model
+	 *            binary model file of the forest, or directory of a sharded
+	 *            model (the output of RandomForestMR)
+	 * @param input
+	 *            input path of records to score
+	 * @param output
+	 *            output path of decisions
+	 * @return job counters, or null if the job failed
+	 * @throws Exception
+	 */
+	public static Counters run(Configuration conf, Path model, Path input,
+			Path output) throws Exception {
+		Job job = Job.getInstance(conf, "random forest scoring");
+		job.setJarByClass(ForestScoringMR.class);
+		job.setMapperClass(ForestScoringMapper.class);
+		job.setInputFormatClass(TextInputFormat.class);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+		job.setNumReduceTasks(0);
+
+		FileSystem fs = model.getFileSystem(conf);
+		if (fs.getFileStatus(model).isDir()) {
+			// the manifest and the shards it lists, assembled by the mappers
+			Path dir = fs.makeQualified(model);
+			for (String name : readModelFiles(fs, dir)) {
+				DistributedCache.addCacheFile(new Path(dir, name).toUri(),
+						job.getConfiguration());
+			}
+		} else {
+			URI modelUri = fs.makeQualified(model).toUri();
+			DistributedCache.addCacheFile(
+					new URI(modelUri.toString() + "#forest" + MODEL_EXTENSION),
+					job.getConfiguration());
+			DistributedCache.createSymlink(job.getConfiguration());
+		}
+
+		String[] columns = readHeader(conf, input);
+		if (columns != null) {
+			job.getConfiguration().setStrings(COLUMNS_KEY, columns);
+		}
+
+		FileInputFormat.addInputPath(job, input);
+		FileOutputFormat.setOutputPath(job, output);
+
+		return job.waitForCompletion(true) ? job.getCounters() : null;
+	}
+
+	/**
+	 * Read the manifest of a sharded model
+	 * 
+	 * @param fs
+	 * @param dir
+	 *            directory of the model
+	 * @return names of the files of the model: the manifest and the shards
+	 * @throws IOException
+	 */
+	private static List<String> readModelFiles(FileSystem fs, Path dir)
+			throws IOException {
+		Properties manifest = new Properties();
+		try (InputStream in = fs
+				.open(new Path(dir, SerializeUtil.MANIFEST_NAME))) {
+			manifest.load(in);
+		}
+
+		List<String> names = new ArrayList<>();
+		names.add(SerializeUtil.MANIFEST_NAME);
+		for (String shard : manifest.getProperty("shards", "").split(",")) {
+			if (!shard.isEmpty()) {
+				names.add(shard);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Read the header of the input, from its first file if it is a directory
+	 * 
+	 * @param conf
+	 * @param input
+	 *            input path of records
+	 * @return column names, or null if the input has no header line
+	 * @throws IOException
+	 */
+	private static String[] readHeader(Configuration conf, Path input)
+			throws IOException {
+		FileSystem fs = input.getFileSystem(conf);
+
+		Path file = input;
+		if (fs.getFileStatus(input).isDir()) {
+			file = null;
+			FileStatus[] statuses = fs.listStatus(input);
+			Arrays.sort(statuses);
+			for (FileStatus status : statuses) {
+				String name = status.getPath().getName();
+				if (!status.isDir() && !name.startsWith("_")
+						&& !name.startsWith(".")) {
+					file = status.getPath();
+					break;
+				}
+			}
+			if (file == null) {
+				return null;
+			}
+		}
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			if (line == null || line.isEmpty()
+					|| "tTfF".indexOf(line.charAt(0)) >= 0) {
+				return null;
+			}
+			return line.split(",");
+		}
+	}
+
+	/**
+	 * Usage: ForestScoringMR model input output [label column]
+	 * 
+	 * The model is a binary model file, or the output directory of
+	 * RandomForestMR.
+	 * 
+	 * The label column (label by default) selects the label of records with
+	 * one label column per horizon, e.g. label_10s
+	 */
+	public static void main(String[] args) throws Exception {
+		Configuration conf = new Configuration();
+		if (args.length > 3) {
+			conf.set(LABEL_KEY, args[3]);
+		}
+
+		Counters counters = run(conf, new Path(args[0]),
+				new Path(args[1]), new Path(args[2]));
+
+		if (counters == null) {
+			System.exit(1);
+		}
+
+		long trueToTrue = counters.findCounter(ScoringCounters.TRUE_TO_TRUE)
+				.getValue();
+		long trueToFalse = counters.findCounter(ScoringCounters.TRUE_TO_FALSE)
+				.getValue();
+		long falseToTrue = counters.findCounter(ScoringCounters.FALSE_TO_TRUE)
+				.getValue();
+		long falseToFalse = counters
+				.findCounter(ScoringCounters.FALSE_TO_FALSE).getValue();
+
+		long labeled = trueToTrue + trueToFalse + falseToTrue + falseToFalse;
+
+		System.out.println("Scored "
+				+ counters.findCounter(ScoringCounters.RECORDS).getValue()
+				+ " records");
+
+		if (labeled > 0) {
+			System.out.println(trueToTrue + " " + trueToFalse + " "
+					+ falseToTrue + " " + falseToFalse);
+
+			double accuracy = (trueToTrue + falseToFalse) / (double) labeled;
+
+			System.out.println("Test error rate: " + (1 - accuracy)
+					+ ", accuracy: " + accuracy);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package mapreduce;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+import forest.RandomForest;
+import util.CsvRecordSource;
+import util.SerializeUtil;
+
+/**
+ * The scoring mapper class, loads the forest from the distributed cache (a
+ * binary model file, or the manifest and shards of a sharded model) and
+ * makes a decision on every record of its split. Records may be labeled
+ * (features followed by the label) or unlabeled (features only); for labeled
+ * records the confusion counts are aggregated through Hadoop counters.
+ * Records with several label columns (one per horizon, see
+ * prep.HorizonLabeler) are scored against the label column chosen in the
+ * job configuration (see ForestScoringMR).
+ * 
+ * @author zzuo
+ *
+ */
+public class ForestScoringMapper
+		extends Mapper<LongWritable, Text, Text, Text> {
+
+	/**
+	 * Counters of the scoring job, named as in RandomForest.testInternal
+	 * (label, then decision)
+	 */
+	public static enum ScoringCounters {
+		RECORDS, UNLABELED, TRUE_TO_TRUE, TRUE_TO_FALSE, FALSE_TO_TRUE,
+		FALSE_TO_FALSE
+	}
+
+	private static final Text TRUE = new Text("true");
+
+	private static final Text FALSE = new Text("false");
+
+	private RandomForest forest;
+
+	private int numOfFeatures;
+
+	/*
+	 * Index of the label column, -1 if records are unlabeled
+	 */
+	private int labelColumn;
+
+	private boolean[] record;
+
+	@Override
+	protected void setup(Context context)
+			throws IOException, InterruptedException {
+		Path[] cached = DistributedCache
+				.getLocalCacheFiles(context.getConfiguration());
+
+		if (cached != null) {
+			Map<String, File> files = new HashMap<>();
+			Path model = null;
+
+			for (Path p : cached) {
+				files.put(p.getName(), new File(p.toString()));
+				if (p.getName().endsWith(ForestScoringMR.MODEL_EXTENSION)) {
+					model = p;
+				}
+			}
+
+			if (files.containsKey(SerializeUtil.MANIFEST_NAME)) {
+				forest = SerializeUtil.deserializeShardedRandomForest(files);
+			} else if (model != null) {
+				forest = SerializeUtil
+						.deserializeRandomForestBinary(model.toString());
+			}
+		}
+
+		if (forest == null) {
+			throw new IOException("Forest not loaded from distributed cache");
+		}
+
+		numOfFeatures = forest.getFeatures().size();
+
+		// records have the columns of the input header if it has one (e.g.
+		// one label column per horizon), else the features and the label
+		String[] columns = context.getConfiguration()
+				.getStrings(ForestScoringMR.COLUMNS_KEY);
+		if (columns != null) {
+			String label = context.getConfiguration().get(
+					ForestScoringMR.LABEL_KEY, ForestScoringMR.DEFAULT_LABEL);
+			labelColumn = Arrays.asList(columns).indexOf(label);
+			if (labelColumn >= 0 && labelColumn < numOfFeatures) {
+				throw new IOException(
+						"Label column " + label + " is a feature column");
+			}
+			record = new boolean[Math.max(columns.length, numOfFeatures)];
+		} else {
+			labelColumn = numOfFeatures;
+			record = new boolean[numOfFeatures + 1];
+		}
+	}
+
+	@Override
+	public void map(LongWritable key, Text value, Context context)
+			throws IOException, InterruptedException {
+		String line = value.toString();
+
+		// skip csv headers
+		if (line.isEmpty() || !(line.charAt(0) == 't' || line.charAt(0) == 'f'
+				|| line.charAt(0) == 'T' || line.charAt(0) == 'F')) {
+			return;
+		}
+
+		int columns = CsvRecordSource.parseRecord(line, record);
+
+		boolean decision = forest.decide(record);
+
+		context.getCounter(ScoringCounters.RECORDS).increment(1);
+
+		if (labelColumn < 0 || columns <= labelColumn) {
+			context.getCounter(ScoringCounters.UNLABELED).increment(1);
+		} else {
+			boolean label = record[labelColumn];
+			if (label) {
+				context.getCounter(decision ? ScoringCounters.TRUE_TO_TRUE
+						: ScoringCounters.TRUE_TO_FALSE).increment(1);
+			} else {
+				context.getCounter(decision ? ScoringCounters.FALSE_TO_TRUE
+						: ScoringCounters.FALSE_TO_FALSE).increment(1);
+			}
+		}
+
+		context.write(value, decision ? TRUE : FALSE);
+	}
+}
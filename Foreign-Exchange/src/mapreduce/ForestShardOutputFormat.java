@@ -0,0 +1,78 @@
+package mapreduce;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import util.SerializeUtil;
+
+/**
+ * Output format streaming the trees of a task straight into a binary model
+ * shard (see SerializeUtil.serializeRandomForestBinary), with the binarizer
+ * of the job, if any, in its header. The default file
+ * output committer moves the shards of successful tasks into the output
+ * directory.
+ * 
+ * @author zzuo
+ *
+ */
+public class ForestShardOutputFormat
+		extends FileOutputFormat<NullWritable, FlatTreeWritable> {
+
+	/*
+	 * Configuration key of the feature names written in shard headers
+	 */
+	public static final String FEATURES_KEY = "randomforest.features";
+
+	/*
+	 * Extension of shard files
+	 */
+	public static final String SHARD_EXTENSION = ".rfm";
+
+	/**
+	 * Counters of the shards written
+	 */
+	public static enum ShardCounters {
+		TREES
+	}
+
+	@Override
+	public RecordWriter<NullWritable, FlatTreeWritable> getRecordWriter(
+			TaskAttemptContext context) throws IOException {
+		Path file = getDefaultWorkFile(context, SHARD_EXTENSION);
+		FileSystem fs = file.getFileSystem(context.getConfiguration());
+
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(fs.create(file, false)));
+
+		Configuration conf = context.getConfiguration();
+		String binarizer = conf.get(RandomForestMR.BINARIZER_KEY);
+
+		SerializeUtil.writeModelHeader(out,
+				Arrays.asList(conf.getStrings(FEATURES_KEY)),
+				binarizer == null ? null
+						: DataPrepMR.decodeBinarizer(binarizer));
+
+		return new RecordWriter<NullWritable, FlatTreeWritable>() {
+			@Override
+			public void write(NullWritable key, FlatTreeWritable value)
+					throws IOException {
+				SerializeUtil.writeTree(out, value.get());
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				out.close();
+			}
+		};
+	}
+}
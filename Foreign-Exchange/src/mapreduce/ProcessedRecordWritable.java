@@ -0,0 +1,67 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+import prep.ProcessedDataRecord;
+
+/**
+ * Writable processed (labeled) data record with continuous features, and the
+ * time of the tick it was generated for.
+ * 
+ * @author zzuo
+ *
+ */
+public class ProcessedRecordWritable implements Writable {
+
+	private long time;
+
+	private final ProcessedDataRecord record = new ProcessedDataRecord();
+
+	public ProcessedRecordWritable() {
+
+	}
+
+	public void set(long time, ProcessedDataRecord r) {
+		this.time = time;
+		record.setAvgBid(r.getAvgBid());
+		record.setRangeBid(r.getRangeBid());
+		record.setDiffBid(r.getDiffBid());
+		record.setDeltaBid(r.getDeltaBid());
+		record.setSpread(r.getSpread());
+		record.setLabel(r.getLabel());
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public ProcessedDataRecord getRecord() {
+		return record;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(time);
+		out.writeDouble(record.getAvgBid());
+		out.writeDouble(record.getRangeBid());
+		out.writeDouble(record.getDiffBid());
+		out.writeDouble(record.getDeltaBid());
+		out.writeDouble(record.getSpread());
+		out.writeByte(record.getLabel());
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		time = in.readLong();
+		record.setAvgBid(in.readDouble());
+		record.setRangeBid(in.readDouble());
+		record.setDiffBid(in.readDouble());
+		record.setDeltaBid(in.readDouble());
+		record.setSpread(in.readDouble());
+		record.setLabel(in.readByte());
+	}
+}
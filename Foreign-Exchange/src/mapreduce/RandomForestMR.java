@@ -1,15 +1,33 @@
 package mapreduce;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
-import com.datastax.driver.core.Cluster;
-import com.datastax.driver.core.Session;
+import org.apache.hadoop.util.StringUtils;
 
-import util.GlobalParams;
+import metrics.Tracer;
+import prep.QuantileBinarizer;
+import util.CsvRecordSource;
+import util.DataStore;
+import util.DataStores;
+import util.DatasetSnapshot;
+import util.RecordSource;
+import util.SerializeUtil;
 
 /**
  * The driver class for running MapReduce
@@ -19,46 +37,228 @@ import util.GlobalParams;
  */
 public class RandomForestMR {
 
+	/*
+	 * Name under which the training snapshot is linked in the task's working
+	 * directory (distributed cache)
+	 */
+	public static final String SNAPSHOT_NAME = "train.snapshot";
+
+	/*
+	 * Configuration key of the directory where the snapshot is staged
+	 */
+	public static final String SNAPSHOT_DIR_KEY = "randomforest.snapshot.dir";
+
+	/*
+	 * Configuration key of the binarizer of the training records (encoded,
+	 * see DataPrepMR.encodeBinarizer), written into the header of each shard
+	 */
+	public static final String BINARIZER_KEY = "randomforest.binarizer";
+
+	/*
+	 * System property of the cut points file of the training records (see
+	 * QuantileBinarizer), e.g. thresholds.bin of a pair prepared by
+	 * DataPrepMR
+	 */
+	private static final String BINARIZER_PROPERTY = "forex.binarizer";
+
+	/**
+	 * Run the random forest job. The training records are exported once into
+	 * a snapshot, which is shipped to the mappers through the distributed
+	 * cache.
+	 * 
+	 * @param conf
+	 *            job configuration
+	 * @param trainSource
+	 *            source of training records
+	 * @param input
+	 *            input path (not read, required by the input format)
+	 * @param output
+	 *            output path
+	 * @return true if the job succeeded
+	 * @throws Exception
+	 */
+	public static boolean run(Configuration conf, RecordSource trainSource,
+			Path input, Path output) throws Exception {
+		return run(conf, trainSource, null, input, output);
+	}
+
+	/**
+	 * Run the random forest job on records binarized with quantile cut
+	 * points. The features of the forest are the binary features of the
+	 * binarizer, which is persisted in each shard (see
+	 * SerializeUtil.writeModelHeader).
+	 * 
+	 * @param conf
+	 *            job configuration
+	 * @param trainSource
+	 *            source of training records
+	 * @param binarizer
+	 *            binarizer of the training records, or null for records
+	 *            binarized with mean thresholds
+	 * @param input
+	 *            input path (not read, required by the input format)
+	 * @param output
+	 *            output path
+	 * @return true if the job succeeded
+	 * @throws Exception
+	 */
+	public static boolean run(Configuration conf, RecordSource trainSource,
+			QuantileBinarizer binarizer, Path input, Path output)
+			throws Exception {
+		try (Tracer.Span span = Tracer.span("RandomForestMR")) {
+			File localSnapshot = File.createTempFile("train", ".snapshot");
+
+			long count;
+			try (Tracer.Span phase = Tracer.span("export")) {
+				count = DatasetSnapshot.write(trainSource,
+						localSnapshot.getPath());
+			}
+
+			System.out.println(count + " training records exported");
+
+			FileSystem fs = FileSystem.get(conf);
+
+			Path stagedSnapshot = new Path(
+					conf.get(SNAPSHOT_DIR_KEY, "/tmp/randomforest"),
+					"train-" + System.currentTimeMillis() + ".snapshot");
+
+			try (Tracer.Span phase = Tracer.span("stage")) {
+				fs.copyFromLocalFile(true, true,
+						new Path(localSnapshot.getPath()), stagedSnapshot);
+			}
+
+			conf.set(FakeInputFormat.SNAPSHOT_PATH_KEY,
+					fs.makeQualified(stagedSnapshot).toString());
+			List<String> features = binarizer == null
+					? RandomForestMapper.FEATURES : binarizer.getFeatures();
+			conf.setStrings(ForestShardOutputFormat.FEATURES_KEY,
+					features.toArray(new String[0]));
+			if (binarizer != null) {
+				conf.set(BINARIZER_KEY, DataPrepMR.encodeBinarizer(binarizer));
+			}
+			if (conf.get(RandomForestMapper.SEED_KEY) == null) {
+				conf.setLong(RandomForestMapper.SEED_KEY,
+						System.currentTimeMillis());
+			}
+
+			Job job = Job.getInstance(conf, "random forest");
+			job.setJarByClass(RandomForestMR.class);
+			job.setMapperClass(RandomForestMapper.class);
+			job.setInputFormatClass(FakeInputFormat.class);
+			job.setOutputFormatClass(ForestShardOutputFormat.class);
+			job.setOutputKeyClass(NullWritable.class);
+			job.setOutputValueClass(FlatTreeWritable.class);
+			// map only: each task streams its trees into its own shard
+			job.setNumReduceTasks(0);
+
+			URI snapshotUri = new URI(
+					conf.get(FakeInputFormat.SNAPSHOT_PATH_KEY));
+			DistributedCache.addCacheFile(
+					new URI(snapshotUri.toString() + "#" + SNAPSHOT_NAME),
+					job.getConfiguration());
+			DistributedCache.createSymlink(job.getConfiguration());
+
+			FileInputFormat.addInputPath(job, input);
+			FileOutputFormat.setOutputPath(job, output);
+
+			boolean success;
+			try (Tracer.Span phase = Tracer.span("job")) {
+				success = job.waitForCompletion(true);
+			} finally {
+				fs.delete(stagedSnapshot, false);
+			}
+
+			if (success) {
+				long trees = job.getCounters()
+						.findCounter(
+								ForestShardOutputFormat.ShardCounters.TREES)
+						.getValue();
+
+				try (Tracer.Span phase = Tracer.span("manifest")) {
+					writeManifest(fs, output, trees, features);
+				}
+			}
+
+			return success;
+		}
+	}
+
 	/**
-	 * Create validation (during training) or testing performance table
+	 * Write the manifest describing the forest made of the shards in the
+	 * output directory
 	 * 
-	 * @param cluster
-	 *            Cassandra cluster
-	 * @param isTrain
-	 *            is this for training
+	 * @param fs
+	 *            output file system
+	 * @param output
+	 *            output directory
+	 * @param trees
+	 *            number of trees in all shards
+	 * @param features
+	 *            names of features of the forest
+	 * @throws IOException
 	 */
-	private static void createPerformanceTable(Cluster cluster,
-			boolean isTrain) {
-		Session session = cluster.connect("test");
+	private static void writeManifest(FileSystem fs, Path output, long trees,
+			List<String> features) throws IOException {
+		FileStatus[] shards = fs.listStatus(output, new PathFilter() {
+			@Override
+			public boolean accept(Path path) {
+				return path.getName()
+						.endsWith(ForestShardOutputFormat.SHARD_EXTENSION);
+			}
+		});
+		Arrays.sort(shards);
 
-		String tableName = isTrain ? "validation_perf" : "test_perf";
+		StringBuilder names = new StringBuilder();
+		for (FileStatus shard : shards) {
+			if (names.length() > 0) {
+				names.append(",");
+			}
+			names.append(shard.getPath().getName());
+		}
 
-		session.execute("DROP TABLE IF EXISTS " + tableName);
-		session.execute("CREATE TABLE " + tableName
-				+ " (trees int PRIMARY KEY, accuracy double)");
+		Properties manifest = new Properties();
+		manifest.setProperty("version",
+				String.valueOf(SerializeUtil.MODEL_VERSION));
+		manifest.setProperty("trees", String.valueOf(trees));
+		manifest.setProperty("features", StringUtils.join(",", features));
+		manifest.setProperty("shards", names.toString());
+
+		try (OutputStream out = fs.create(
+				new Path(output, SerializeUtil.MANIFEST_NAME), true)) {
+			manifest.store(out, "random forest");
+		}
 	}
 
+	/**
+	 * Usage: RandomForestMR input output [train.csv]. If a labeled csv file is
+	 * given, it is used instead of the training records of the data store
+	 * (see DataStores). Records binarized with quantile cut points are
+	 * trained with -Dforex.binarizer=thresholds.bin.
+	 */
 	public static void main(String[] args) throws Exception {
-		Cluster cluster = Cluster.builder()
-				.addContactPoint(GlobalParams.CASSANDRA_ADDR).build();
+		Configuration conf = new Configuration();
 
-		createPerformanceTable(cluster, true);
+		String binarizerFile = System.getProperty(BINARIZER_PROPERTY);
+		QuantileBinarizer binarizer = binarizerFile == null ? null
+				: QuantileBinarizer.read(binarizerFile);
 
-		Configuration conf = new Configuration();
+		// phases are traced if -Dforex.trace=<trace file> is given
+		if (args.length > 2) {
+			run(conf, new CsvRecordSource(args[2]), binarizer,
+					new Path(args[0]), new Path(args[1]));
+			Tracer.finish();
+			return;
+		}
+
+		// storage chosen by -Dforex.store (Cassandra by default); the job
+		// does not validate trees, so no performance table is written
+		DataStore store = DataStores.fromConfig();
 
-		Job job = Job.getInstance(conf, "random forest");
-		job.setJarByClass(RandomForestMR.class);
-		job.setMapperClass(RandomForestMapper.class);
-		job.setCombinerClass(RandomForestReducer.class);
-		job.setReducerClass(RandomForestReducer.class);
-		job.setInputFormatClass(FakeInputFormat.class);
-		job.setOutputKeyClass(Text.class);
-		job.setOutputValueClass(Text.class);
-		job.setNumReduceTasks(1);
+		run(conf, store.records(true), binarizer, new Path(args[0]),
+				new Path(args[1]));
 
-		FileInputFormat.addInputPath(job, new Path(args[0]));
-		FileOutputFormat.setOutputPath(job, new Path(args[1]));
+		store.close();
 
-		job.waitForCompletion(true);
+		Tracer.finish();
 	}
 }
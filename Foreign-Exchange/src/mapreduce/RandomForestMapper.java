@@ -5,163 +5,245 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
-
-import org.apache.hadoop.io.Text;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.mapreduce.Mapper;
 
-import com.datastax.driver.core.Cluster;
-import com.datastax.driver.core.ResultSet;
-import com.datastax.driver.core.Row;
-import com.datastax.driver.core.Session;
-
 import dtree.DecisionTree;
-import util.GlobalParams;
-import util.SerializeUtil;
+import dtree.FlatTree;
+import dtree.StreamingTreeBuilder;
+import forest.RandomForest;
+import util.DatasetSnapshot;
+import util.RecordStream;
+import util.RecordView;
 
 /**
- * The mapper class, read records from cassandra and train a decision tree using
- * randomly selected features and data
+ * The mapper class, map the training snapshot in the distributed cache and
+ * train the decision trees of its split (each using randomly selected features
+ * and data) on a local thread pool. Trees are grown out of core from the
+ * mapping (see RandomForest.trainOutOfCore), so the records of a task are not
+ * copied to the heap.
  * 
  * @author zzuo
  *
  */
-public class RandomForestMapper extends Mapper<Object, Text, Text, Text> {
+public class RandomForestMapper
+		extends
+		Mapper<LongWritable, IntWritable, NullWritable, FlatTreeWritable> {
+
 	/*
-	 * Dummy key for generating result
+	 * List of names of features of records binarized with mean thresholds
 	 */
-	private static final Text DUMMY_KEY = new Text("dummy_key");
+	static final List<String> FEATURES = Arrays.asList(new String[] {
+			"avg_bid", "range_bid", "diff_bid", "delta_bid", "spread" });
 
 	/*
-	 * List of names of features
+	 * Maximum passes over the snapshot for growing a tree, nodes still unsplit
+	 * after the last pass become leaves
 	 */
-	private static final List<String> FEATURES = Arrays.asList(new String[] {
-			"avg_bid", "range_bid", "diff_bid", "delta_bid", "spread" });
+	private static final int MAX_PASSES = 4;
+
+	/*
+	 * Configuration key of the number of threads training trees in a mapper
+	 */
+	public static final String THREADS_KEY = "randomforest.mapper.threads";
+
+	/*
+	 * Configuration key of the job's random seed, tree i uses a seed mixed
+	 * from it and i (see treeSeed)
+	 */
+	public static final String SEED_KEY = "randomforest.seed";
+
+	/*
+	 * Training records, a view of the cached snapshot mapped once per task
+	 */
+	private RecordView records;
+
+	/*
+	 * Names of features of the job (those of its binarizer, if any), and
+	 * number of features used for building a tree, as in RandomForest (2 of
+	 * the 5 features binarized with mean thresholds)
+	 */
+	private List<String> features;
+
+	private int featuresToBuildTree;
 
 	/*
-	 * Number of features used for building a tree
+	 * Random seed of the job
 	 */
-	private static final int FEATURES_TO_BUILD_TREE = 2;
+	private long seed;
 
 	/*
-	 * Fraction of training records to be used for training a tree
+	 * Pool of threads training trees
 	 */
-	private static final double PROPORTION_OF_TRAIN_RECORDS = 2.0 / 3.0;
+	private ExecutorService pool;
 
 	@Override
-	public void map(Object key, Text value, Context context)
+	protected void setup(Context context)
 			throws IOException, InterruptedException {
+		Path[] cached = DistributedCache
+				.getLocalCacheFiles(context.getConfiguration());
 
-		DecisionTree tree = new DecisionTree(FEATURES);
-
-		Set<Integer> featureIds = selectFeatures();
+		if (cached == null) {
+			throw new IOException("Training snapshot not in distributed cache");
+		}
 
-		List<boolean[]> trainRecords = new ArrayList<>();
-		List<boolean[]> testRecords = new ArrayList<>();
+		for (Path p : cached) {
+			if (p.getName().endsWith(".snapshot")) {
+				records = RecordView.of(DatasetSnapshot.open(p.toString()));
+			}
+		}
 
-		Cluster cluster = Cluster.builder()
-				.addContactPoint(GlobalParams.CASSANDRA_ADDR).build();
+		if (records == null) {
+			throw new IOException("Training snapshot not in distributed cache");
+		}
 
-		// get records
-		List<boolean[]> records = readInRecordsFromCassandra(cluster, true);
+		Configuration conf = context.getConfiguration();
 
-		splitTrainAndTestRecords(records, trainRecords, testRecords);
+		String[] names = conf
+				.getStrings(ForestShardOutputFormat.FEATURES_KEY);
+		features = names == null ? FEATURES : Arrays.asList(names);
+		featuresToBuildTree = (int) Math.sqrt(features.size());
 
-		// train the tree
-		tree.train(trainRecords, featureIds);
+		if (records.columns() != features.size() + 1) {
+			throw new IOException("Training records have "
+					+ records.columns() + " columns, expected "
+					+ features.size() + " features and the label");
+		}
 
-		// save tree as json
-		String json = SerializeUtil.decisionTreeToJson(tree);
+		seed = conf.getLong(SEED_KEY, System.currentTimeMillis());
 
-		// write json text
-		context.write(DUMMY_KEY, new Text(json));
+		int threads = conf.getInt(THREADS_KEY,
+				Runtime.getRuntime().availableProcessors());
+		pool = Executors.newFixedThreadPool(Math.max(1, threads));
 	}
 
-	/**
-	 * Randomly select part of features from feature set to build a tree
-	 * 
-	 * @return indexes of selected features
-	 */
-	private Set<Integer> selectFeatures() {
-		Set<Integer> featureIds = new HashSet<>();
-
-		int n = FEATURES.size();
+	@Override
+	public void map(LongWritable key, IntWritable value, Context context)
+			throws IOException, InterruptedException {
+		int firstTree = (int) key.get();
+		int numTrees = value.get();
+
+		// train trees of this split in parallel, sharing the mapped records
+		List<Future<FlatTree>> results = new ArrayList<>();
+
+		for (int i = 0; i < numTrees; i++) {
+			final int treeIndex = firstTree + i;
+
+			results.add(pool.submit(new Callable<FlatTree>() {
+				@Override
+				public FlatTree call() throws IOException {
+					return trainTree(treeIndex,
+							new Random(treeSeed(seed, treeIndex)));
+				}
+			}));
+		}
 
-		for (int i = 0; i < FEATURES_TO_BUILD_TREE; i++) {
-			int id;
-			// avoid duplicate IDs
-			do {
-				id = (int) (Math.random() * n);
-			} while (featureIds.contains(id));
-			featureIds.add(id);
+		// write results from this thread, the context is not thread safe
+		for (Future<FlatTree> f : results) {
+			try {
+				context.write(NullWritable.get(),
+						new FlatTreeWritable(f.get()));
+			} catch (ExecutionException e) {
+				throw new IOException(e.getCause());
+			}
+			context.getCounter(ForestShardOutputFormat.ShardCounters.TREES)
+					.increment(1);
 		}
+	}
 
-		return featureIds;
+	@Override
+	protected void cleanup(Context context)
+			throws IOException, InterruptedException {
+		pool.shutdownNow();
 	}
 
 	/**
-	 * Read in data records from Cassandra database, can read data for training
-	 * or testing
+	 * Train a decision tree on randomly selected features and records. Each
+	 * record is counted as many times as it is drawn into the bootstrap sample
+	 * of the tree (see RandomForest.bootstrapWeight), the same in every pass.
 	 * 
-	 * @param cluster
-	 *            Cassandra cluster
-	 * @param isTrain
-	 *            is this for training
-	 * @return list of boolean records
+	 * @param treeIndex
+	 *            index of the tree in the forest
+	 * @param random
+	 *            random generator of this tree
+	 * @return the trained tree in flat form
+	 * @throws IOException
 	 */
-	private List<boolean[]> readInRecordsFromCassandra(Cluster cluster,
-			boolean isTrain) {
-		Session session = cluster.connect("test");
-
-		ResultSet rs;
-
-		if (isTrain) {
-			rs = session.execute("SELECT * FROM train_data");
-		} else {
-			rs = session.execute("SELECT * FROM test_data");
+	private FlatTree trainTree(int treeIndex, Random random)
+			throws IOException {
+		DecisionTree tree = new DecisionTree(features);
+
+		StreamingTreeBuilder builder = new StreamingTreeBuilder(tree,
+				selectFeatures(random));
+
+		for (int pass = 1; pass <= MAX_PASSES && !builder.isComplete();
+				pass++) {
+			try (RecordStream stream = records.open()) {
+				boolean[] record;
+				long recordCnt = 0;
+				while ((record = stream.next()) != null) {
+					builder.accumulate(record, RandomForest
+							.bootstrapWeight(seed, treeIndex, recordCnt++));
+				}
+			}
+			builder.endPass(pass == MAX_PASSES);
 		}
 
-		List<boolean[]> results = new ArrayList<>();
-
-		for (Row row : rs) {
-			boolean[] binaries = new boolean[6];
-			binaries[0] = row.getBool("avg_bid");
-			binaries[1] = row.getBool("range_bid");
-			binaries[2] = row.getBool("diff_bid");
-			binaries[3] = row.getBool("delta_bid");
-			binaries[4] = row.getBool("spread");
-			binaries[5] = row.getBool("label");
-
-			results.add(binaries);
-		}
+		return tree.flatten();
+	}
 
-		return results;
+	/**
+	 * Seed of the random generator of a tree, the SplitMix64 mix of the job's
+	 * seed and the tree index. Seeds of consecutive trees (seed + i) would
+	 * give java.util.Random generators whose first draws are correlated.
+	 * 
+	 * @param seed
+	 *            random seed of the job
+	 * @param treeIndex
+	 *            index of the tree in the forest
+	 * @return seed of the tree
+	 */
+	private static long treeSeed(long seed, int treeIndex) {
+		long z = seed + (treeIndex + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
 	}
 
 	/**
-	 * Randomly split records for training and testing a tree from all records
+	 * Randomly select part of features from feature set to build a tree
 	 * 
-	 * @param allRecords
-	 * @param trainRecords
-	 * @param testRecords
+	 * @param random
+	 *            random generator of this tree
+	 * @return indexes of selected features
 	 */
-	private void splitTrainAndTestRecords(List<boolean[]> allRecords,
-			List<boolean[]> trainRecords, List<boolean[]> testRecords) {
-		Set<Integer> trainIds = new HashSet<>();
-
-		// randomly select enough records for training
-		for (int i = 0; i < allRecords.size()
-				* PROPORTION_OF_TRAIN_RECORDS; i++) {
-			int id = (int) (Math.random() * allRecords.size());
-			trainRecords.add(allRecords.get(id));
-			trainIds.add(id);
-		}
+	private Set<Integer> selectFeatures(Random random) {
+		Set<Integer> featureIds = new HashSet<>();
 
-		// use unseen records for testing
-		for (int i = 0; i < allRecords.size(); i++) {
-			if (!trainIds.contains(i)) {
-				testRecords.add(allRecords.get(i));
-			}
+		int n = features.size();
+
+		for (int i = 0; i < featuresToBuildTree; i++) {
+			int id;
+			// avoid duplicate IDs
+			do {
+				id = random.nextInt(n);
+			} while (featureIds.contains(id));
+			featureIds.add(id);
 		}
+
+		return featureIds;
 	}
 }
@@ -0,0 +1,50 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Writable boolean record (features followed by the label)
+ * 
+ * @author zzuo
+ *
+ */
+public class RecordWritable implements Writable {
+
+	private boolean[] record;
+
+	public RecordWritable() {
+
+	}
+
+	public RecordWritable(boolean[] record) {
+		this.record = record;
+	}
+
+	public boolean[] get() {
+		return record;
+	}
+
+	public void set(boolean[] record) {
+		this.record = record;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(record.length);
+		for (boolean b : record) {
+			out.writeBoolean(b);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		record = new boolean[in.readInt()];
+		for (int i = 0; i < record.length; i++) {
+			record[i] = in.readBoolean();
+		}
+	}
+}
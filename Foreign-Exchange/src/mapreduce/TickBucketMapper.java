@@ -0,0 +1,105 @@
+package mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * The mapper class of the feature step of the prep job. Reads raw ticks
+ * (pair, time, bid, ask) and assigns each of them to its (pair, time bucket).
+ * Ticks close to a bucket boundary are also sent to the neighbouring bucket:
+ * the last window of a bucket to the next bucket (for window features), and
+ * the first look-ahead period of a bucket to the previous bucket (for labels).
+ * The last tick before the window of each bucket, which may be any number of
+ * buckets earlier after a gap in the data, is found by a preceding job (see
+ * DataPrepMR.PrecedingTickMapper).
+ * 
+ * @author zzuo
+ *
+ */
+public class TickBucketMapper
+		extends Mapper<LongWritable, Text, Text, TickWritable> {
+
+	private static final DateTimeFormatter FORMATTER = DateTimeFormat
+			.forPattern("yyyyMMdd HH:mm:ss.SSS").withZone(DateTimeZone.UTC);
+
+	private final Text bucketKey = new Text();
+
+	private final TickWritable tick = new TickWritable();
+
+	private long bucketMillis;
+
+	private long windowMillis;
+
+	private long lookAheadMillis;
+
+	@Override
+	protected void setup(Context context) {
+		Configuration conf = context.getConfiguration();
+		bucketMillis = conf.getLong(DataPrepMR.BUCKET_MILLIS_KEY,
+				DataPrepMR.DEFAULT_BUCKET_MILLIS);
+		windowMillis = conf.getLong(DataPrepMR.WINDOW_MILLIS_KEY,
+				DataPrepMR.DEFAULT_WINDOW_MILLIS);
+		lookAheadMillis = conf.getLong(DataPrepMR.LOOK_AHEAD_MILLIS_KEY,
+				DataPrepMR.DEFAULT_LOOK_AHEAD_MILLIS);
+	}
+
+	@Override
+	public void map(LongWritable key, Text value, Context context)
+			throws IOException, InterruptedException {
+		String pair = parseTick(key, value, tick);
+		if (pair == null) {
+			return;
+		}
+
+		long time = tick.getTime();
+		long bucket = time / bucketMillis;
+
+		emit(context, pair, bucket);
+
+		// preceding window of the next bucket
+		if (time >= (bucket + 1) * bucketMillis - windowMillis) {
+			emit(context, pair, bucket + 1);
+		}
+
+		// look-ahead ticks of the previous bucket
+		if (time < bucket * bucketMillis + lookAheadMillis) {
+			emit(context, pair, bucket - 1);
+		}
+	}
+
+	/**
+	 * Parse a raw tick line (pair, time, bid, ask)
+	 * 
+	 * @param key
+	 *            position of the line in its input file
+	 * @param value
+	 *            line
+	 * @param tick
+	 *            receives the tick
+	 * @return pair of the tick, or null if the line is not a tick
+	 */
+	static String parseTick(LongWritable key, Text value, TickWritable tick) {
+		String[] strs = value.toString().split(",");
+		if (strs.length < 4) {
+			return null;
+		}
+
+		tick.set(FORMATTER.parseMillis(strs[1]), key.get(),
+				Double.parseDouble(strs[2]), Double.parseDouble(strs[3]));
+
+		return strs[0];
+	}
+
+	private void emit(Context context, String pair, long bucket)
+			throws IOException, InterruptedException {
+		bucketKey.set(DataPrepMR.bucketKey(pair, bucket));
+		context.write(bucketKey, tick);
+	}
+}
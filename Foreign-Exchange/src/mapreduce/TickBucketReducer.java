@@ -0,0 +1,124 @@
+package mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.joda.time.DateTime;
+
+import prep.DataPrep;
+import prep.RawDataRecord;
+
+/**
+ * The reducer class of the feature step of the prep job. Receives the ticks
+ * of a (pair, time bucket), including the preceding window and following
+ * look-ahead ticks and the last tick before the window, sorts them by time,
+ * and generates a processed record (features and label, see
+ * DataPrep.processRecord) for every tick of the bucket itself.
+ * 
+ * @author zzuo
+ *
+ */
+public class TickBucketReducer
+		extends Reducer<Text, TickWritable, Text, ProcessedRecordWritable> {
+
+	private DataPrep prep;
+
+	private final Text pairKey = new Text();
+
+	private final ProcessedRecordWritable processed = new ProcessedRecordWritable();
+
+	private long bucketMillis;
+
+	/*
+	 * Last tick before the window of buckets, by pair and bucket (see
+	 * DataPrepMR.readPrecedingTicks)
+	 */
+	private Map<String, TreeMap<Long, TickWritable>> precedingTicks;
+
+	@Override
+	protected void setup(Context context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		bucketMillis = conf.getLong(DataPrepMR.BUCKET_MILLIS_KEY,
+				DataPrepMR.DEFAULT_BUCKET_MILLIS);
+		precedingTicks = DataPrepMR.readPrecedingTicks(conf);
+
+		// features over the window the mapper sends with each bucket
+		prep = new DataPrep(conf.getLong(DataPrepMR.WINDOW_MILLIS_KEY,
+				DataPrepMR.DEFAULT_WINDOW_MILLIS));
+	}
+
+	@Override
+	public void reduce(Text key, Iterable<TickWritable> values,
+			Context context) throws IOException, InterruptedException {
+		List<long[]> order = new ArrayList<>();
+		List<RawDataRecord> ticks = new ArrayList<>();
+
+		for (TickWritable t : values) {
+			add(t, order, ticks);
+		}
+
+		String keyStr = key.toString();
+		pairKey.set(DataPrepMR.pairOf(keyStr));
+		long bucket = DataPrepMR.bucketOf(keyStr);
+		long start = bucket * bucketMillis;
+		long end = start + bucketMillis;
+
+		// the last tick before the window of the bucket, which features of
+		// its first ticks compare with (none before the first ticks of the
+		// pair)
+		TreeMap<Long, TickWritable> preceding = precedingTicks
+				.get(pairKey.toString());
+		if (preceding != null) {
+			Map.Entry<Long, TickWritable> e = preceding.floorEntry(bucket);
+			if (e != null) {
+				add(e.getValue(), order, ticks);
+			}
+		}
+
+		// sort by time, then by position in the input
+		Collections.sort(order, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				if (a[0] != b[0]) {
+					return a[0] < b[0] ? -1 : 1;
+				}
+				return Long.compare(a[1], b[1]);
+			}
+		});
+
+		List<RawDataRecord> rawRecords = new ArrayList<>(ticks.size());
+		for (long[] o : order) {
+			rawRecords.add(ticks.get((int) o[2]));
+		}
+
+		// first tick of the bucket
+		int first = 0;
+		while (first < order.size() && order.get(first)[0] < start) {
+			first++;
+		}
+
+		// record j is processed by processRecord(rawRecords, j + 1), which
+		// needs the record before j, so the first tick of the pair is skipped
+		for (int j = Math.max(first, 1); j < rawRecords.size()
+				&& order.get(j)[0] < end; j++) {
+			processed.set(order.get(j)[0],
+					prep.processRecord(rawRecords, j + 1));
+			context.write(pairKey, processed);
+		}
+	}
+
+	private static void add(TickWritable t, List<long[]> order,
+			List<RawDataRecord> ticks) {
+		order.add(new long[] { t.getTime(), t.getPosition(), ticks.size() });
+		ticks.add(new RawDataRecord(new DateTime(t.getTime()), t.getBid(),
+				t.getAsk()));
+	}
+}
@@ -0,0 +1,79 @@
+package mapreduce;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Writable raw tick (timestamp, bid and ask). The position of the tick in its
+ * input file is kept to order ticks with the same timestamp.
+ * 
+ * @author zzuo
+ *
+ */
+public class TickWritable implements Writable {
+
+	private long time;
+
+	private long position;
+
+	private double bid;
+
+	private double ask;
+
+	public TickWritable() {
+
+	}
+
+	public void set(long time, long position, double bid, double ask) {
+		this.time = time;
+		this.position = position;
+		this.bid = bid;
+		this.ask = ask;
+	}
+
+	/**
+	 * @return whether this tick is after another tick, in time then in input
+	 *         position
+	 */
+	public boolean isAfter(TickWritable other) {
+		if (time != other.time) {
+			return time > other.time;
+		}
+		return position > other.position;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	public double getBid() {
+		return bid;
+	}
+
+	public double getAsk() {
+		return ask;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(time);
+		out.writeLong(position);
+		out.writeDouble(bid);
+		out.writeDouble(ask);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		time = in.readLong();
+		position = in.readLong();
+		bid = in.readDouble();
+		ask = in.readDouble();
+	}
+}
@@ -0,0 +1,39 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonic counter. Updates go to a LongAdder, so threads incrementing the
+ * same counter (e.g. concurrent scorers) do not contend on one cache line.
+ *
+ * @author zzuo
+ *
+ */
+public class Counter implements CounterMXBean {
+
+	private final LongAdder count = new LongAdder();
+
+	/*
+	 * Creation time of the counter, for the mean rate
+	 */
+	private final long startNanos = System.nanoTime();
+
+	public void inc() {
+		count.increment();
+	}
+
+	public void add(long n) {
+		count.add(n);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	@Override
+	public double getMeanRate() {
+		double seconds = (System.nanoTime() - startNanos) / 1e9;
+		return seconds > 0 ? getCount() / seconds : 0;
+	}
+}
@@ -0,0 +1,17 @@
+package metrics;
+
+/**
+ * JMX view of a Counter
+ *
+ * @author zzuo
+ *
+ */
+public interface CounterMXBean {
+
+	long getCount();
+
+	/**
+	 * @return mean number of events per second since the counter was created
+	 */
+	double getMeanRate();
+}
@@ -0,0 +1,197 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values (e.g. latencies in nanoseconds)
+ * with log-linear buckets, as in HdrHistogram: values below 64 have their own
+ * bucket, and each power of two above is split into 32 buckets, so any value
+ * is known within 3.2%. Recording is a few atomic adds and allocates nothing;
+ * the bucket array has a fixed size (about 15KB) whatever the range of values.
+ *
+ * @author zzuo
+ *
+ */
+public class Histogram implements HistogramMXBean {
+
+	/*
+	 * log2 of the number of buckets below 64, each power of two above has
+	 * half as many
+	 */
+	private static final int SUB_BUCKET_BITS = 6;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+	private static final int BUCKETS = SUB_BUCKETS
+			+ (64 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+	 * Record a value, negative values are recorded as 0
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		buckets.incrementAndGet(bucketIndex(value));
+		sum.add(value);
+
+		long m;
+		while (value < (m = min.get()) && !min.compareAndSet(m, value)) {
+		}
+		while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+		}
+	}
+
+	/**
+	 * @return a consistent copy of the recorded distribution
+	 */
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return new Snapshot(counts, sum.sum(), min.get(), max.get());
+	}
+
+	@Override
+	public long getCount() {
+		return snapshot().getCount();
+	}
+
+	@Override
+	public long getMin() {
+		return snapshot().getMin();
+	}
+
+	@Override
+	public long getMax() {
+		return snapshot().getMax();
+	}
+
+	@Override
+	public double getMean() {
+		return snapshot().getMean();
+	}
+
+	@Override
+	public long get50thPercentile() {
+		return snapshot().percentile(0.5);
+	}
+
+	@Override
+	public long get90thPercentile() {
+		return snapshot().percentile(0.9);
+	}
+
+	@Override
+	public long get99thPercentile() {
+		return snapshot().percentile(0.99);
+	}
+
+	@Override
+	public long get999thPercentile() {
+		return snapshot().percentile(0.999);
+	}
+
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS
+				+ (int) ((value >>> shift) - HALF_SUB_BUCKETS);
+	}
+
+	/**
+	 * @return highest value falling into a bucket
+	 */
+	static long bucketHighest(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+		long sub = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		return (sub << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Immutable copy of a histogram
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+
+		private final long count;
+
+		private final long sum;
+
+		private final long min;
+
+		private final long max;
+
+		Snapshot(long[] counts, long sum, long min, long max) {
+			long n = 0;
+			for (long c : counts) {
+				n += c;
+			}
+			this.counts = counts;
+			this.count = n;
+			this.sum = sum;
+			this.min = n == 0 ? 0 : min;
+			this.max = n == 0 ? 0 : max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getMin() {
+			return min;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @param quantile
+		 *            quantile, between 0 and 1
+		 * @return value at the quantile, the highest value of its bucket
+		 *         (bounded by the recorded min and max)
+		 */
+		public long percentile(double quantile) {
+			if (count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(quantile * count));
+
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.max(min, Math.min(max, bucketHighest(i)));
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package metrics;
+
+/**
+ * JMX view of a Histogram
+ *
+ * @author zzuo
+ *
+ */
+public interface HistogramMXBean {
+
+	long getCount();
+
+	long getMin();
+
+	long getMax();
+
+	double getMean();
+
+	long get50thPercentile();
+
+	long get90thPercentile();
+
+	long get99thPercentile();
+
+	long get999thPercentile();
+}
@@ -0,0 +1,118 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process wide registry of named counters and histograms. Hot paths look up
+ * their metrics once (e.g. in static fields) and then only update them.
+ * Metrics can be exported over JMX (domain forex.metrics) and reported
+ * periodically by a MetricsReporter.
+ *
+ * Naming: dot separated, starting with the package (e.g.
+ * "forest.tree.train.nanos"), with the unit as the last part for histograms.
+ *
+ * @author zzuo
+ *
+ */
+public class Metrics {
+
+	public static final String JMX_DOMAIN = "forex.metrics";
+
+	private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	private static volatile boolean jmxEnabled;
+
+	private Metrics() {
+	}
+
+	/**
+	 * @return the counter of the given name, created if needed
+	 */
+	public static Counter counter(String name) {
+		Counter c = counters.get(name);
+		if (c == null) {
+			Counter created = new Counter();
+			c = counters.putIfAbsent(name, created);
+			if (c == null) {
+				c = created;
+				if (jmxEnabled) {
+					register("Counter", name, c);
+				}
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * @return the histogram of the given name, created if needed
+	 */
+	public static Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			Histogram created = new Histogram();
+			h = histograms.putIfAbsent(name, created);
+			if (h == null) {
+				h = created;
+				if (jmxEnabled) {
+					register("Histogram", name, h);
+				}
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * @return all counters, sorted by name
+	 */
+	public static Map<String, Counter> counters() {
+		return new TreeMap<>(counters);
+	}
+
+	/**
+	 * @return all histograms, sorted by name
+	 */
+	public static Map<String, Histogram> histograms() {
+		return new TreeMap<>(histograms);
+	}
+
+	/**
+	 * Register all metrics, and those created later, as MXBeans of the
+	 * platform MBean server
+	 */
+	public static synchronized void enableJmx() {
+		if (jmxEnabled) {
+			return;
+		}
+		jmxEnabled = true;
+
+		for (Map.Entry<String, Counter> e : counters.entrySet()) {
+			register("Counter", e.getKey(), e.getValue());
+		}
+		for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+			register("Histogram", e.getKey(), e.getValue());
+		}
+	}
+
+	private static void register(String type, String name, Object metric) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type="
+					+ type + ",name=" + ObjectName.quote(name));
+			if (!server.isRegistered(objectName)) {
+				server.registerMBean(metric, objectName);
+			}
+		} catch (JMException e) {
+			System.err.println("Cannot register metric " + name + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package metrics;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a snapshot of all metrics: for counters the total and
+ * the rate since the previous snapshot, for histograms the count, mean,
+ * percentiles and max. A last snapshot is written on close.
+ *
+ * @author zzuo
+ *
+ */
+public class MetricsReporter implements Closeable {
+
+	private final PrintStream out;
+
+	private final ScheduledExecutorService executor;
+
+	/*
+	 * Counter values and time of the previous snapshot, for rates
+	 */
+	private final Map<String, Long> lastCounts = new HashMap<>();
+
+	private long lastNanos = System.nanoTime();
+
+	/**
+	 * Start reporting
+	 *
+	 * @param out
+	 *            destination of snapshots
+	 * @param periodSeconds
+	 *            time between snapshots
+	 */
+	public MetricsReporter(PrintStream out, long periodSeconds) {
+		this.out = out;
+
+		this.executor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "metrics-reporter");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Write a snapshot now
+	 */
+	public synchronized void report() {
+		long now = System.nanoTime();
+		double seconds = (now - lastNanos) / 1e9;
+		lastNanos = now;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("-- metrics ").append(new Date()).append('\n');
+
+		for (Map.Entry<String, Counter> e : Metrics.counters().entrySet()) {
+			long count = e.getValue().getCount();
+			Long last = lastCounts.put(e.getKey(), count);
+			double rate = seconds > 0
+					? (count - (last == null ? 0 : last)) / seconds : 0;
+
+			sb.append(String.format("%s count=%d rate=%.1f/s%n", e.getKey(),
+					count, rate));
+		}
+
+		for (Map.Entry<String, Histogram> e : Metrics.histograms()
+				.entrySet()) {
+			Histogram.Snapshot s = e.getValue().snapshot();
+			if (s.getCount() == 0) {
+				continue;
+			}
+
+			sb.append(String.format(
+					"%s count=%d mean=%.1f p50=%d p90=%d p99=%d p999=%d max=%d%n",
+					e.getKey(), s.getCount(), s.getMean(), s.percentile(0.5),
+					s.percentile(0.9), s.percentile(0.99), s.percentile(0.999),
+					s.getMax()));
+		}
+
+		out.print(sb);
+		out.flush();
+	}
+
+	/**
+	 * Stop reporting, after a last snapshot
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		report();
+	}
+}
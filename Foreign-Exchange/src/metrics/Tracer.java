@@ -0,0 +1,241 @@
+package metrics;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+/**
+ * Phase tracer: code wraps its phases in nested spans, each recording its
+ * duration and the bytes allocated by its thread. Traces are written in the
+ * Chrome trace event format (load in chrome://tracing or Perfetto), and a
+ * breakdown per phase is printed, so runs of two versions can be compared.
+ *
+ * Tracing is enabled by the system property forex.trace, naming the trace
+ * file (e.g. -Dforex.trace=forest-trace.json). When disabled, span() returns a
+ * shared no-op span, so phases can stay instrumented at no cost.
+ *
+ * Usage:
+ *
+ * try (Tracer.Span s = Tracer.span("train")) { ... }
+ *
+ * @author zzuo
+ *
+ */
+public class Tracer {
+
+	public static final String TRACE_FILE_PROPERTY = "forex.trace";
+
+	private static final Span NOOP = new Span(null, null, 0, 0);
+
+	private static volatile String traceFile = System
+			.getProperty(TRACE_FILE_PROPERTY);
+
+	private static final long ORIGIN_NANOS = System.nanoTime();
+
+	private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+			.getThreadMXBean();
+
+	/*
+	 * Innermost open span of each thread
+	 */
+	private static final ThreadLocal<Span> current = new ThreadLocal<>();
+
+	private static final List<Span> finished = Collections
+			.synchronizedList(new ArrayList<Span>());
+
+	private Tracer() {
+	}
+
+	/**
+	 * Enable tracing into the given file, or disable it if null
+	 */
+	public static void setTraceFile(String fileName) {
+		traceFile = fileName;
+	}
+
+	public static boolean isEnabled() {
+		return traceFile != null;
+	}
+
+	/**
+	 * Open a span, nested in the current span of the thread. The span must be
+	 * closed by the same thread.
+	 *
+	 * @param name
+	 *            name of the phase
+	 * @return the open span
+	 */
+	public static Span span(String name) {
+		if (traceFile == null) {
+			return NOOP;
+		}
+
+		Span parent = current.get();
+		Span s = new Span(name, parent, System.nanoTime(),
+				threads.getThreadAllocatedBytes(Thread.currentThread()
+						.getId()));
+		current.set(s);
+		return s;
+	}
+
+	/**
+	 * Write the spans closed so far into the trace file, print the breakdown
+	 * per phase, and clear them. Does nothing if tracing is disabled.
+	 *
+	 * @throws IOException
+	 */
+	public static void finish() throws IOException {
+		String fileName = traceFile;
+		if (fileName == null) {
+			return;
+		}
+
+		List<Span> spans;
+		synchronized (finished) {
+			spans = new ArrayList<>(finished);
+			finished.clear();
+		}
+
+		Collections.sort(spans, new Comparator<Span>() {
+			@Override
+			public int compare(Span a, Span b) {
+				return Long.compare(a.startNanos, b.startNanos);
+			}
+		});
+
+		writeChromeTrace(spans, fileName);
+
+		System.out.println(breakdown(spans));
+	}
+
+	/**
+	 * Write spans as complete events ("ph":"X") of the Chrome trace event
+	 * format, times in microseconds
+	 */
+	private static void writeChromeTrace(List<Span> spans, String fileName)
+			throws IOException {
+		List<Map<String, Object>> events = new ArrayList<>();
+
+		for (Span s : spans) {
+			Map<String, Object> args = new LinkedHashMap<>();
+			args.put("path", s.path);
+			args.put("alloc_bytes", s.allocatedBytes);
+
+			Map<String, Object> e = new LinkedHashMap<>();
+			e.put("name", s.name);
+			e.put("cat", "forex");
+			e.put("ph", "X");
+			e.put("ts", (s.startNanos - ORIGIN_NANOS) / 1000.0);
+			e.put("dur", s.durationNanos / 1000.0);
+			e.put("pid", 1);
+			e.put("tid", s.threadId);
+			e.put("args", args);
+			events.add(e);
+		}
+
+		Map<String, Object> trace = new LinkedHashMap<>();
+		trace.put("traceEvents", events);
+		trace.put("displayTimeUnit", "ms");
+
+		try (Writer writer = new FileWriter(fileName)) {
+			new Gson().toJson(trace, writer);
+		}
+	}
+
+	/**
+	 * @return total time, allocation and count of spans of each phase (path
+	 *         of nested span names), in order of first start
+	 */
+	private static String breakdown(List<Span> spans) {
+		Map<String, long[]> phases = new LinkedHashMap<>();
+
+		for (Span s : spans) {
+			long[] p = phases.get(s.path);
+			if (p == null) {
+				p = new long[3];
+				phases.put(s.path, p);
+			}
+			p[0]++;
+			p[1] += s.durationNanos;
+			p[2] += s.allocatedBytes;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-50s %8s %12s %12s%n", "phase", "count",
+				"total ms", "alloc MB"));
+
+		for (Map.Entry<String, long[]> e : phases.entrySet()) {
+			String path = e.getKey();
+			int depth = path.length() - path.replace("/", "").length();
+
+			StringBuilder name = new StringBuilder();
+			for (int i = 0; i < depth; i++) {
+				name.append("  ");
+			}
+			name.append(path.substring(path.lastIndexOf('/') + 1));
+
+			long[] p = e.getValue();
+			sb.append(String.format("%-50s %8d %12.1f %12.1f%n", name, p[0],
+					p[1] / 1e6, p[2] / 1e6));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * A phase being traced
+	 */
+	public static final class Span implements AutoCloseable {
+		private final String name;
+
+		private final Span parent;
+
+		/*
+		 * Names of enclosing spans and of this span, separated by '/'
+		 */
+		private final String path;
+
+		private final long threadId;
+
+		private final long startNanos;
+
+		private final long startBytes;
+
+		private long durationNanos;
+
+		private long allocatedBytes;
+
+		private Span(String name, Span parent, long startNanos,
+				long startBytes) {
+			this.name = name;
+			this.parent = parent;
+			this.path = parent == null ? name : parent.path + "/" + name;
+			this.threadId = Thread.currentThread().getId();
+			this.startNanos = startNanos;
+			this.startBytes = startBytes;
+		}
+
+		@Override
+		public void close() {
+			if (this == NOOP) {
+				return;
+			}
+
+			durationNanos = System.nanoTime() - startNanos;
+			allocatedBytes = threads.getThreadAllocatedBytes(threadId)
+					- startBytes;
+
+			current.set(parent);
+			finished.add(this);
+		}
+	}
+}
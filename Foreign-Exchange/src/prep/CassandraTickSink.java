@@ -0,0 +1,109 @@
+package prep;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Tick sink writing into a Cassandra tick store: table ticks, partitioned by
+ * (pair, day) so partitions stay bounded, clustered by time and a per pair
+ * sequence number (several ticks may share a millisecond). Inserts are
+ * asynchronous, with a bounded number in flight.
+ *
+ * @author zzuo
+ *
+ */
+public class CassandraTickSink implements TickSink {
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	/*
+	 * Maximum number of inserts in flight
+	 */
+	private static final int MAX_IN_FLIGHT = 256;
+
+	private final Session session;
+
+	private final PreparedStatement insert;
+
+	private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+	/*
+	 * Next sequence number of each pair
+	 */
+	private final Map<String, Long> sequences = new HashMap<>();
+
+	/*
+	 * First failure of an asynchronous insert
+	 */
+	private volatile Throwable failure;
+
+	public CassandraTickSink(Cluster cluster) {
+		this.session = cluster.connect("test");
+
+		session.execute("CREATE TABLE IF NOT EXISTS ticks (pair text, day int, "
+				+ "time timestamp, seq bigint, bid double, ask double, "
+				+ "PRIMARY KEY ((pair, day), time, seq))");
+
+		this.insert = session.prepare("INSERT INTO ticks "
+				+ "(pair, day, time, seq, bid, ask) VALUES (?, ?, ?, ?, ?, ?)");
+	}
+
+	@Override
+	public void write(String pair, long timeMillis, long bid, long ask,
+			int decimals) throws IOException {
+		if (failure != null) {
+			throw new IOException("Tick insert failed", failure);
+		}
+
+		Long seq = sequences.get(pair);
+		seq = seq == null ? 0 : seq + 1;
+		sequences.put(pair, seq);
+
+		double scale = Math.pow(10, decimals);
+
+		inFlight.acquireUninterruptibly();
+
+		ResultSetFuture future = session.executeAsync(insert.bind(pair,
+				(int) Math.floorDiv(timeMillis, MILLIS_PER_DAY),
+				new Date(timeMillis), seq, bid / scale, ask / scale));
+
+		Futures.addCallback(future, new FutureCallback<ResultSet>() {
+			@Override
+			public void onSuccess(ResultSet result) {
+				inFlight.release();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				failure = t;
+				inFlight.release();
+			}
+		});
+	}
+
+	/**
+	 * Wait for all inserts in flight, and close the session
+	 */
+	@Override
+	public void close() throws IOException {
+		inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+		inFlight.release(MAX_IN_FLIGHT);
+
+		session.close();
+
+		if (failure != null) {
+			throw new IOException("Tick insert failed", failure);
+		}
+	}
+}
@@ -0,0 +1,432 @@
+package prep;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Feature engine over several currency pairs. Tick streams (e.g. one file per
+ * pair, each in time order) are merged by timestamp with a heap (k-way
+ * merge), and each pair keeps an incremental TickWindow over one or several window
+ * sizes (e.g. 10s, 1m, 5m, 15m, 1h, all computed in the same pass). For each
+ * tick of the target pair, a row is computed with:
+ *
+ * - the features of DataPrep.processRecord on the target pair: avg_bid,
+ * range_bid and diff_bid for each window, then delta_bid and spread;
+ *
+ * - for each other pair, as of the time of the tick: the return of the bid
+ * over each window (<pair>_return) and the relative spread (<pair>_spread).
+ *
+ * With several windows, names of per window features end with the window
+ * size, e.g. avg_bid_10s or eurusd_return_1h.
+ *
+ * Rows are labeled for each configured horizon by a HorizonLabeler on the
+ * target pair (by default, the direction of the next different bid as in
+ * DataPrep), so they wait until all their horizons are resolved. All is done
+ * in one pass, with memory bounded by the ticks in the windows and the rows
+ * waiting for their labels.
+ *
+ * @author zzuo
+ *
+ */
+public class CrossPairFeatureEngine {
+
+	public static final long DEFAULT_WINDOW_MILLIS = 1000 * 60 /* seconds */
+			* 5 /* minutes */;
+
+	/*
+	 * Rows start at this target tick (initial windows have too little data),
+	 * as in DataPrep.prepareData
+	 */
+	private static final int WARM_UP_TICKS = 100;
+
+	private static final String[] WINDOW_FEATURES = { "avg_bid", "range_bid",
+			"diff_bid" };
+
+	/*
+	 * System property of window sizes, e.g. -Dforex.windows=10s,1m,5m,15m,1h
+	 */
+	public static final String WINDOWS_PROPERTY = "forex.windows";
+
+	private final long[] windowMillis;
+
+	/*
+	 * Target pair first, then the other pairs
+	 */
+	private final String[] pairs;
+
+	private final List<String> featureNames = new ArrayList<>();
+
+	/*
+	 * Whether each feature is signed (a difference or a return) rather than
+	 * a level (an average, a range or a spread)
+	 */
+	private final boolean[] signed;
+
+	/*
+	 * Label horizons (see HorizonLabeler)
+	 */
+	private long[] horizons = { HorizonLabeler.NEXT_CHANGE };
+
+	/**
+	 * @param windowMillis
+	 *            window size, in milliseconds
+	 * @param target
+	 *            pair whose ticks are labeled, e.g. "EUR/USD"
+	 * @param others
+	 *            pairs giving cross-pair features
+	 */
+	public CrossPairFeatureEngine(long windowMillis, String target,
+			String... others) {
+		this(new long[] { windowMillis }, target, others);
+	}
+
+	/**
+	 * @param windowMillis
+	 *            window sizes, in milliseconds
+	 * @param target
+	 *            pair whose ticks are labeled, e.g. "EUR/USD"
+	 * @param others
+	 *            pairs giving cross-pair features
+	 */
+	public CrossPairFeatureEngine(long[] windowMillis, String target,
+			String... others) {
+		this.windowMillis = windowMillis.clone();
+
+		this.pairs = new String[others.length + 1];
+		pairs[0] = target;
+		System.arraycopy(others, 0, pairs, 1, others.length);
+
+		String[] suffixes = new String[windowMillis.length];
+		for (int w = 0; w < suffixes.length; w++) {
+			suffixes[w] = windowMillis.length == 1 ? ""
+					: "_" + TickWindow.formatMillis(windowMillis[w]);
+		}
+
+		List<Boolean> signedFeatures = new ArrayList<>();
+		for (String suffix : suffixes) {
+			for (String f : WINDOW_FEATURES) {
+				featureNames.add(f + suffix);
+				signedFeatures.add(f.startsWith("diff"));
+			}
+		}
+		featureNames.add("delta_bid");
+		signedFeatures.add(true);
+		featureNames.add("spread");
+		signedFeatures.add(false);
+
+		for (String p : others) {
+			String name = p.replace("/", "").toLowerCase();
+			for (String suffix : suffixes) {
+				featureNames.add(name + "_return" + suffix);
+				signedFeatures.add(true);
+			}
+			featureNames.add(name + "_spread");
+			signedFeatures.add(false);
+		}
+
+		this.signed = new boolean[featureNames.size()];
+		for (int i = 0; i < signed.length; i++) {
+			signed[i] = signedFeatures.get(i);
+		}
+	}
+
+	/**
+	 * @return names of the features of each row
+	 */
+	public List<String> getFeatureNames() {
+		return featureNames;
+	}
+
+	/**
+	 * @return true if a feature is signed (a difference or a return), false
+	 *         if it is a level (an average, a range or a spread)
+	 */
+	public boolean isSigned(int feature) {
+		return signed[feature];
+	}
+
+	/**
+	 * Set the horizons of the labels of each row
+	 *
+	 * @param horizons
+	 *            HorizonLabeler.NEXT_CHANGE or times in milliseconds
+	 */
+	public void setHorizons(long... horizons) {
+		this.horizons = horizons.clone();
+	}
+
+	/**
+	 * @return names of the labels of each row, one per horizon
+	 */
+	public List<String> getLabelNames() {
+		return new HorizonLabeler(horizons).getLabelNames();
+	}
+
+	/**
+	 * Merge tick streams, and write a labeled row for each tick of the target
+	 * pair (after warm-up). Ticks of other pairs than the configured ones are
+	 * skipped. Rows still waiting for their labels at the end are dropped.
+	 *
+	 * @param sources
+	 *            tick streams, each in time order; they are not closed
+	 * @param sink
+	 *            destination of rows
+	 * @return number of rows written
+	 * @throws IOException
+	 */
+	public long run(List<TickReader> sources, FeatureSink sink)
+			throws IOException {
+		Map<String, Integer> pairIndexes = new HashMap<>();
+		TickWindow[] windows = new TickWindow[pairs.length];
+		for (int i = 0; i < pairs.length; i++) {
+			pairIndexes.put(pairs[i], i);
+			windows[i] = new TickWindow(windowMillis);
+		}
+
+		// streams ordered by the time of their current tick, then by position
+		PriorityQueue<Source> queue = new PriorityQueue<>(
+				Math.max(1, sources.size()), new Comparator<Source>() {
+					@Override
+					public int compare(Source a, Source b) {
+						long ta = a.reader.getTime();
+						long tb = b.reader.getTime();
+						if (ta != tb) {
+							return ta < tb ? -1 : 1;
+						}
+						return Integer.compare(a.position, b.position);
+					}
+				});
+
+		for (int i = 0; i < sources.size(); i++) {
+			if (sources.get(i).next()) {
+				queue.add(new Source(sources.get(i), i));
+			}
+		}
+
+		HorizonLabeler labeler = new HorizonLabeler(horizons);
+		boolean[] labels = new boolean[horizons.length];
+
+		// rows of target ticks from firstRow on (all following target ticks
+		// have a row), waiting for their labels
+		ArrayDeque<double[]> pending = new ArrayDeque<>();
+		ArrayDeque<double[]> free = new ArrayDeque<>();
+		long firstRow = -1;
+
+		long rows = 0;
+
+		while (!queue.isEmpty()) {
+			Source source = queue.poll();
+			TickReader tick = source.reader;
+
+			Integer index = pairIndexes.get(tick.getPair());
+
+			if (index != null) {
+				TickWindow w = windows[index];
+				w.add(tick.getTime(), tick.getBid(), tick.getAsk());
+
+				if (index == 0) {
+					long n = labeler.add(tick.getTime(), tick.getBid());
+
+					if (firstRow < 0 && w.getTicks() >= WARM_UP_TICKS
+							&& allStarted(windows)) {
+						firstRow = n;
+					}
+
+					if (firstRow >= 0) {
+						double[] row = free.isEmpty()
+								? new double[featureNames.size()]
+								: free.poll();
+						computeRow(windows, tick.getTime(), row);
+						pending.add(row);
+					}
+
+					// write rows labeled for all horizons
+					while (labeler.hasLabeled()) {
+						boolean hasRow = firstRow >= 0
+								&& labeler.peek() >= firstRow;
+						long bits = labeler.poll();
+						if (hasRow) {
+							for (int h = 0; h < labels.length; h++) {
+								labels[h] = (bits & (1L << h)) != 0;
+							}
+							double[] row = pending.poll();
+							sink.write(row, labels);
+							free.add(row);
+							rows++;
+						}
+					}
+				}
+			}
+
+			if (tick.next()) {
+				queue.add(source);
+			}
+		}
+
+		return rows;
+	}
+
+	/**
+	 * A tick stream, with its position in the list of streams
+	 */
+	private static final class Source {
+		final TickReader reader;
+
+		final int position;
+
+		Source(TickReader reader, int position) {
+			this.reader = reader;
+			this.position = position;
+		}
+	}
+
+	private static boolean allStarted(TickWindow[] windows) {
+		for (TickWindow w : windows) {
+			if (w.getTicks() == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compute the features of the last target tick
+	 */
+	private void computeRow(TickWindow[] windows, long time, double[] row) {
+		TickWindow t = windows[0];
+		double bid = t.getLastBid();
+
+		// as DataPrep.processRecord, the average divides by one more than
+		// the number of ticks in the window
+		int f = 0;
+		for (int k = 0; k < windowMillis.length; k++) {
+			row[f++] = t.getSum(k) / (t.getCount(k) + 1);
+			row[f++] = t.getMax(k) - t.getMin(k);
+			row[f++] = bid - t.getBidBeforeWindow(k);
+		}
+		row[f++] = bid - t.getPrevBid();
+		row[f++] = t.getLastAsk() - bid;
+
+		for (int i = 1; i < windows.length; i++) {
+			TickWindow w = windows[i];
+			// the windows of another pair end at the time of the target tick
+			w.advance(time);
+
+			double last = w.getLastBid();
+			for (int k = 0; k < windowMillis.length; k++) {
+				double before = w.getBidBeforeWindow(k);
+				row[f++] = (last - before) / before;
+			}
+			row[f++] = (w.getLastAsk() - last) / last;
+		}
+	}
+
+	/**
+	 * Usage: CrossPairFeatureEngine target others output.csv ticks.csv...
+	 *
+	 * others are comma separated pairs; tick files may hold several pairs.
+	 * Writes boolean rows to output.csv (levels are compared with their mean
+	 * over previous rows, signed features with 0), and continuous rows to
+	 * output_cont.csv. Rows have a label column for each of the default
+	 * horizons (see HorizonLabeler.DEFAULT_HORIZONS). others may be empty
+	 * for features of the target pair only. Window sizes are given by
+	 * -Dforex.windows (5m by default).
+	 */
+	public static void main(String[] args) throws IOException {
+		long startTime = System.currentTimeMillis();
+
+		String windows = System.getProperty(WINDOWS_PROPERTY);
+		long[] windowMillis = { DEFAULT_WINDOW_MILLIS };
+		if (windows != null) {
+			String[] sizes = windows.split(",");
+			windowMillis = new long[sizes.length];
+			for (int i = 0; i < sizes.length; i++) {
+				windowMillis[i] = TickWindow.parseMillis(sizes[i]);
+			}
+		}
+
+		final CrossPairFeatureEngine engine = new CrossPairFeatureEngine(
+				windowMillis, args[0],
+				args[1].isEmpty() ? new String[0] : args[1].split(","));
+		engine.setHorizons(HorizonLabeler.DEFAULT_HORIZONS);
+
+		List<TickReader> sources = new ArrayList<>();
+		for (int i = 3; i < args.length; i++) {
+			sources.add(new TickReader(args[i]));
+		}
+
+		final int n = engine.getFeatureNames().size();
+		final int m = engine.getLabelNames().size();
+
+		StringBuilder header = new StringBuilder();
+		for (String name : engine.getFeatureNames()) {
+			header.append(name).append(',');
+		}
+		for (String name : engine.getLabelNames()) {
+			header.append(name).append(',');
+		}
+		header.setCharAt(header.length() - 1, '\n');
+
+		String outputFileName = args[2];
+		try (final Writer binary = new BufferedWriter(
+				new FileWriter(outputFileName));
+				final Writer cont = new BufferedWriter(new FileWriter(
+						outputFileName.replace(".csv", "") + "_cont.csv"))) {
+			binary.write(header.toString());
+			cont.write(header.toString());
+
+			long rows = engine.run(sources, new FeatureSink() {
+				private final double[] sums = new double[n];
+
+				private long count = 0;
+
+				private final StringBuilder sb = new StringBuilder();
+
+				@Override
+				public void write(double[] features, boolean[] labels)
+						throws IOException {
+					count++;
+
+					sb.setLength(0);
+					for (int i = 0; i < n; i++) {
+						sb.append(features[i]).append(',');
+					}
+					for (int i = 0; i < m; i++) {
+						sb.append(labels[i] ? 1 : 0).append(',');
+					}
+					sb.setCharAt(sb.length() - 1, '\n');
+					cont.append(sb);
+
+					sb.setLength(0);
+					for (int i = 0; i < n; i++) {
+						sums[i] += features[i];
+						double threshold = engine.isSigned(i) ? 0
+								: sums[i] / count;
+						sb.append(features[i] > threshold).append(',');
+					}
+					for (int i = 0; i < m; i++) {
+						sb.append(labels[i]).append(',');
+					}
+					sb.setCharAt(sb.length() - 1, '\n');
+					binary.append(sb);
+				}
+			});
+
+			System.out.println(rows + " rows written in "
+					+ (System.currentTimeMillis() - startTime) + " ms");
+		} finally {
+			for (TickReader r : sources) {
+				r.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package prep;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Tick sink writing csv lines in the raw data format read by
+ * DataPrep.readRecords: "pair,yyyyMMdd HH:mm:ss.SSS,bid,ask". Lines are
+ * formatted by hand into a reused buffer (the date part is only formatted once
+ * a day), so files of billions of ticks can be written.
+ *
+ * @author zzuo
+ *
+ */
+public class CsvTickSink implements TickSink {
+
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormat
+			.forPattern("yyyyMMdd ").withZone(DateTimeZone.UTC);
+
+	private final Writer writer;
+
+	private final StringBuilder line = new StringBuilder(64);
+
+	/*
+	 * Formatted date of the current day
+	 */
+	private long day = Long.MIN_VALUE;
+
+	private String dayPrefix;
+
+	public CsvTickSink(String fileName) throws IOException {
+		this.writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(fileName), StandardCharsets.US_ASCII),
+				1 << 16);
+	}
+
+	@Override
+	public void write(String pair, long timeMillis, long bid, long ask,
+			int decimals) throws IOException {
+		long d = Math.floorDiv(timeMillis, MILLIS_PER_DAY);
+		if (d != day) {
+			day = d;
+			dayPrefix = DAY_FORMATTER.print(d * MILLIS_PER_DAY);
+		}
+
+		int millisOfDay = (int) (timeMillis - d * MILLIS_PER_DAY);
+
+		line.setLength(0);
+		line.append(pair).append(',').append(dayPrefix);
+		appendPadded(millisOfDay / 3600000, 2);
+		line.append(':');
+		appendPadded(millisOfDay / 60000 % 60, 2);
+		line.append(':');
+		appendPadded(millisOfDay / 1000 % 60, 2);
+		line.append('.');
+		appendPadded(millisOfDay % 1000, 3);
+		line.append(',');
+		appendPrice(bid, decimals);
+		line.append(',');
+		appendPrice(ask, decimals);
+		line.append('\n');
+
+		writer.append(line);
+	}
+
+	private void appendPadded(int value, int width) {
+		for (int p = width == 3 ? 100 : 10; p > 1 && value < p; p /= 10) {
+			line.append('0');
+		}
+		line.append(value);
+	}
+
+	/**
+	 * Append a price given in points with a fixed number of decimals
+	 */
+	private void appendPrice(long points, int decimals) {
+		long scale = 1;
+		for (int i = 0; i < decimals; i++) {
+			scale *= 10;
+		}
+
+		line.append(points / scale);
+		if (decimals > 0) {
+			line.append('.');
+			long fraction = points % scale;
+			for (long p = scale / 10; p > 1 && fraction < p; p /= 10) {
+				line.append('0');
+			}
+			line.append(fraction);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+}
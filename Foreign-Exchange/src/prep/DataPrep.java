@@ -7,16 +7,20 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
-import com.datastax.driver.core.Cluster;
-import com.datastax.driver.core.Session;
 
-import util.GlobalParams;
+import metrics.Tracer;
+
+import util.CsvRecordSource;
+import util.DataStore;
+import util.DataStores;
 
 /**
  * This class is responsible for prepare data for analysis. It has methods to
@@ -31,6 +35,24 @@ public class DataPrep {
 	private static final long WINDOW_SIZE_IN_MILLIS = 1000 * 60 /* seconds */
 			* 5 /* minutes */;
 
+	/*
+	 * Size of the time window of features. Features over several window
+	 * sizes are computed in one pass by CrossPairFeatureEngine.
+	 */
+	private final long windowMillis;
+
+	public DataPrep() {
+		this(WINDOW_SIZE_IN_MILLIS);
+	}
+
+	/**
+	 * @param windowMillis
+	 *            size of the time window of features, in milliseconds
+	 */
+	public DataPrep(long windowMillis) {
+		this.windowMillis = windowMillis;
+	}
+
 	/**
 	 * Prepare data for analysis (reads data, process data, and write data)
 	 * 
@@ -40,21 +62,131 @@ public class DataPrep {
 	 *            output file name
 	 */
 	public void prepareData(String inputFileName, String outputFileName) {
-		List<RawDataRecord> rawRecords = readRecords(inputFileName);
-		List<ProcessedDataRecord> processedRecords = new ArrayList<ProcessedDataRecord>();
-
-		// skip first 100 records (initial records may introduce significant
-		// error due to less data)
-		for (int i = 100; i < rawRecords.size() - 100; i++) {
-			ProcessedDataRecord p = processRecord(rawRecords, i);
-			processedRecords.add(p);
+		try (Tracer.Span span = Tracer.span("prepareData")) {
+			List<RawDataRecord> rawRecords;
+			try (Tracer.Span phase = Tracer.span("read")) {
+				rawRecords = readRecords(inputFileName);
+			}
+
+			List<ProcessedDataRecord> processedRecords = new ArrayList<ProcessedDataRecord>();
+			try (Tracer.Span phase = Tracer.span("process")) {
+				// skip first 100 records (initial records may introduce
+				// significant error due to less data)
+				for (int i = 100; i < rawRecords.size() - 100; i++) {
+					ProcessedDataRecord p = processRecord(rawRecords, i);
+					processedRecords.add(p);
+				}
+			}
+
+			try (Tracer.Span phase = Tracer.span("writeContinuous")) {
+				writeContinuousRecords("sample_labeled_cont.csv",
+						processedRecords);
+			}
+
+			List<boolean[]> binaryRecords;
+			try (Tracer.Span phase = Tracer.span("binarize")) {
+				binaryRecords = binarizeRecords(processedRecords);
+			}
+
+			try (Tracer.Span phase = Tracer.span("writeBinary")) {
+				writeBinaryRecords(outputFileName, binaryRecords);
+			}
 		}
+	}
+
+	/**
+	 * Prepare data for analysis with a label column for each horizon (see
+	 * HorizonLabeler) in place of the single label, so that models for all
+	 * horizons are trained from one run of prep (e.g. with
+	 * util.LabelColumnSource). Records whose horizons are not all resolved
+	 * by the end of the data are dropped.
+	 * 
+	 * @param inputFileName
+	 *            input file name
+	 * @param outputFileName
+	 *            output file name
+	 * @param horizons
+	 *            HorizonLabeler.NEXT_CHANGE or times in milliseconds
+	 */
+	public void prepareData(String inputFileName, String outputFileName,
+			long... horizons) {
+		try (Tracer.Span span = Tracer.span("prepareData")) {
+			List<RawDataRecord> rawRecords;
+			try (Tracer.Span phase = Tracer.span("read")) {
+				rawRecords = readRecords(inputFileName);
+			}
 
-		writeContinuousRecords("sample_labeled_cont.csv", processedRecords);
+			HorizonLabeler labeler = new HorizonLabeler(horizons);
+			long[] labels;
+			try (Tracer.Span phase = Tracer.span("label")) {
+				labels = labelRecords(rawRecords, labeler);
+			}
 
-		List<boolean[]> binaryRecords = binarizeRecords(processedRecords);
+			List<ProcessedDataRecord> processedRecords = new ArrayList<ProcessedDataRecord>();
+			try (Tracer.Span phase = Tracer.span("process")) {
+				// the record of index i is the raw record i - 1
+				int end = Math.min(rawRecords.size() - 100, labels.length + 1);
+				for (int i = 100; i < end; i++) {
+					ProcessedDataRecord p = processRecord(rawRecords, i);
+					processedRecords.add(p);
+				}
+			}
 
-		writeBinaryRecords(outputFileName, binaryRecords);
+			List<boolean[]> labeledRecords = new ArrayList<>();
+			try (Tracer.Span phase = Tracer.span("binarize")) {
+				List<boolean[]> binaryRecords = binarizeRecords(
+						processedRecords);
+
+				// replace the label by the label columns
+				for (int j = 0; j < binaryRecords.size(); j++) {
+					boolean[] r = binaryRecords.get(j);
+					boolean[] l = Arrays.copyOf(r,
+							r.length - 1 + horizons.length);
+					long bits = labels[j + 99];
+					for (int h = 0; h < horizons.length; h++) {
+						l[r.length - 1 + h] = (bits & (1L << h)) != 0;
+					}
+					labeledRecords.add(l);
+				}
+			}
+
+			StringBuilder header = new StringBuilder(
+					"avg_bid,range_bid,diff_bid,delta_bid,spread");
+			for (String name : labeler.getLabelNames()) {
+				header.append(",").append(name);
+			}
+
+			try (Tracer.Span phase = Tracer.span("writeBinary")) {
+				writeBinaryRecords(outputFileName, header.toString(),
+						labeledRecords);
+			}
+		}
+	}
+
+	/**
+	 * Label raw records for the horizons of a labeler, in one pass
+	 * 
+	 * @param rawRecords
+	 *            list of raw data records, in time order
+	 * @param labeler
+	 *            labeler, with no records added yet
+	 * @return label bits of the records (bit h for horizon h), for the
+	 *         records from the first one up to the last one labeled for all
+	 *         horizons
+	 */
+	public long[] labelRecords(List<RawDataRecord> rawRecords,
+			HorizonLabeler labeler) {
+		long[] labels = new long[rawRecords.size()];
+		int labeled = 0;
+
+		for (RawDataRecord r : rawRecords) {
+			labeler.add(r.getTime().getMillis(), r.getBid());
+			while (labeler.hasLabeled()) {
+				labels[labeled++] = labeler.poll();
+			}
+		}
+
+		return Arrays.copyOf(labels, labeled);
 	}
 
 	/**
@@ -66,8 +198,9 @@ public class DataPrep {
 	 */
 	public List<RawDataRecord> readRecords(String inputFileName) {
 		List<RawDataRecord> records = new ArrayList<>();
+		// times are UTC, as written by CsvTickSink and read by TickReader
 		DateTimeFormatter formatter = DateTimeFormat
-				.forPattern("yyyyMMdd HH:mm:ss.SSS");
+				.forPattern("yyyyMMdd HH:mm:ss.SSS").withZone(DateTimeZone.UTC);
 
 		try (BufferedReader reader = new BufferedReader(
 				new FileReader(inputFileName))) {
@@ -98,9 +231,25 @@ public class DataPrep {
 	 */
 	public void writeBinaryRecords(String outputFileName,
 			List<boolean[]> records) {
+		writeBinaryRecords(outputFileName,
+				"avg_bid,range_bid,diff_bid,delta_bid,spread,label", records);
+	}
+
+	/**
+	 * Write binary labeled data into an output csv file
+	 * 
+	 * @param outputFileName
+	 *            output file name
+	 * @param header
+	 *            names of the columns, comma separated
+	 * @param records
+	 *            list of labeled data records
+	 */
+	public void writeBinaryRecords(String outputFileName, String header,
+			List<boolean[]> records) {
 		try (BufferedWriter writer = new BufferedWriter(
 				new FileWriter(outputFileName))) {
-			writer.write("avg_bid,range_bid,diff_bid,delta_bid,spread,label\n");
+			writer.write(header + "\n");
 			for (boolean[] r : records) {
 				StringBuilder sb = new StringBuilder();
 				int i;
@@ -184,7 +333,7 @@ public class DataPrep {
 		int i;
 		for (i = index - 1; i >= 0; i--) {
 			RawDataRecord r = rawRecords.get(i);
-			if (r.getTime().isAfter(currTime.minus(WINDOW_SIZE_IN_MILLIS))) {
+			if (r.getTime().isAfter(currTime.minus(windowMillis))) {
 				maxBid = Math.max(maxBid, r.getBid());
 				minBid = Math.min(minBid, r.getBid());
 				avgBid += r.getBid();
@@ -233,24 +382,44 @@ public class DataPrep {
 		List<boolean[]> binaryRecords = new ArrayList<>();
 
 		for (ProcessedDataRecord r : contRecords) {
-			boolean[] binaries = new boolean[6];
-
-			binaries[0] = r.getAvgBid() > thresholdAvgBid;
-			binaries[1] = r.getRangeBid() > thresholdRangeBid;
-			binaries[2] = r.getDiffBid() > thresholdDiffBid;
-			binaries[3] = r.getDeltaBid() > thresholdDeltaBid;
-			binaries[4] = r.getSpread() > thresholdSpread;
-			binaries[5] = r.getLabel() == 1;
-
-			binaryRecords.add(binaries);
+			binaryRecords.add(binarizeRecord(r, thresholdAvgBid,
+					thresholdRangeBid, thresholdDiffBid, thresholdDeltaBid,
+					thresholdSpread));
 		}
 
 		return binaryRecords;
 	}
 
+	/**
+	 * Binarize features values of a record by applying thresholds
+	 * 
+	 * @param r
+	 *            record with features of continuous values
+	 * @return record with boolean features (and label)
+	 */
+	public static boolean[] binarizeRecord(ProcessedDataRecord r,
+			double thresholdAvgBid, double thresholdRangeBid,
+			double thresholdDiffBid, double thresholdDeltaBid,
+			double thresholdSpread) {
+		boolean[] binaries = new boolean[6];
+
+		binaries[0] = r.getAvgBid() > thresholdAvgBid;
+		binaries[1] = r.getRangeBid() > thresholdRangeBid;
+		binaries[2] = r.getDiffBid() > thresholdDiffBid;
+		binaries[3] = r.getDeltaBid() > thresholdDeltaBid;
+		binaries[4] = r.getSpread() > thresholdSpread;
+		binaries[5] = r.getLabel() == 1;
+
+		return binaries;
+	}
+
 	/**
 	 * Split labeled data file into training (80%) and testing (20%) data files
 	 * 
+	 * Every fifth record is a testing record, so training records are
+	 * interleaved with, and later than, testing records; to validate on
+	 * records in time order without writing files, see util.RecordView
+	 * 
 	 * @param inputFileName
 	 * @param trainFileName
 	 * @param testFileName
@@ -293,101 +462,47 @@ public class DataPrep {
 	}
 
 	/**
-	 * Transmit data from csv file to Cassandra database
+	 * Store training and testing data from csv files into a data store
 	 * 
 	 * @param trainFileName
 	 *            training data file name
 	 * @param testFileName
 	 *            testing data file name
+	 * @param store
+	 *            data store
+	 * @throws IOException
 	 */
-	public void csvToCassandra(String trainFileName, String testFileName) {
-		Cluster cluster;
-		Session session;
-
-		cluster = Cluster.builder().addContactPoint(GlobalParams.CASSANDRA_ADDR).build();
-		session = cluster.connect("test");
-
-		session.execute("DROP TABLE IF EXISTS train_data");
-		session.execute("DROP TABLE IF EXISTS test_data");
-
-		session.execute(
-				"CREATE TABLE train_data (id bigint PRIMARY KEY, avg_bid boolean, range_bid boolean, diff_bid boolean, delta_bid boolean, spread boolean, label boolean)");
-		session.execute(
-				"CREATE TABLE test_data (id bigint PRIMARY KEY, avg_bid boolean, range_bid boolean, diff_bid boolean, delta_bid boolean, spread boolean, label boolean)");
-
-//		session.execute(
-//				"CREATE TABLE train_data (id bigint PRIMARY KEY, avg_bid int, range_bid int, diff_bid int, delta_bid int, spread int, label int)");
-//		session.execute(
-//				"CREATE TABLE test_data (id bigint PRIMARY KEY, avg_bid int, range_bid int, diff_bid int, delta_bid int, spread int, label int)");
-
-		
-		insertData(trainFileName, true, session);
-		insertData(testFileName, false, session);
-
-		cluster.close();
+	public void csvToStore(String trainFileName, String testFileName,
+			DataStore store) throws IOException {
+		store.writeRecords(true, new CsvRecordSource(trainFileName));
+		store.writeRecords(false, new CsvRecordSource(testFileName));
 	}
 
-	/**
-	 * Insert data into table in Cassandra (for training or testing)
-	 * 
-	 * @param fileName
-	 *            data file (csv) name
-	 * @param isTrain
-	 *            is the data for training
-	 * @param session
-	 *            Cassandra session
-	 */
-	private void insertData(String fileName, boolean isTrain, Session session) {
-
-		try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
-			String line = br.readLine();
-
-			int id = 1;
-
-			while ((line = br.readLine()) != null) {
-				String[] strs = line.split(",");
-
-				StringBuilder sb = new StringBuilder();
-
-				if (isTrain) {
-					sb.append(
-							"INSERT INTO train_data (id, avg_bid, range_bid, diff_bid, delta_bid, spread, label) VALUES (");
-				} else {
-					sb.append(
-							"INSERT INTO test_data (id, avg_bid, range_bid, diff_bid, delta_bid, spread, label) VALUES (");
-				}
-
-				sb.append(id);
+	public static void main(String[] args) throws IOException {
+		// phases are traced if -Dforex.trace=<trace file> is given
+		try (Tracer.Span span = Tracer.span("DataPrep")) {
+			new DataPrep().prepareData("sample_raw.csv",
+					"sample_labeled.csv");
 
-				for (int i = 0; i < strs.length; i++) {
-//					int val = (strs[i].toLowerCase().equals("true")) ? 1 : 0;
-//					sb.append(", ").append(val);
-					sb.append(", ").append(strs[i]);
-				}
-
-				sb.append(")");
-
-				session.execute(sb.toString());
+			System.out.println("Labeled data generated.");
 
-				id++;
+			try (Tracer.Span phase = Tracer.span("splitTrainAndTestFiles")) {
+				new DataPrep().splitTrainAndTestFiles("sample_labeled.csv",
+						"sample_train.csv", "sample_test.csv");
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	public static void main(String[] args) {
-		new DataPrep().prepareData("sample_raw.csv", "sample_labeled.csv");
 
-		System.out.println("Labeled data generated.");
+			System.out.println("Train and test files splitted.");
 
-		new DataPrep().splitTrainAndTestFiles("sample_labeled.csv",
-				"sample_train.csv", "sample_test.csv");
-
-		System.out.println("Train and test files splitted.");
+			// storage chosen by -Dforex.store (Cassandra by default)
+			try (Tracer.Span phase = Tracer.span("csvToStore");
+					DataStore store = DataStores.fromConfig()) {
+				new DataPrep().csvToStore("sample_train.csv",
+						"sample_test.csv", store);
+			}
 
-		new DataPrep().csvToCassandra("sample_train.csv", "sample_test.csv");
+			System.out.println("Data transmitted into data store.");
+		}
 
-		System.out.println("Data transmitted into Cassandra.");
+		Tracer.finish();
 	}
 }
@@ -0,0 +1,25 @@
+package prep;
+
+import java.io.IOException;
+
+/**
+ * Destination of labeled feature rows computed by CrossPairFeatureEngine
+ *
+ * @author zzuo
+ *
+ */
+public interface FeatureSink {
+
+	/**
+	 * Write a labeled row
+	 *
+	 * @param features
+	 *            feature values, in the order of the engine's feature names;
+	 *            the array is reused after the call
+	 * @param labels
+	 *            directionality labels, in the order of the engine's label
+	 *            names (one per horizon); the array is reused after the call
+	 * @throws IOException
+	 */
+	void write(double[] features, boolean[] labels) throws IOException;
+}
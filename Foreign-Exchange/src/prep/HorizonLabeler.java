@@ -0,0 +1,208 @@
+package prep;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Labels ticks of one pair for several horizons in one forward pass. Ticks
+ * are added in time order, and each horizon has its own pointer to the oldest
+ * tick it has not labeled yet, which only moves forward:
+ *
+ * - NEXT_CHANGE: the direction of the next different bid, as in
+ * DataPrep.processRecord; a tick is labeled when a different bid arrives;
+ *
+ * - a time horizon h (in milliseconds): true if the bid at time t + h (the
+ * bid of the last tick at or before t + h) is greater than the bid at t; a
+ * tick is labeled when a tick later than t + h arrives.
+ *
+ * Ticks are kept until labeled for all horizons, so memory is bounded by the
+ * ticks within the longest horizon (and the runs of equal bids). Labeled
+ * ticks are taken in order with poll().
+ *
+ * @author zzuo
+ *
+ */
+public class HorizonLabeler {
+
+	/*
+	 * Horizon of the next different bid
+	 */
+	public static final long NEXT_CHANGE = 0;
+
+	/*
+	 * +1s, +10s, +60s and the next change, which comes last so that records
+	 * still end with the label of DataPrep
+	 */
+	public static final long[] DEFAULT_HORIZONS = { 1000, 10000, 60000,
+			NEXT_CHANGE };
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final long[] horizons;
+
+	/*
+	 * Ring buffer of ticks not labeled for all horizons yet, ticks are
+	 * numbered from 0 in order of arrival and tick n is at n & mask
+	 */
+	private long[] times = new long[INITIAL_CAPACITY];
+
+	private double[] bids = new double[INITIAL_CAPACITY];
+
+	/*
+	 * Label bits of each tick, bit h for horizon h
+	 */
+	private long[] labels = new long[INITIAL_CAPACITY];
+
+	private int mask = INITIAL_CAPACITY - 1;
+
+	/*
+	 * Number of the oldest tick kept, and of the next tick
+	 */
+	private long head;
+
+	private long tail;
+
+	/*
+	 * Oldest tick not labeled yet, for each horizon
+	 */
+	private final long[] next;
+
+	/**
+	 * @param horizons
+	 *            horizons, NEXT_CHANGE or a time in milliseconds (at most 64)
+	 */
+	public HorizonLabeler(long... horizons) {
+		if (horizons.length == 0 || horizons.length > 64) {
+			throw new IllegalArgumentException(
+					"Between 1 and 64 horizons expected");
+		}
+		this.horizons = horizons.clone();
+		this.next = new long[horizons.length];
+	}
+
+	/**
+	 * @return number of horizons
+	 */
+	public int getHorizonCount() {
+		return horizons.length;
+	}
+
+	/**
+	 * @return names of label columns: "label" for NEXT_CHANGE (the label of
+	 *         DataPrep), "label_<h>" for others, e.g. "label_10s" or
+	 *         "label_500ms"
+	 */
+	public List<String> getLabelNames() {
+		List<String> names = new ArrayList<>();
+		for (long h : horizons) {
+			if (h == NEXT_CHANGE) {
+				names.add("label");
+			} else if (h % 1000 == 0) {
+				names.add("label_" + h / 1000 + "s");
+			} else {
+				names.add("label_" + h + "ms");
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Add a tick, labeling earlier ticks it resolves
+	 *
+	 * @param time
+	 *            time of the tick, not before the previous tick
+	 * @param bid
+	 * @return number of the tick
+	 */
+	public long add(long time, double bid) {
+		for (int h = 0; h < horizons.length; h++) {
+			long n = next[h];
+
+			if (horizons[h] == NEXT_CHANGE) {
+				// ticks not labeled yet all have the bid of the last tick
+				if (n < tail && bids[(int) (n & mask)] != bid) {
+					long bit = bid > bids[(int) (n & mask)] ? 1L << h : 0;
+					for (; n < tail; n++) {
+						labels[(int) (n & mask)] |= bit;
+					}
+				}
+			} else {
+				// the last tick is the last one at or before t + h
+				double last = tail > 0 ? bids[(int) ((tail - 1) & mask)] : 0;
+				for (; n < tail
+						&& times[(int) (n & mask)] + horizons[h] < time; n++) {
+					if (last > bids[(int) (n & mask)]) {
+						labels[(int) (n & mask)] |= 1L << h;
+					}
+				}
+			}
+
+			next[h] = n;
+		}
+
+		if (tail - head > mask) {
+			grow();
+		}
+
+		int slot = (int) (tail & mask);
+		times[slot] = time;
+		bids[slot] = bid;
+		labels[slot] = 0;
+
+		return tail++;
+	}
+
+	/**
+	 * @return true if the oldest tick kept is labeled for all horizons
+	 */
+	public boolean hasLabeled() {
+		if (head == tail) {
+			return false;
+		}
+		for (long n : next) {
+			if (n <= head) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of the oldest tick kept
+	 */
+	public long peek() {
+		return head;
+	}
+
+	/**
+	 * Remove the oldest tick, which must be labeled (see hasLabeled)
+	 *
+	 * @return label bits of the tick, bit h being the label for horizon h
+	 */
+	public long poll() {
+		return labels[(int) (head++ & mask)];
+	}
+
+	/**
+	 * Double the capacity of the ring buffer
+	 */
+	private void grow() {
+		int capacity = (mask + 1) * 2;
+		long[] newTimes = new long[capacity];
+		double[] newBids = new double[capacity];
+		long[] newLabels = new long[capacity];
+
+		for (long n = head; n < tail; n++) {
+			int from = (int) (n & mask);
+			int to = (int) (n & (capacity - 1));
+			newTimes[to] = times[from];
+			newBids[to] = bids[from];
+			newLabels[to] = labels[from];
+		}
+
+		times = newTimes;
+		bids = newBids;
+		labels = newLabels;
+		mask = capacity - 1;
+	}
+}
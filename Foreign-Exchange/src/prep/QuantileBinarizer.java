@@ -0,0 +1,406 @@
+package prep;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Binarization of continuous features with quantile cut points. Each
+ * continuous feature (input) is encoded into a number of bits, bit j being
+ * true if the value is above the (j + 1) / (bits + 1) quantile of the
+ * feature, so that b bits split the values into b + 1 buckets of about the
+ * same size and each bit is a split a decision tree can use. With one bit,
+ * the cut point is the median.
+ *
+ * Cut points are computed from QuantileSketch of each input, in bounded
+ * memory and mergeable across partitions of the data. They are persisted
+ * with the model (see RandomForest.setBinarizer and SerializeUtil), so that
+ * online scoring uses the cut points the model was trained with.
+ *
+ * @author zzuo
+ *
+ */
+public class QuantileBinarizer implements Serializable {
+
+	private static final long serialVersionUID = -2318804361728345721L;
+
+	/*
+	 * Names of the continuous features
+	 */
+	private final List<String> inputs;
+
+	/*
+	 * Names of the binary features, e.g. avg_bid_q1, avg_bid_q2
+	 */
+	private final List<String> features;
+
+	/*
+	 * Input of each binary feature, and its cut point
+	 */
+	private final int[] sources;
+
+	private final double[] cuts;
+
+	/**
+	 * @param inputs
+	 *            names of the continuous features
+	 * @param features
+	 *            names of the binary features
+	 * @param sources
+	 *            index in inputs of the input of each binary feature
+	 * @param cuts
+	 *            cut point of each binary feature
+	 */
+	public QuantileBinarizer(List<String> inputs, List<String> features,
+			int[] sources, double[] cuts) {
+		if (features.size() != sources.length
+				|| features.size() != cuts.length) {
+			throw new IllegalArgumentException(
+					"One source and cut point per feature expected");
+		}
+		this.inputs = new ArrayList<>(inputs);
+		this.features = new ArrayList<>(features);
+		this.sources = sources.clone();
+		this.cuts = cuts.clone();
+	}
+
+	/**
+	 * Compute cut points from sketches of the inputs
+	 *
+	 * @param inputs
+	 *            names of the continuous features
+	 * @param sketches
+	 *            sketch of each input
+	 * @param bits
+	 *            number of bits of each input
+	 * @return binarizer
+	 */
+	public static QuantileBinarizer fromSketches(List<String> inputs,
+			QuantileSketch[] sketches, int bits) {
+		List<String> features = new ArrayList<>();
+		int[] sources = new int[inputs.size() * bits];
+		double[] cuts = new double[inputs.size() * bits];
+
+		int f = 0;
+		for (int i = 0; i < inputs.size(); i++) {
+			for (int j = 1; j <= bits; j++) {
+				features.add(bits == 1 ? inputs.get(i)
+						: inputs.get(i) + "_q" + j);
+				sources[f] = i;
+				cuts[f] = sketches[i].quantile(j / (double) (bits + 1));
+				f++;
+			}
+		}
+
+		return new QuantileBinarizer(inputs, features, sources, cuts);
+	}
+
+	/**
+	 * @return names of the continuous features
+	 */
+	public List<String> getInputs() {
+		return inputs;
+	}
+
+	/**
+	 * @return names of the binary features
+	 */
+	public List<String> getFeatures() {
+		return features;
+	}
+
+	/**
+	 * @return index of the input of a binary feature
+	 */
+	public int getSource(int feature) {
+		return sources[feature];
+	}
+
+	/**
+	 * @return cut point of a binary feature
+	 */
+	public double getCut(int feature) {
+		return cuts[feature];
+	}
+
+	/**
+	 * Binarize continuous features
+	 *
+	 * @param values
+	 *            values of the inputs
+	 * @param binaries
+	 *            array receiving the binary features, at least as long as the
+	 *            number of binary features
+	 */
+	public void binarize(double[] values, boolean[] binaries) {
+		for (int f = 0; f < cuts.length; f++) {
+			binaries[f] = values[sources[f]] > cuts[f];
+		}
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof QuantileBinarizer)) {
+			return false;
+		}
+		QuantileBinarizer b = (QuantileBinarizer) o;
+		return inputs.equals(b.inputs) && features.equals(b.features)
+				&& Arrays.equals(sources, b.sources)
+				&& Arrays.equals(cuts, b.cuts);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = inputs.hashCode();
+		h = 31 * h + features.hashCode();
+		h = 31 * h + Arrays.hashCode(sources);
+		return 31 * h + Arrays.hashCode(cuts);
+	}
+
+	/**
+	 * Write the binarizer:
+	 *
+	 * <pre>
+	 * int feature count, then for each feature: int length, UTF-8 bytes
+	 * int input count, then for each input: int length, UTF-8 bytes
+	 * for each feature: int input index, double cut point
+	 * </pre>
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		writeNames(out, features);
+		writeNames(out, inputs);
+		for (int f = 0; f < cuts.length; f++) {
+			out.writeInt(sources[f]);
+			out.writeDouble(cuts[f]);
+		}
+	}
+
+	/**
+	 * Read a binarizer written by write
+	 *
+	 * @param buffer
+	 *            buffer positioned at the binarizer, left positioned after it
+	 * @return binarizer
+	 */
+	public static QuantileBinarizer read(ByteBuffer buffer) {
+		List<String> features = readNames(buffer);
+		List<String> inputs = readNames(buffer);
+
+		int[] sources = new int[features.size()];
+		double[] cuts = new double[features.size()];
+		for (int f = 0; f < cuts.length; f++) {
+			sources[f] = buffer.getInt();
+			cuts[f] = buffer.getDouble();
+		}
+
+		return new QuantileBinarizer(inputs, features, sources, cuts);
+	}
+
+	/**
+	 * Read a binarizer from a file written by write
+	 *
+	 * @param fileName
+	 * @return binarizer
+	 * @throws IOException
+	 */
+	public static QuantileBinarizer read(String fileName) throws IOException {
+		return read(ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName))));
+	}
+
+	private static void writeNames(DataOutput out, List<String> names)
+			throws IOException {
+		out.writeInt(names.size());
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static List<String> readNames(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		List<String> names = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			names.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return names;
+	}
+
+	/**
+	 * Sketch the feature columns of a continuous csv file (as written by
+	 * DataPrep or CrossPairFeatureEngine: a header line, features, then label
+	 * columns named label...)
+	 *
+	 * @param fileName
+	 * @return sketch of each feature column
+	 * @throws IOException
+	 */
+	public static QuantileSketch[] sketchCsv(String fileName)
+			throws IOException {
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(fileName))) {
+			int n = featureCount(reader.readLine().split(","));
+
+			QuantileSketch[] sketches = new QuantileSketch[n];
+			for (int i = 0; i < n; i++) {
+				sketches[i] = new QuantileSketch();
+			}
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] strs = line.split(",");
+				for (int i = 0; i < n; i++) {
+					sketches[i].add(Double.parseDouble(strs[i]));
+				}
+			}
+
+			return sketches;
+		}
+	}
+
+	/**
+	 * @return number of feature columns, before the label columns
+	 */
+	private static int featureCount(String[] header) {
+		int n = 0;
+		while (n < header.length && !header[n].startsWith("label")) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Usage: QuantileBinarizer bits output.csv thresholds.bin input_cont.csv...
+	 *
+	 * Inputs are continuous csv files with the same columns (e.g. partitions
+	 * of prepared data). Each input is sketched by its own thread, sketches
+	 * are merged, and the cut points are written to thresholds.bin (see
+	 * write; forest.Driver persists them with the model given
+	 * -Dforex.binarizer=thresholds.bin). All inputs are then binarized into
+	 * output.csv, with the label columns unchanged.
+	 */
+	public static void main(String[] args) throws Exception {
+		long startTime = System.currentTimeMillis();
+
+		int bits = Integer.parseInt(args[0]);
+		final List<String> files = Arrays.asList(args).subList(3,
+				args.length);
+
+		// sketch partitions in parallel, then merge them
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(files.size(),
+						Runtime.getRuntime().availableProcessors()));
+		QuantileSketch[] sketches = null;
+		try {
+			List<Future<QuantileSketch[]>> futures = new ArrayList<>();
+			for (final String file : files) {
+				futures.add(executor.submit(new Callable<QuantileSketch[]>() {
+					@Override
+					public QuantileSketch[] call() throws IOException {
+						return sketchCsv(file);
+					}
+				}));
+			}
+
+			for (Future<QuantileSketch[]> f : futures) {
+				QuantileSketch[] s = f.get();
+				if (sketches == null) {
+					sketches = s;
+				} else {
+					for (int i = 0; i < s.length; i++) {
+						sketches[i].merge(s[i]);
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		String[] header;
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(files.get(0)))) {
+			header = reader.readLine().split(",");
+		}
+		int n = featureCount(header);
+
+		QuantileBinarizer binarizer = fromSketches(
+				Arrays.asList(header).subList(0, n), sketches, bits);
+
+		try (DataOutputStream out = new DataOutputStream(
+				new FileOutputStream(args[2]))) {
+			binarizer.write(out);
+		}
+
+		// binarize
+		long rows = 0;
+		try (BufferedWriter writer = new BufferedWriter(
+				new FileWriter(args[1]))) {
+			StringBuilder sb = new StringBuilder();
+			for (String name : binarizer.getFeatures()) {
+				sb.append(name).append(',');
+			}
+			for (int i = n; i < header.length; i++) {
+				sb.append(header[i]).append(',');
+			}
+			sb.setCharAt(sb.length() - 1, '\n');
+			writer.write(sb.toString());
+
+			double[] values = new double[n];
+			boolean[] binaries = new boolean[binarizer.getFeatures().size()];
+
+			for (String file : files) {
+				try (BufferedReader reader = new BufferedReader(
+						new FileReader(file))) {
+					reader.readLine();
+
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String[] strs = line.split(",");
+						for (int i = 0; i < n; i++) {
+							values[i] = Double.parseDouble(strs[i]);
+						}
+						binarizer.binarize(values, binaries);
+
+						sb.setLength(0);
+						for (boolean b : binaries) {
+							sb.append(b).append(',');
+						}
+						for (int i = n; i < strs.length; i++) {
+							sb.append("1".equals(strs[i])
+									|| "true".equals(strs[i])).append(',');
+						}
+						sb.setCharAt(sb.length() - 1, '\n');
+						writer.write(sb.toString());
+						rows++;
+					}
+				}
+			}
+		}
+
+		System.out.println(rows + " rows binarized with "
+				+ binarizer.getFeatures().size() + " bits in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+}
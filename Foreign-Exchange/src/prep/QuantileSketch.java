@@ -0,0 +1,293 @@
+package prep;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Streaming quantile sketch (KLL sketch) of the values of a feature. Values
+ * are kept in levels of compactors, an item of level h standing for 2^h
+ * values. When the sketch is full, the lowest level over its capacity is
+ * sorted and every other item (from a random offset) is promoted to the next
+ * level, the others being dropped. Capacities decrease by 2/3 from the top
+ * level down, so memory is bounded by about 3k items whatever the number of
+ * values, with a rank error of about 2 / k.
+ *
+ * Sketches of parallel partitions (e.g. map tasks of DataPrepMR) are merged
+ * into a sketch of all values, and can be written to and read from binary
+ * streams.
+ *
+ * @author zzuo
+ *
+ */
+public class QuantileSketch {
+
+	/*
+	 * Default capacity of the top level, about 1% rank error
+	 */
+	public static final int DEFAULT_K = 200;
+
+	private static final double DECAY = 2.0 / 3.0;
+
+	/*
+	 * Seed of the compaction offsets, so thresholds are reproducible
+	 */
+	private static final long SEED = 42;
+
+	private final int k;
+
+	/*
+	 * Items of each level, sizes[h] first items of levels[h] being used
+	 */
+	private double[][] levels;
+
+	private int[] sizes;
+
+	private long count;
+
+	private double min = Double.POSITIVE_INFINITY;
+
+	private double max = Double.NEGATIVE_INFINITY;
+
+	private final Random random = new Random(SEED);
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * @param k
+	 *            capacity of the top level, the rank error is about 2 / k
+	 */
+	public QuantileSketch(int k) {
+		if (k < 8) {
+			throw new IllegalArgumentException("k must be at least 8");
+		}
+		this.k = k;
+		this.levels = new double[][] { new double[capacity(0, 1)] };
+		this.sizes = new int[1];
+	}
+
+	/**
+	 * Add a value
+	 *
+	 * @param value
+	 */
+	public void add(double value) {
+		count++;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+
+		append(0, value);
+
+		if (sizes[0] >= capacity(0, levels.length)) {
+			compress();
+		}
+	}
+
+	/**
+	 * Merge another sketch into this one, e.g. the sketch of another
+	 * partition of the data
+	 *
+	 * @param other
+	 *            sketch with the same k, left unchanged
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.k != k) {
+			throw new IllegalArgumentException(
+					"Sketches with different k: " + k + ", " + other.k);
+		}
+
+		while (levels.length < other.levels.length) {
+			addLevel();
+		}
+		for (int h = 0; h < other.levels.length; h++) {
+			for (int i = 0; i < other.sizes[h]; i++) {
+				append(h, other.levels[h][i]);
+			}
+		}
+
+		count += other.count;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+
+		compress();
+	}
+
+	/**
+	 * @return number of values added (including merged sketches)
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return number of items kept
+	 */
+	public int getRetained() {
+		int n = 0;
+		for (int size : sizes) {
+			n += size;
+		}
+		return n;
+	}
+
+	/**
+	 * Estimate a quantile
+	 *
+	 * @param q
+	 *            rank, between 0 and 1
+	 * @return value of rank q (min for 0, max for 1), NaN if the sketch is
+	 *         empty
+	 */
+	public double quantile(double q) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (q <= 0) {
+			return min;
+		}
+		if (q >= 1) {
+			return max;
+		}
+
+		// items with their weights, sorted by value
+		int n = getRetained();
+		double[] values = new double[n];
+		long[] weights = new long[n];
+		Integer[] order = new Integer[n];
+
+		int i = 0;
+		for (int h = 0; h < levels.length; h++) {
+			for (int j = 0; j < sizes[h]; j++) {
+				values[i] = levels[h][j];
+				weights[i] = 1L << h;
+				order[i] = i;
+				i++;
+			}
+		}
+
+		final double[] v = values;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(v[a], v[b]);
+			}
+		});
+
+		long total = 0;
+		for (long w : weights) {
+			total += w;
+		}
+
+		double target = q * total;
+		long cumulative = 0;
+		for (int j = 0; j < n; j++) {
+			cumulative += weights[order[j]];
+			if (cumulative >= target) {
+				return values[order[j]];
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Write the sketch
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(k);
+		out.writeLong(count);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeInt(levels.length);
+		for (int h = 0; h < levels.length; h++) {
+			out.writeInt(sizes[h]);
+			for (int i = 0; i < sizes[h]; i++) {
+				out.writeDouble(levels[h][i]);
+			}
+		}
+	}
+
+	/**
+	 * Read a sketch written by write
+	 *
+	 * @param in
+	 * @return sketch
+	 * @throws IOException
+	 */
+	public static QuantileSketch read(DataInput in) throws IOException {
+		QuantileSketch s = new QuantileSketch(in.readInt());
+		s.count = in.readLong();
+		s.min = in.readDouble();
+		s.max = in.readDouble();
+
+		int numLevels = in.readInt();
+		while (s.levels.length < numLevels) {
+			s.addLevel();
+		}
+		for (int h = 0; h < numLevels; h++) {
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				s.append(h, in.readDouble());
+			}
+		}
+
+		return s;
+	}
+
+	/**
+	 * @return capacity of level h of a sketch with numLevels levels
+	 */
+	private int capacity(int h, int numLevels) {
+		return Math.max(2,
+				(int) Math.ceil(k * Math.pow(DECAY, numLevels - h - 1)));
+	}
+
+	private void append(int h, double value) {
+		if (sizes[h] == levels[h].length) {
+			levels[h] = Arrays.copyOf(levels[h], levels[h].length * 2);
+		}
+		levels[h][sizes[h]++] = value;
+	}
+
+	private void addLevel() {
+		int numLevels = levels.length + 1;
+		levels = Arrays.copyOf(levels, numLevels);
+		sizes = Arrays.copyOf(sizes, numLevels);
+		levels[numLevels - 1] = new double[capacity(numLevels - 1,
+				numLevels)];
+	}
+
+	/**
+	 * Compact levels over their capacity, from the bottom up
+	 */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] < capacity(h, levels.length)) {
+				continue;
+			}
+
+			if (h + 1 == levels.length) {
+				addLevel();
+			}
+
+			double[] items = levels[h];
+			int size = sizes[h];
+			Arrays.sort(items, 0, size);
+
+			// with an odd number of items, the smallest one stays
+			int start = size % 2;
+			int offset = random.nextBoolean() ? 1 : 0;
+			for (int i = start + offset; i < size; i += 2) {
+				append(h + 1, items[i]);
+			}
+			sizes[h] = start;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package prep;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import com.datastax.driver.core.Cluster;
+
+import util.GlobalParams;
+
+/**
+ * Generator of synthetic FX ticks for offline scale and load testing. Each
+ * currency pair has:
+ *
+ * - a random walk mid price, in points (e.g. 0.00001 for EUR/USD), with
+ * steps of zero most of the time, as real bids often repeat;
+ *
+ * - a variable spread, mean-reverting around the base spread of the pair;
+ *
+ * - bursty arrivals: a Poisson process whose rate switches between a calm and
+ * a burst state (Markov-modulated), with larger moves and wider spreads during
+ * bursts.
+ *
+ * Ticks of all pairs are merged in time order. Generation is streaming (memory
+ * does not depend on the number of ticks) and reproducible from the seed.
+ *
+ * @author zzuo
+ *
+ */
+public class TickGenerator {
+
+	/*
+	 * Tick rates (per second) of the calm and burst states
+	 */
+	private static final double CALM_RATE = 2.0;
+
+	private static final double BURST_RATE = 40.0;
+
+	/*
+	 * Probabilities, at each tick, of a burst starting or ending (a burst
+	 * lasts 50 ticks on average)
+	 */
+	private static final double BURST_START = 0.002;
+
+	private static final double BURST_END = 0.02;
+
+	/*
+	 * Standard deviations of a mid price step (in points) in the calm and
+	 * burst states
+	 */
+	private static final double CALM_STEP = 0.6;
+
+	private static final double BURST_STEP = 2.0;
+
+	/*
+	 * Extra spread (in points) during bursts, and speed at which the spread
+	 * reverts to its target
+	 */
+	private static final double BURST_SPREAD = 10.0;
+
+	private static final double SPREAD_REVERSION = 0.1;
+
+	/*
+	 * Start time of generated ticks (2015-01-05 00:00:00 UTC)
+	 */
+	private static final long DEFAULT_START_MILLIS = 1420416000000L;
+
+	private final long seed;
+
+	private final String[] pairs;
+
+	private long startMillis = DEFAULT_START_MILLIS;
+
+	public TickGenerator(long seed, String... pairs) {
+		this.seed = seed;
+		this.pairs = pairs;
+	}
+
+	public void setStartMillis(long startMillis) {
+		this.startMillis = startMillis;
+	}
+
+	/**
+	 * Generate ticks of all pairs, in time order
+	 *
+	 * @param ticks
+	 *            number of ticks to generate
+	 * @param sink
+	 *            destination of the ticks
+	 * @throws IOException
+	 */
+	public void generate(long ticks, TickSink sink) throws IOException {
+		// pairs ordered by the time of their next tick
+		PriorityQueue<PairWalk> queue = new PriorityQueue<>();
+		for (int i = 0; i < pairs.length; i++) {
+			PairWalk w = new PairWalk(pairs[i], i, seed);
+			w.advance();
+			queue.add(w);
+		}
+
+		for (long n = 0; n < ticks; n++) {
+			PairWalk w = queue.poll();
+			sink.write(w.pair, w.nextMillis, w.bid, w.bid + w.spread,
+					w.decimals);
+			w.advance();
+			queue.add(w);
+		}
+	}
+
+	/**
+	 * State of the random walk of a pair
+	 */
+	private final class PairWalk implements Comparable<PairWalk> {
+		final String pair;
+
+		final int index;
+
+		final Random random;
+
+		final int decimals;
+
+		final double baseSpread;
+
+		long mid;
+
+		double spreadLevel;
+
+		boolean burst;
+
+		/*
+		 * Exact time of the next tick, and its millisecond
+		 */
+		double nextTime;
+
+		long nextMillis;
+
+		/*
+		 * Bid and spread of the next tick, in points
+		 */
+		long bid;
+
+		long spread;
+
+		PairWalk(String pair, int index, long seed) {
+			this.pair = pair;
+			this.index = index;
+			this.random = new Random(seed * 0x9E3779B97F4A7C15L + index);
+
+			// initial mid price, decimals and base spread of known pairs
+			double price;
+			if (pair.endsWith("JPY")) {
+				price = 120.0;
+				decimals = 3;
+			} else {
+				decimals = 5;
+				price = pair.startsWith("GBP") ? 1.55
+						: pair.startsWith("AUD") ? 0.75
+								: pair.startsWith("USD") ? 0.98 : 1.2;
+			}
+			this.baseSpread = pair.startsWith("EUR/USD") ? 3 : 5;
+			this.mid = Math.round(price * Math.pow(10, decimals));
+			this.spreadLevel = baseSpread;
+			this.nextTime = startMillis;
+		}
+
+		/**
+		 * Draw the next tick
+		 */
+		void advance() {
+			if (burst ? random.nextDouble() < BURST_END
+					: random.nextDouble() < BURST_START) {
+				burst = !burst;
+			}
+
+			double rate = burst ? BURST_RATE : CALM_RATE;
+			nextTime += -Math.log(1 - random.nextDouble()) * 1000 / rate;
+			nextMillis = (long) nextTime;
+
+			mid += Math.round(random.nextGaussian()
+					* (burst ? BURST_STEP : CALM_STEP));
+
+			double target = baseSpread + (burst ? BURST_SPREAD : 0);
+			spreadLevel += (target - spreadLevel) * SPREAD_REVERSION
+					+ random.nextGaussian() * 0.5;
+			spread = Math.max(1, Math.round(spreadLevel));
+
+			mid = Math.max(mid, spread + 1);
+			bid = mid - spread / 2;
+		}
+
+		@Override
+		public int compareTo(PairWalk o) {
+			if (nextMillis != o.nextMillis) {
+				return nextMillis < o.nextMillis ? -1 : 1;
+			}
+			return Integer.compare(index, o.index);
+		}
+	}
+
+	/**
+	 * Usage: TickGenerator output ticks [seed] [pairs]
+	 *
+	 * output is a csv file name, or "cassandra" to write into the tick store
+	 * at GlobalParams.CASSANDRA_ADDR; pairs are comma separated (default
+	 * EUR/USD,GBP/USD,USD/JPY,AUD/USD)
+	 */
+	public static void main(String[] args) throws IOException {
+		long ticks = Long.parseLong(args[1]);
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		String[] pairs = (args.length > 3 ? args[3]
+				: "EUR/USD,GBP/USD,USD/JPY,AUD/USD").split(",");
+
+		long startTime = System.currentTimeMillis();
+
+		TickGenerator generator = new TickGenerator(seed, pairs);
+
+		if (args[0].equals("cassandra")) {
+			try (Cluster cluster = Cluster.builder()
+					.addContactPoint(GlobalParams.CASSANDRA_ADDR).build();
+					TickSink sink = new CassandraTickSink(cluster)) {
+				generator.generate(ticks, sink);
+			}
+		} else {
+			try (TickSink sink = new CsvTickSink(args[0])) {
+				generator.generate(ticks, sink);
+			}
+		}
+
+		long elapsed = System.currentTimeMillis() - startTime;
+
+		System.out.println(ticks + " ticks generated in " + elapsed + " ms");
+	}
+}
@@ -0,0 +1,123 @@
+package prep;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Streaming reader of a raw tick csv file ("pair,yyyyMMdd HH:mm:ss.SSS,bid,ask"
+ * lines, as read by DataPrep.readRecords and written by CsvTickSink). Ticks
+ * are read one at a time into the fields of the reader, so files of any size
+ * can be read without holding them in memory. Times are read as UTC.
+ *
+ * @author zzuo
+ *
+ */
+public class TickReader implements Closeable {
+
+	private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormat
+			.forPattern("yyyyMMdd").withZone(DateTimeZone.UTC);
+
+	private final BufferedReader reader;
+
+	/*
+	 * Date of the last tick, and its start time
+	 */
+	private String day;
+
+	private long dayMillis;
+
+	/*
+	 * Current tick
+	 */
+	private String pair;
+
+	private long time;
+
+	private double bid;
+
+	private double ask;
+
+	public TickReader(String fileName) throws IOException {
+		this.reader = new BufferedReader(new FileReader(fileName), 1 << 16);
+	}
+
+	/**
+	 * Read the next tick
+	 *
+	 * @return false at the end of the file
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		String line;
+		do {
+			line = reader.readLine();
+			if (line == null) {
+				return false;
+			}
+		} while (line.isEmpty());
+
+		int c1 = line.indexOf(',');
+		int c2 = line.indexOf(',', c1 + 1);
+		int c3 = line.indexOf(',', c2 + 1);
+
+		// pairs repeat, avoid keeping a copy per tick
+		if (pair == null || !line.regionMatches(0, pair, 0, c1)
+				|| pair.length() != c1) {
+			pair = line.substring(0, c1);
+		}
+
+		// the date is only parsed when it changes
+		int t = c1 + 1;
+		if (day == null || !line.regionMatches(t, day, 0, 8)) {
+			day = line.substring(t, t + 8);
+			dayMillis = DAY_FORMATTER.parseMillis(day);
+		}
+
+		time = dayMillis + digits(line, t + 9, 2) * 3600000L
+				+ digits(line, t + 12, 2) * 60000L
+				+ digits(line, t + 15, 2) * 1000L + digits(line, t + 18, 3);
+
+		bid = Double.parseDouble(line.substring(c2 + 1, c3));
+		ask = Double.parseDouble(line.substring(c3 + 1));
+
+		return true;
+	}
+
+	private static int digits(String s, int start, int n) {
+		int v = 0;
+		for (int i = start; i < start + n; i++) {
+			v = v * 10 + (s.charAt(i) - '0');
+		}
+		return v;
+	}
+
+	public String getPair() {
+		return pair;
+	}
+
+	/**
+	 * @return time of the tick, in milliseconds since the epoch
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public double getBid() {
+		return bid;
+	}
+
+	public double getAsk() {
+		return ask;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,32 @@
+package prep;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of generated ticks (see TickGenerator)
+ *
+ * @author zzuo
+ *
+ */
+public interface TickSink extends Closeable {
+
+	/**
+	 * Write a tick. Prices are given in points (units of 10^-decimals), so
+	 * they are exact.
+	 *
+	 * @param pair
+	 *            currency pair, e.g. "EUR/USD"
+	 * @param timeMillis
+	 *            time of the tick, in milliseconds since the epoch (UTC)
+	 * @param bid
+	 *            bid, in points
+	 * @param ask
+	 *            ask, in points
+	 * @param decimals
+	 *            number of decimals of prices of the pair
+	 * @throws IOException
+	 */
+	void write(String pair, long timeMillis, long bid, long ask, int decimals)
+			throws IOException;
+}
@@ -0,0 +1,361 @@
+package prep;
+
+/**
+ * Sliding time windows over the ticks of one pair, updated incrementally.
+ * Several window sizes (e.g. 10s, 1m, 5m, 15m, 1h) share one ring buffer of
+ * ticks, which holds the ticks of the longest window; each window has its
+ * own head pointer into the buffer, running sum of bids, and monotonic
+ * queues for min and max bids. Each tick is added once and evicted once from
+ * each window, so adding a tick costs amortized O(number of windows) instead
+ * of a scan of each window. The buffer only grows to the largest number of
+ * ticks seen in the longest window.
+ *
+ * A tick is in a window of the last tick if it is less than the window size
+ * older, as in DataPrep.processRecord.
+ *
+ * @author zzuo
+ *
+ */
+public class TickWindow {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final long[] windowMillis;
+
+	/*
+	 * Index of the longest window, whose head is the oldest tick kept
+	 */
+	private final int longest;
+
+	/*
+	 * Ring buffer of ticks in the longest window, ticks are numbered from 0
+	 * in order of arrival and tick n is at n & mask
+	 */
+	private long[] times = new long[INITIAL_CAPACITY];
+
+	private double[] bids = new double[INITIAL_CAPACITY];
+
+	private int mask = INITIAL_CAPACITY - 1;
+
+	/*
+	 * Number of the next tick
+	 */
+	private long tail;
+
+	/*
+	 * Number of the oldest tick in each window
+	 */
+	private final long[] heads;
+
+	private final double[] sums;
+
+	/*
+	 * Numbers of ticks with increasing bids (min queues) and decreasing bids
+	 * (max queues) of each window, the front being the min or max of the
+	 * window
+	 */
+	private final LongQueue[] minQueues;
+
+	private final LongQueue[] maxQueues;
+
+	/*
+	 * Bid of the last tick evicted from each window
+	 */
+	private final double[] evictedBids;
+
+	private final boolean[] evicted;
+
+	/*
+	 * Bid of the first tick, previous tick, and last tick
+	 */
+	private double firstBid;
+
+	private double prevBid;
+
+	private double lastBid;
+
+	private double ask;
+
+	/**
+	 * @param windowMillis
+	 *            window sizes, in milliseconds
+	 */
+	public TickWindow(long... windowMillis) {
+		if (windowMillis.length == 0) {
+			throw new IllegalArgumentException("No window size");
+		}
+		this.windowMillis = windowMillis.clone();
+
+		int n = windowMillis.length;
+		int l = 0;
+		for (int w = 1; w < n; w++) {
+			if (windowMillis[w] > windowMillis[l]) {
+				l = w;
+			}
+		}
+		this.longest = l;
+
+		this.heads = new long[n];
+		this.sums = new double[n];
+		this.minQueues = new LongQueue[n];
+		this.maxQueues = new LongQueue[n];
+		this.evictedBids = new double[n];
+		this.evicted = new boolean[n];
+		for (int w = 0; w < n; w++) {
+			minQueues[w] = new LongQueue();
+			maxQueues[w] = new LongQueue();
+		}
+	}
+
+	/**
+	 * Add a tick, and evict ticks which are out of the windows of this tick
+	 *
+	 * @param time
+	 *            time of the tick, not before the previous tick
+	 * @param bid
+	 * @param ask
+	 */
+	public void add(long time, double bid, double ask) {
+		if (tail == 0) {
+			firstBid = bid;
+			prevBid = bid;
+		} else {
+			prevBid = lastBid;
+		}
+		this.lastBid = bid;
+		this.ask = ask;
+
+		if (tail - heads[longest] > mask) {
+			grow();
+		}
+
+		int slot = (int) (tail & mask);
+		times[slot] = time;
+		bids[slot] = bid;
+
+		for (int w = 0; w < windowMillis.length; w++) {
+			sums[w] += bid;
+
+			LongQueue minQueue = minQueues[w];
+			while (!minQueue.isEmpty()
+					&& bids[(int) (minQueue.last() & mask)] >= bid) {
+				minQueue.removeLast();
+			}
+			minQueue.add(tail);
+
+			LongQueue maxQueue = maxQueues[w];
+			while (!maxQueue.isEmpty()
+					&& bids[(int) (maxQueue.last() & mask)] <= bid) {
+				maxQueue.removeLast();
+			}
+			maxQueue.add(tail);
+		}
+
+		tail++;
+
+		advance(time);
+	}
+
+	/**
+	 * Evict ticks which are out of the windows ending at a given time, e.g.
+	 * to get the state of these windows at the time of a tick of another pair
+	 *
+	 * @param time
+	 *            end of the windows, not before the last tick
+	 */
+	public void advance(long time) {
+		for (int w = 0; w < windowMillis.length; w++) {
+			long start = time - windowMillis[w];
+			long head = heads[w];
+
+			while (head < tail && times[(int) (head & mask)] <= start) {
+				double b = bids[(int) (head & mask)];
+				evictedBids[w] = b;
+				evicted[w] = true;
+				sums[w] -= b;
+
+				if (minQueues[w].first() == head) {
+					minQueues[w].removeFirst();
+				}
+				if (maxQueues[w].first() == head) {
+					maxQueues[w].removeFirst();
+				}
+				head++;
+			}
+
+			heads[w] = head;
+		}
+	}
+
+	/**
+	 * Double the capacity of the ring buffer
+	 */
+	private void grow() {
+		int capacity = (mask + 1) * 2;
+		long[] newTimes = new long[capacity];
+		double[] newBids = new double[capacity];
+
+		for (long n = heads[longest]; n < tail; n++) {
+			newTimes[(int) (n & (capacity - 1))] = times[(int) (n & mask)];
+			newBids[(int) (n & (capacity - 1))] = bids[(int) (n & mask)];
+		}
+
+		times = newTimes;
+		bids = newBids;
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return number of windows
+	 */
+	public int getWindowCount() {
+		return windowMillis.length;
+	}
+
+	/**
+	 * @return size of a window, in milliseconds
+	 */
+	public long getWindowMillis(int window) {
+		return windowMillis[window];
+	}
+
+	/**
+	 * @return number of ticks added
+	 */
+	public long getTicks() {
+		return tail;
+	}
+
+	/**
+	 * @return number of ticks in a window
+	 */
+	public int getCount(int window) {
+		return (int) (tail - heads[window]);
+	}
+
+	public double getSum(int window) {
+		return sums[window];
+	}
+
+	public double getMin(int window) {
+		return bids[(int) (minQueues[window].first() & mask)];
+	}
+
+	public double getMax(int window) {
+		return bids[(int) (maxQueues[window].first() & mask)];
+	}
+
+	public double getLastBid() {
+		return lastBid;
+	}
+
+	public double getLastAsk() {
+		return ask;
+	}
+
+	/**
+	 * @return bid of the tick before the last one (or of the last one if it
+	 *         is the first)
+	 */
+	public double getPrevBid() {
+		return prevBid;
+	}
+
+	/**
+	 * @return bid of the last tick out of a window, or of the first tick if
+	 *         none is out of the window yet
+	 */
+	public double getBidBeforeWindow(int window) {
+		return evicted[window] ? evictedBids[window] : firstBid;
+	}
+
+	/**
+	 * Parse a window size, e.g. "500ms", "10s", "5m" or "1h"
+	 *
+	 * @return window size, in milliseconds
+	 */
+	public static long parseMillis(String s) {
+		s = s.trim();
+		long unit;
+		int end;
+		if (s.endsWith("ms")) {
+			unit = 1;
+			end = s.length() - 2;
+		} else if (s.endsWith("s")) {
+			unit = 1000;
+			end = s.length() - 1;
+		} else if (s.endsWith("m")) {
+			unit = 60 * 1000;
+			end = s.length() - 1;
+		} else if (s.endsWith("h")) {
+			unit = 60 * 60 * 1000;
+			end = s.length() - 1;
+		} else {
+			unit = 1;
+			end = s.length();
+		}
+		return Long.parseLong(s.substring(0, end)) * unit;
+	}
+
+	/**
+	 * Format a window size in the largest whole unit, e.g. "10s", "5m", "1h"
+	 *
+	 * @param millis
+	 *            window size, in milliseconds
+	 */
+	public static String formatMillis(long millis) {
+		if (millis % (60 * 60 * 1000) == 0) {
+			return millis / (60 * 60 * 1000) + "h";
+		} else if (millis % (60 * 1000) == 0) {
+			return millis / (60 * 1000) + "m";
+		} else if (millis % 1000 == 0) {
+			return millis / 1000 + "s";
+		}
+		return millis + "ms";
+	}
+
+	/**
+	 * Queue of longs in a growable ring buffer
+	 */
+	private static final class LongQueue {
+		private long[] values = new long[INITIAL_CAPACITY];
+
+		private int first;
+
+		private int size;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		long first() {
+			return values[first];
+		}
+
+		long last() {
+			return values[(first + size - 1) & (values.length - 1)];
+		}
+
+		void add(long v) {
+			if (size == values.length) {
+				long[] newValues = new long[values.length * 2];
+				for (int i = 0; i < size; i++) {
+					newValues[i] = values[(first + i) & (values.length - 1)];
+				}
+				values = newValues;
+				first = 0;
+			}
+			values[(first + size) & (values.length - 1)] = v;
+			size++;
+		}
+
+		void removeFirst() {
+			first = (first + 1) & (values.length - 1);
+			size--;
+		}
+
+		void removeLast() {
+			size--;
+		}
+	}
+}
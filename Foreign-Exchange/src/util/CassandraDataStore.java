@@ -0,0 +1,134 @@
+package util;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Data store backed by Cassandra (keyspace test): records in the train_data
+ * and test_data tables, performance statistics in the validation_perf and
+ * test_perf tables.
+ *
+ * @author zzuo
+ *
+ */
+public class CassandraDataStore implements DataStore {
+
+	/*
+	 * Columns of the train_data and test_data tables, after the id
+	 */
+	private static final String[] COLUMNS = { "avg_bid", "range_bid",
+			"diff_bid", "delta_bid", "spread", "label" };
+
+	/*
+	 * Maximum number of inserts in flight when writing records
+	 */
+	private static final int MAX_IN_FLIGHT = 256;
+
+	private final Cluster cluster;
+
+	/**
+	 * Connect to a Cassandra cluster
+	 *
+	 * @param address
+	 *            contact point, e.g. GlobalParams.CASSANDRA_ADDR
+	 */
+	public CassandraDataStore(String address) {
+		this.cluster = Cluster.builder().addContactPoint(address).build();
+	}
+
+	@Override
+	public RecordSource records(boolean isTrain) {
+		return new CassandraRecordSource(cluster, isTrain);
+	}
+
+	/**
+	 * (Re)create the table and insert records asynchronously, with ids
+	 * starting at 1
+	 */
+	@Override
+	public long writeRecords(boolean isTrain, RecordSource source)
+			throws IOException {
+		String tableName = isTrain ? "train_data" : "test_data";
+
+		StringBuilder create = new StringBuilder("CREATE TABLE " + tableName
+				+ " (id bigint PRIMARY KEY");
+		StringBuilder insert = new StringBuilder("INSERT INTO " + tableName
+				+ " (id");
+		StringBuilder values = new StringBuilder("?");
+		for (String c : COLUMNS) {
+			create.append(", ").append(c).append(" boolean");
+			insert.append(", ").append(c);
+			values.append(", ?");
+		}
+		create.append(")");
+		insert.append(") VALUES (").append(values).append(")");
+
+		final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+		final Throwable[] failure = new Throwable[1];
+
+		long id = 0;
+
+		try (Session session = cluster.connect("test");
+				RecordStream stream = source.open()) {
+			session.execute("DROP TABLE IF EXISTS " + tableName);
+			session.execute(create.toString());
+
+			PreparedStatement ps = session.prepare(insert.toString());
+
+			Object[] row = new Object[COLUMNS.length + 1];
+
+			boolean[] record;
+			while ((record = stream.next()) != null) {
+				row[0] = ++id;
+				for (int i = 0; i < COLUMNS.length; i++) {
+					row[i + 1] = record[i];
+				}
+
+				inFlight.acquireUninterruptibly();
+
+				ResultSetFuture future = session.executeAsync(ps.bind(row));
+
+				Futures.addCallback(future, new FutureCallback<ResultSet>() {
+					@Override
+					public void onSuccess(ResultSet result) {
+						inFlight.release();
+					}
+
+					@Override
+					public void onFailure(Throwable t) {
+						failure[0] = t;
+						inFlight.release();
+					}
+				});
+			}
+
+			// wait for all inserts in flight
+			inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+		}
+
+		if (failure[0] != null) {
+			throw new IOException("Insert into " + tableName + " failed",
+					failure[0]);
+		}
+
+		return id;
+	}
+
+	@Override
+	public PerformanceSink performanceSink() {
+		return new CassandraPerformanceSink(cluster);
+	}
+
+	@Override
+	public void close() {
+		cluster.close();
+	}
+}
@@ -0,0 +1,214 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+
+/**
+ * Performance sink writing into the validation_perf and test_perf tables in
+ * Cassandra. It keeps one Cassandra session with prepared statements, buffers
+ * rows in a bounded queue, and writes them asynchronously on a background
+ * thread, so the caller (e.g. the training loop) never waits on the database.
+ *
+ * @author zzuo
+ *
+ */
+public class CassandraPerformanceSink implements PerformanceSink {
+
+	/*
+	 * Maximum number of rows waiting to be written
+	 */
+	private static final int QUEUE_CAPACITY = 1024;
+
+	/*
+	 * Maximum number of rows written in one flush
+	 */
+	private static final int MAX_BATCH_SIZE = 64;
+
+	/*
+	 * Marker row telling the flusher thread to stop
+	 */
+	private static final PerformanceRow POISON = new PerformanceRow(false, 0,
+			0);
+
+	private final Session session;
+
+	/*
+	 * Prepared insert statements for validation (index 0) and test (index 1)
+	 */
+	private final PreparedStatement[] inserts = new PreparedStatement[2];
+
+	private final BlockingQueue<PerformanceRow> queue = new ArrayBlockingQueue<>(
+			QUEUE_CAPACITY);
+
+	private final Thread flusher;
+
+	/*
+	 * Number of rows dropped because the queue was full
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/*
+	 * Guards closed, so no row is queued after the marker row
+	 */
+	private final Object lock = new Object();
+
+	private boolean closed;
+
+	public CassandraPerformanceSink(Cluster cluster) {
+		this.session = cluster.connect("test");
+
+		this.flusher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		}, "performance-sink");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/**
+	 * (Re)create the table and prepare the insert statement for it. This is
+	 * done synchronously since it happens once per run.
+	 */
+	@Override
+	public void createTable(boolean isTrain) {
+		String tableName = tableName(isTrain);
+
+		session.execute("DROP TABLE IF EXISTS " + tableName);
+		session.execute("CREATE TABLE " + tableName
+				+ " (trees int PRIMARY KEY, accuracy double)");
+
+		PreparedStatement ps = session.prepare("INSERT INTO " + tableName
+				+ " (trees, accuracy) VALUES (?, ?)");
+
+		synchronized (inserts) {
+			inserts[isTrain ? 0 : 1] = ps;
+		}
+	}
+
+	/**
+	 * Queue performance stats for insertion. Never blocks; if the queue is full
+	 * the row is dropped and counted.
+	 */
+	@Override
+	public void insert(int trees, double accuracy, boolean isTrain) {
+		synchronized (lock) {
+			if (closed) {
+				throw new IllegalStateException("Performance sink is closed");
+			}
+
+			if (!queue.offer(new PerformanceRow(isTrain, trees, accuracy))) {
+				dropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Flush all queued rows, wait for them to be written, and close the
+	 * session
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+
+		// rows queued before closing are taken before the marker row
+		try {
+			queue.put(POISON);
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (dropped.get() > 0) {
+			System.err.println("Performance sink dropped " + dropped.get()
+					+ " rows (queue full)");
+		}
+
+		session.close();
+	}
+
+	/**
+	 * Background loop: take rows in batches, write them asynchronously, and
+	 * wait for each batch to complete before taking the next one
+	 */
+	private void flushLoop() {
+		List<PerformanceRow> batch = new ArrayList<>(MAX_BATCH_SIZE);
+		List<ResultSetFuture> futures = new ArrayList<>(MAX_BATCH_SIZE);
+
+		boolean running = true;
+
+		while (running) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+			for (PerformanceRow row : batch) {
+				if (row == POISON) {
+					running = false;
+					continue;
+				}
+
+				PreparedStatement ps;
+				synchronized (inserts) {
+					ps = inserts[row.isTrain ? 0 : 1];
+				}
+
+				if (ps == null) {
+					System.err.println("Table " + tableName(row.isTrain)
+							+ " not created, dropping row");
+					continue;
+				}
+
+				futures.add(session.executeAsync(ps.bind(row.trees,
+						row.accuracy)));
+			}
+
+			for (ResultSetFuture f : futures) {
+				try {
+					f.getUninterruptibly();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+
+			batch.clear();
+			futures.clear();
+		}
+	}
+
+	private static String tableName(boolean isTrain) {
+		return isTrain ? "validation_perf" : "test_perf";
+	}
+
+	/**
+	 * A row of performance stats waiting to be written
+	 */
+	private static final class PerformanceRow {
+		final boolean isTrain;
+		final int trees;
+		final double accuracy;
+
+		PerformanceRow(boolean isTrain, int trees, double accuracy) {
+			this.isTrain = isTrain;
+			this.trees = trees;
+			this.accuracy = accuracy;
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package util;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
+
+/**
+ * Record source backed by the train_data or test_data table in Cassandra. Rows
+ * are fetched page by page, so only one page is held in memory at a time.
+ * 
+ * @author zzuo
+ *
+ */
+public class CassandraRecordSource implements RecordSource {
+
+	/*
+	 * Default number of rows per page
+	 */
+	public static final int DEFAULT_FETCH_SIZE = 5000;
+
+	private final Cluster cluster;
+
+	private final boolean isTrain;
+
+	private final int fetchSize;
+
+	public CassandraRecordSource(Cluster cluster, boolean isTrain) {
+		this(cluster, isTrain, DEFAULT_FETCH_SIZE);
+	}
+
+	public CassandraRecordSource(Cluster cluster, boolean isTrain,
+			int fetchSize) {
+		this.cluster = cluster;
+		this.isTrain = isTrain;
+		this.fetchSize = fetchSize;
+	}
+
+	@Override
+	public RecordStream open() throws IOException {
+		final Session session = cluster.connect("test");
+
+		Statement statement = new SimpleStatement(
+				"SELECT avg_bid, range_bid, diff_bid, delta_bid, spread, label FROM "
+						+ (isTrain ? "train_data" : "test_data"));
+		statement.setFetchSize(fetchSize);
+
+		final Iterator<Row> rows = session.execute(statement).iterator();
+
+		return new RecordStream() {
+			private final boolean[] binaries = new boolean[6];
+
+			@Override
+			public boolean[] next() throws IOException {
+				if (!rows.hasNext()) {
+					return null;
+				}
+
+				Row row = rows.next();
+				for (int i = 0; i < binaries.length; i++) {
+					binaries[i] = row.getBool(i);
+				}
+
+				return binaries;
+			}
+
+			@Override
+			public void close() throws IOException {
+				session.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,92 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Record source backed by a labeled csv file, in the format written by
+ * DataPrep.writeBinaryRecords (a header line, then one record per line)
+ * 
+ * @author zzuo
+ *
+ */
+public class CsvRecordSource implements RecordSource {
+
+	private final String fileName;
+
+	public CsvRecordSource(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * @return names of the columns, read from the header line
+	 * @throws IOException
+	 */
+	public String[] getColumnNames() throws IOException {
+		try (BufferedReader reader = new BufferedReader(
+				new FileReader(fileName))) {
+			String header = reader.readLine();
+			return header == null ? new String[0] : header.split(",");
+		}
+	}
+
+	/**
+	 * Parse a csv line of boolean values in place, avoiding String.split
+	 * 
+	 * @param line
+	 *            csv line
+	 * @param binaries
+	 *            array receiving the values, at least as long as the number
+	 *            of columns
+	 * @return number of columns parsed
+	 * @throws IllegalArgumentException
+	 *             if the line has more columns than binaries
+	 */
+	public static int parseRecord(String line, boolean[] binaries) {
+		int col = 0;
+		int start = 0;
+		for (int i = 0; i <= line.length(); i++) {
+			if (i == line.length() || line.charAt(i) == ',') {
+				if (col == binaries.length) {
+					throw new IllegalArgumentException("Record with more than "
+							+ binaries.length + " columns: " + line);
+				}
+				binaries[col++] = i - start == 4
+						&& line.regionMatches(true, start, "true", 0, 4);
+				start = i + 1;
+			}
+		}
+		return col;
+	}
+
+	@Override
+	public RecordStream open() throws IOException {
+		final BufferedReader reader = new BufferedReader(
+				new FileReader(fileName));
+
+		String header = reader.readLine();
+		final int columns = header == null ? 0 : header.split(",").length;
+
+		return new RecordStream() {
+			private final boolean[] binaries = new boolean[columns];
+
+			@Override
+			public boolean[] next() throws IOException {
+				String line = reader.readLine();
+				if (line == null) {
+					return null;
+				}
+
+				parseRecord(line, binaries);
+
+				return binaries;
+			}
+
+			@Override
+			public void close() throws IOException {
+				reader.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,45 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Storage of labeled datasets (training and testing records) and of
+ * performance statistics. Implementations: CassandraDataStore (train_data,
+ * test_data and performance tables), FileDataStore (memory-mapped dataset
+ * snapshots in a local directory) and MemoryDataStore. Drivers get the store
+ * to use from the configuration, see DataStores.
+ *
+ * @author zzuo
+ *
+ */
+public interface DataStore extends Closeable {
+
+	/**
+	 * @param isTrain
+	 *            training (or testing) records
+	 * @return source of the records; streams may reuse the returned arrays
+	 * @throws IOException
+	 *             if the dataset cannot be read, e.g. it was never written
+	 */
+	RecordSource records(boolean isTrain) throws IOException;
+
+	/**
+	 * Replace the training or testing records with the records of a source
+	 *
+	 * @param isTrain
+	 *            training (or testing) records
+	 * @param source
+	 *            source of the new records
+	 * @return number of records written
+	 * @throws IOException
+	 */
+	long writeRecords(boolean isTrain, RecordSource source) throws IOException;
+
+	/**
+	 * @return a new sink for performance statistics, to be closed by the
+	 *         caller
+	 * @throws IOException
+	 */
+	PerformanceSink performanceSink() throws IOException;
+}
@@ -0,0 +1,58 @@
+package util;
+
+/**
+ * Creates the data store chosen by configuration. The store is given by the
+ * system property forex.store (e.g. -Dforex.store=file:/data/forex):
+ *
+ * - "cassandra" (default) or "cassandra:address": CassandraDataStore, at
+ * GlobalParams.CASSANDRA_ADDR unless an address is given;
+ *
+ * - "file:dir": FileDataStore in a local directory;
+ *
+ * - "memory": the MemoryDataStore shared by the process.
+ *
+ * @author zzuo
+ *
+ */
+public class DataStores {
+
+	public static final String STORE_PROPERTY = "forex.store";
+
+	private DataStores() {
+	}
+
+	/**
+	 * @return the store given by the forex.store system property
+	 */
+	public static DataStore fromConfig() {
+		return open(System.getProperty(STORE_PROPERTY, "cassandra"));
+	}
+
+	/**
+	 * @param spec
+	 *            "cassandra", "cassandra:address", "file:dir" or "memory"
+	 * @return the store
+	 */
+	public static DataStore open(String spec) {
+		int colon = spec.indexOf(':');
+		String type = colon < 0 ? spec : spec.substring(0, colon);
+		String arg = colon < 0 ? null : spec.substring(colon + 1);
+
+		switch (type) {
+		case "cassandra":
+			return new CassandraDataStore(
+					arg == null ? GlobalParams.CASSANDRA_ADDR : arg);
+		case "file":
+			if (arg == null || arg.isEmpty()) {
+				throw new IllegalArgumentException(
+						"Missing directory in data store " + spec);
+			}
+			return new FileDataStore(arg);
+		case "memory":
+			return MemoryDataStore.shared();
+		default:
+			throw new IllegalArgumentException("Unknown data store " + spec
+					+ ", expected cassandra[:address], file:dir or memory");
+		}
+	}
+}
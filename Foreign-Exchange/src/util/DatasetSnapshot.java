@@ -0,0 +1,279 @@
+package util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary snapshot of a labeled dataset. Each record is bit-packed
+ * into (columns + 7) / 8 bytes, so the default 6-column records take one byte
+ * each. Snapshots are written once (e.g. exported from Cassandra) and read
+ * back through a memory-mapped buffer. The format is:
+ *
+ * <pre>
+ * int magic, int version, int columns, long record count (-1 if unknown)
+ * record count * bytes per record
+ * </pre>
+ *
+ * @author zzuo
+ *
+ */
+public class DatasetSnapshot implements RecordSource {
+
+	/*
+	 * Magic number at the start of snapshot files ("RFDS")
+	 */
+	public static final int SNAPSHOT_MAGIC = 0x52464453;
+
+	/*
+	 * Version of the snapshot format
+	 */
+	public static final int SNAPSHOT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 20;
+
+	/*
+	 * Record count of snapshots written as a stream, where the count is only
+	 * known from the file size
+	 */
+	private static final long UNKNOWN_COUNT = -1;
+
+	/*
+	 * Mapped snapshot data, positioned at the first record
+	 */
+	private final ByteBuffer data;
+
+	private final int columns;
+
+	private final int bytesPerRecord;
+
+	private final int size;
+
+	private DatasetSnapshot(ByteBuffer data, int columns, int size) {
+		this.data = data;
+		this.columns = columns;
+		this.bytesPerRecord = (columns + 7) / 8;
+		this.size = size;
+	}
+
+	/**
+	 * Write all records of a source into a snapshot file
+	 *
+	 * @param source
+	 *            source of records
+	 * @param fileName
+	 *            snapshot file name
+	 * @return number of records written
+	 * @throws IOException
+	 */
+	public static long write(RecordSource source, String fileName)
+			throws IOException {
+		Writer writer = null;
+
+		try (RecordStream stream = source.open()) {
+			boolean[] record = stream.next();
+
+			writer = new Writer(new FileOutputStream(fileName),
+					record == null ? 0 : record.length);
+
+			while (record != null) {
+				writer.write(record);
+				record = stream.next();
+			}
+		} finally {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+
+		// a local file can be patched with the actual record count
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+			file.seek(12);
+			file.writeLong(writer.count);
+		}
+
+		return writer.count;
+	}
+
+	/**
+	 * Open a snapshot file by memory-mapping it
+	 *
+	 * @param fileName
+	 *            snapshot file name
+	 * @return snapshot
+	 * @throws IOException
+	 *             if the file is not a supported snapshot
+	 */
+	public static DatasetSnapshot open(String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+
+			if (buffer.remaining() < HEADER_SIZE
+					|| buffer.getInt() != SNAPSHOT_MAGIC) {
+				throw new IOException("Not a dataset snapshot: " + fileName);
+			}
+
+			int version = buffer.getInt();
+			if (version != SNAPSHOT_VERSION) {
+				throw new IOException(
+						"Unsupported snapshot version: " + version);
+			}
+
+			int columns = buffer.getInt();
+			long count = buffer.getLong();
+
+			if (count == UNKNOWN_COUNT) {
+				int bytesPerRecord = (columns + 7) / 8;
+				count = bytesPerRecord == 0 ? 0
+						: buffer.remaining() / bytesPerRecord;
+			}
+
+			if (count > Integer.MAX_VALUE || buffer.remaining() < count
+					* ((columns + 7) / 8)) {
+				throw new IOException("Corrupted dataset snapshot: " + fileName);
+			}
+
+			return new DatasetSnapshot(buffer.slice(), columns, (int) count);
+		}
+	}
+
+	/**
+	 * @return number of records
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of columns (features and label) of each record
+	 */
+	public int columns() {
+		return columns;
+	}
+
+	/**
+	 * Decode a record
+	 *
+	 * @param index
+	 *            record index
+	 * @param record
+	 *            array receiving the record, of length columns()
+	 * @return the record array
+	 */
+	public boolean[] get(int index, boolean[] record) {
+		int base = index * bytesPerRecord;
+		for (int i = 0; i < columns; i++) {
+			record[i] = (data.get(base + (i >>> 3)) & (1 << (i & 7))) != 0;
+		}
+		return record;
+	}
+
+	/**
+	 * Decode all records into memory
+	 *
+	 * @return list of boolean records
+	 */
+	public List<boolean[]> readAll() {
+		List<boolean[]> records = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			records.add(get(i, new boolean[columns]));
+		}
+		return records;
+	}
+
+	@Override
+	public RecordStream open() {
+		return new RecordStream() {
+			private final boolean[] record = new boolean[columns];
+
+			private int next = 0;
+
+			@Override
+			public boolean[] next() {
+				return next < size ? get(next++, record) : null;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Writer of a snapshot to an output stream that may not support seeking
+	 * (e.g. a file in HDFS). The record count is left unknown in the header
+	 * and derived from the file size when reading.
+	 */
+	public static class Writer implements Closeable {
+
+		private final DataOutputStream out;
+
+		private final byte[] packed;
+
+		private final int columns;
+
+		private long count = 0;
+
+		public Writer(OutputStream out, int columns) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+			this.columns = columns;
+			this.packed = new byte[(columns + 7) / 8];
+
+			this.out.writeInt(SNAPSHOT_MAGIC);
+			this.out.writeInt(SNAPSHOT_VERSION);
+			this.out.writeInt(columns);
+			this.out.writeLong(UNKNOWN_COUNT);
+		}
+
+		/**
+		 * Write a record
+		 *
+		 * @param record
+		 *            record with the number of columns of the snapshot
+		 * @throws IOException
+		 */
+		public void write(boolean[] record) throws IOException {
+			if (record.length != columns) {
+				throw new IOException("Expected " + columns
+						+ " columns, got " + record.length);
+			}
+
+			pack(record, packed);
+			out.write(packed);
+			count++;
+		}
+
+		/**
+		 * @return number of records written
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	private static void pack(boolean[] record, byte[] packed) {
+		for (int i = 0; i < packed.length; i++) {
+			packed[i] = 0;
+		}
+		for (int i = 0; i < record.length; i++) {
+			if (record[i]) {
+				packed[i >>> 3] |= 1 << (i & 7);
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Data store in a local directory, for runs on one machine at disk speed:
+ * records are kept as dataset snapshots (train_data.snapshot and
+ * test_data.snapshot), read through memory-mapped buffers, and performance
+ * statistics as csv files (validation_perf.csv and test_perf.csv).
+ *
+ * @author zzuo
+ *
+ */
+public class FileDataStore implements DataStore {
+
+	private final File dir;
+
+	public FileDataStore(String dir) {
+		this.dir = new File(dir);
+	}
+
+	@Override
+	public RecordSource records(boolean isTrain) throws IOException {
+		return DatasetSnapshot.open(file(isTrain ? "train_data.snapshot"
+				: "test_data.snapshot").getPath());
+	}
+
+	@Override
+	public long writeRecords(boolean isTrain, RecordSource source)
+			throws IOException {
+		dir.mkdirs();
+		return DatasetSnapshot.write(source, file(isTrain
+				? "train_data.snapshot" : "test_data.snapshot").getPath());
+	}
+
+	/**
+	 * @return sink keeping statistics in memory, and writing the csv files of
+	 *         the tables created when closed
+	 */
+	@Override
+	public PerformanceSink performanceSink() {
+		return new PerformanceSink() {
+			/*
+			 * Accuracy by number of trees, of each created table
+			 */
+			private final Map<Boolean, TreeMap<Integer, Double>> tables = new HashMap<>();
+
+			@Override
+			public synchronized void createTable(boolean isTrain) {
+				tables.put(isTrain, new TreeMap<Integer, Double>());
+			}
+
+			@Override
+			public synchronized void insert(int trees, double accuracy,
+					boolean isTrain) {
+				TreeMap<Integer, Double> table = tables.get(isTrain);
+				if (table == null) {
+					System.err.println("Table " + tableName(isTrain)
+							+ " not created, dropping row");
+					return;
+				}
+				table.put(trees, accuracy);
+			}
+
+			@Override
+			public synchronized void close() {
+				dir.mkdirs();
+
+				for (Map.Entry<Boolean, TreeMap<Integer, Double>> t : tables
+						.entrySet()) {
+					File f = file(tableName(t.getKey()) + ".csv");
+					try (PrintWriter writer = new PrintWriter(f)) {
+						writer.println("trees,accuracy");
+						for (Map.Entry<Integer, Double> row : t.getValue()
+								.entrySet()) {
+							writer.println(row.getKey() + "," + row.getValue());
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+				tables.clear();
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private File file(String name) {
+		return new File(dir, name);
+	}
+
+	private static String tableName(boolean isTrain) {
+		return isTrain ? "validation_perf" : "test_perf";
+	}
+}
@@ -0,0 +1,69 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * Record source selecting one of several label columns of another source.
+ * Records with labels for several horizons (features, then one label column
+ * per horizon, see prep.HorizonLabeler) are streamed as records with the
+ * features followed by the selected label, so a model for any horizon can be
+ * trained from the same prepared data.
+ * 
+ * @author zzuo
+ *
+ */
+public class LabelColumnSource implements RecordSource {
+
+	private final RecordSource source;
+
+	private final int numOfFeatures;
+
+	private final int labelColumn;
+
+	/**
+	 * @param source
+	 *            records with features first, then label columns
+	 * @param numOfFeatures
+	 *            number of feature columns
+	 * @param labelColumn
+	 *            index of the selected label column in the records of the
+	 *            source
+	 */
+	public LabelColumnSource(RecordSource source, int numOfFeatures,
+			int labelColumn) {
+		if (labelColumn < numOfFeatures) {
+			throw new IllegalArgumentException(
+					"Label column " + labelColumn + " is a feature column");
+		}
+		this.source = source;
+		this.numOfFeatures = numOfFeatures;
+		this.labelColumn = labelColumn;
+	}
+
+	@Override
+	public RecordStream open() throws IOException {
+		final RecordStream stream = source.open();
+
+		return new RecordStream() {
+			private final boolean[] binaries = new boolean[numOfFeatures + 1];
+
+			@Override
+			public boolean[] next() throws IOException {
+				boolean[] r = stream.next();
+				if (r == null) {
+					return null;
+				}
+
+				System.arraycopy(r, 0, binaries, 0, numOfFeatures);
+				binaries[numOfFeatures] = r[labelColumn];
+
+				return binaries;
+			}
+
+			@Override
+			public void close() throws IOException {
+				stream.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,128 @@
+package util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Data store in memory, e.g. to prepare data and train in the same process,
+ * or for experiments without any storage. The store configured as "memory"
+ * (see DataStores) is shared by the whole process.
+ *
+ * @author zzuo
+ *
+ */
+public class MemoryDataStore implements DataStore {
+
+	private static final MemoryDataStore SHARED = new MemoryDataStore();
+
+	/*
+	 * Training (index 0) and testing (index 1) records
+	 */
+	private final List<List<boolean[]>> records = new ArrayList<>();
+
+	/*
+	 * Accuracy by number of trees, on validation (index 0) and testing (index
+	 * 1) data
+	 */
+	private final List<Map<Integer, Double>> performance = new ArrayList<>();
+
+	public MemoryDataStore() {
+		for (int i = 0; i < 2; i++) {
+			records.add(Collections.<boolean[]> emptyList());
+			performance.add(Collections.synchronizedMap(
+					new TreeMap<Integer, Double>()));
+		}
+	}
+
+	/**
+	 * @return the store shared by the process
+	 */
+	public static MemoryDataStore shared() {
+		return SHARED;
+	}
+
+	@Override
+	public RecordSource records(boolean isTrain) {
+		final List<boolean[]> list;
+		synchronized (records) {
+			list = records.get(isTrain ? 0 : 1);
+		}
+
+		return new RecordSource() {
+			@Override
+			public RecordStream open() {
+				return new RecordStream() {
+					private int next = 0;
+
+					@Override
+					public boolean[] next() {
+						return next < list.size() ? list.get(next++) : null;
+					}
+
+					@Override
+					public void close() {
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public long writeRecords(boolean isTrain, RecordSource source)
+			throws IOException {
+		List<boolean[]> list = new ArrayList<>();
+
+		try (RecordStream stream = source.open()) {
+			boolean[] record;
+			while ((record = stream.next()) != null) {
+				// streams may reuse their arrays
+				list.add(record.clone());
+			}
+		}
+
+		synchronized (records) {
+			records.set(isTrain ? 0 : 1, Collections.unmodifiableList(list));
+		}
+
+		return list.size();
+	}
+
+	/**
+	 * @param isTrain
+	 *            validation (or testing) performance
+	 * @return accuracy by number of trees
+	 */
+	public Map<Integer, Double> getPerformance(boolean isTrain) {
+		return performance.get(isTrain ? 0 : 1);
+	}
+
+	@Override
+	public PerformanceSink performanceSink() {
+		return new PerformanceSink() {
+			@Override
+			public void createTable(boolean isTrain) {
+				getPerformance(isTrain).clear();
+			}
+
+			@Override
+			public void insert(int trees, double accuracy, boolean isTrain) {
+				getPerformance(isTrain).put(trees, accuracy);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	/**
+	 * Data stays available after closing, for other users of the store
+	 */
+	@Override
+	public void close() {
+	}
+}
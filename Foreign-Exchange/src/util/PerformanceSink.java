@@ -0,0 +1,42 @@
+package util;
+
+import java.io.Closeable;
+
+/**
+ * Sink for performance statistics: accuracy of the forest by number of
+ * trees, on validation data (during training) or on testing data. Sinks are
+ * created by a DataStore.
+ *
+ * @author zzuo
+ *
+ */
+public interface PerformanceSink extends Closeable {
+
+	/**
+	 * (Re)create the validation (during training) or testing performance
+	 * table
+	 *
+	 * @param isTrain
+	 *            is this for training
+	 */
+	void createTable(boolean isTrain);
+
+	/**
+	 * Insert performance stats, replacing earlier stats for the same number
+	 * of trees
+	 *
+	 * @param trees
+	 *            current number of trees in forest
+	 * @param accuracy
+	 *            validation or testing accuracy
+	 * @param isTrain
+	 *            is this for training
+	 */
+	void insert(int trees, double accuracy, boolean isTrain);
+
+	/**
+	 * Write all inserted stats, and release resources
+	 */
+	@Override
+	void close();
+}
@@ -0,0 +1,22 @@
+package util;
+
+import java.io.IOException;
+
+/**
+ * A source of boolean records that can be streamed (possibly several times)
+ * without holding the whole dataset in memory.
+ * 
+ * @author zzuo
+ *
+ */
+public interface RecordSource {
+
+	/**
+	 * Open a new stream positioned at the first record. Records are always
+	 * returned in the same order.
+	 * 
+	 * @return record stream, to be closed by the caller
+	 * @throws IOException
+	 */
+	RecordStream open() throws IOException;
+}
@@ -0,0 +1,22 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A forward-only stream of boolean records (features followed by the label).
+ * 
+ * @author zzuo
+ *
+ */
+public interface RecordStream extends Closeable {
+
+	/**
+	 * Read the next record. The returned array may be reused by the following
+	 * call, so callers that keep records must copy them.
+	 * 
+	 * @return next record, or null at the end of the stream
+	 * @throws IOException
+	 */
+	boolean[] next() throws IOException;
+}
@@ -0,0 +1,418 @@
+package util;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * View of part of a dataset, defined by index ranges over the records of a
+ * shared dataset: records in memory (a list of boolean records) or a
+ * memory-mapped snapshot. Views (train and test splits, walk-forward folds)
+ * are created without copying any record, and are read in time order, as
+ * records of prepared data are in time order.
+ *
+ * Views are read as a record source, or by index. Records of a view over
+ * records in memory are the records of the dataset themselves, and must not
+ * be modified.
+ *
+ * @author zzuo
+ *
+ */
+public class RecordView implements RecordSource {
+
+	/*
+	 * Dataset, records in memory or a snapshot (the other one being null)
+	 */
+	private final List<boolean[]> records;
+
+	private final DatasetSnapshot snapshot;
+
+	/*
+	 * Index ranges of the view in the dataset, in increasing order:
+	 * [starts[i], ends[i])
+	 */
+	private final int[] starts;
+
+	private final int[] ends;
+
+	/*
+	 * Number of records of the view before each range
+	 */
+	private final int[] offsets;
+
+	private final int size;
+
+	private RecordView(List<boolean[]> records, DatasetSnapshot snapshot,
+			int[] starts, int[] ends) {
+		this.records = records;
+		this.snapshot = snapshot;
+		this.starts = starts;
+		this.ends = ends;
+		this.offsets = new int[starts.length];
+
+		int n = 0;
+		for (int i = 0; i < starts.length; i++) {
+			offsets[i] = n;
+			n += ends[i] - starts[i];
+		}
+		this.size = n;
+	}
+
+	/**
+	 * @param records
+	 *            records in memory, in time order
+	 * @return view of all records
+	 */
+	public static RecordView of(List<boolean[]> records) {
+		return new RecordView(records, null, new int[] { 0 },
+				new int[] { records.size() });
+	}
+
+	/**
+	 * @param snapshot
+	 *            memory-mapped snapshot, records in time order
+	 * @return view of all records
+	 */
+	public static RecordView of(DatasetSnapshot snapshot) {
+		return new RecordView(null, snapshot, new int[] { 0 },
+				new int[] { snapshot.size() });
+	}
+
+	/**
+	 * Read all records of a source into memory, once, so views over them
+	 * share the records
+	 *
+	 * @param source
+	 *            source of records, in time order
+	 * @return view of all records
+	 * @throws IOException
+	 */
+	public static RecordView load(RecordSource source) throws IOException {
+		List<boolean[]> records = new ArrayList<>();
+
+		try (RecordStream stream = source.open()) {
+			boolean[] record;
+			while ((record = stream.next()) != null) {
+				// streams may reuse their arrays
+				records.add(record.clone());
+			}
+		}
+
+		return of(records);
+	}
+
+	/**
+	 * @return number of records of the view
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of columns (features and label) of each record
+	 */
+	public int columns() {
+		if (snapshot != null) {
+			return snapshot.columns();
+		}
+		return records.isEmpty() ? 0 : records.get(0).length;
+	}
+
+	/**
+	 * @return whether records of the view are in memory, rather than in a
+	 *         snapshot
+	 */
+	public boolean isInMemory() {
+		return records != null;
+	}
+
+	/**
+	 * Get a record of the view
+	 *
+	 * @param index
+	 *            index in the view
+	 * @param record
+	 *            array receiving the record of a snapshot, unused for records
+	 *            in memory
+	 * @return the record of the dataset in memory, or the record array
+	 */
+	public boolean[] get(int index, boolean[] record) {
+		int i = dataIndex(index);
+		return records != null ? records.get(i) : snapshot.get(i, record);
+	}
+
+	/**
+	 * @return index in the dataset of a record of the view
+	 */
+	public int dataIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(
+					"Index " + index + ", size " + size);
+		}
+
+		// last range starting at or before index
+		int lo = 0;
+		int hi = starts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (offsets[mid] <= index) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return starts[lo] + index - offsets[lo];
+	}
+
+	/**
+	 * Records of a view over records in memory, as a list backed by the
+	 * dataset (e.g. for in-memory training)
+	 *
+	 * @return list of the records of the view
+	 */
+	public List<boolean[]> asList() {
+		if (records == null) {
+			throw new IllegalStateException(
+					"Records of a snapshot are not in memory");
+		}
+
+		if (starts.length == 1) {
+			return records.subList(starts[0], ends[0]);
+		}
+
+		return new RangeList();
+	}
+
+	/**
+	 * @param from
+	 *            first index in this view, inclusive
+	 * @param to
+	 *            last index in this view, exclusive
+	 * @return view of records from index from to index to of this view
+	 */
+	public RecordView range(int from, int to) {
+		if (from < 0 || to > size || from > to) {
+			throw new IndexOutOfBoundsException(
+					"Range [" + from + ", " + to + "), size " + size);
+		}
+
+		List<int[]> ranges = new ArrayList<>();
+		for (int i = 0; i < starts.length; i++) {
+			int s = Math.max(from - offsets[i], 0);
+			int e = Math.min(to - offsets[i], ends[i] - starts[i]);
+			if (s < e) {
+				ranges.add(new int[] { starts[i] + s, starts[i] + e });
+			}
+		}
+		return withRanges(ranges);
+	}
+
+	/**
+	 * @param selected
+	 *            bitmap of selected indexes in this view
+	 * @return view of the selected records of this view
+	 */
+	public RecordView select(BitSet selected) {
+		List<int[]> ranges = new ArrayList<>();
+
+		// runs of selected indexes, split at ranges of this view
+		int from = selected.nextSetBit(0);
+		while (from >= 0 && from < size) {
+			int to = Math.min(selected.nextClearBit(from), size);
+			for (int i = 0; i < starts.length; i++) {
+				int s = Math.max(from - offsets[i], 0);
+				int e = Math.min(to - offsets[i], ends[i] - starts[i]);
+				if (s < e) {
+					ranges.add(new int[] { starts[i] + s, starts[i] + e });
+				}
+			}
+			from = selected.nextSetBit(to);
+		}
+		return withRanges(ranges);
+	}
+
+	/**
+	 * Split the view in time: training records first, then testing records.
+	 * Unlike interleaved rows (DataPrep.splitTrainAndTestFiles), no training
+	 * record is later than a testing record.
+	 *
+	 * @param trainFraction
+	 *            fraction of records for training
+	 * @param gap
+	 *            number of records left out between training and testing
+	 *            records, at least the number of records in the look-ahead
+	 *            of labels, so training labels do not overlap testing
+	 *            records
+	 * @return split
+	 */
+	public Fold split(double trainFraction, int gap) {
+		int trainEnd = (int) (size * trainFraction);
+		return new Fold(range(0, trainEnd),
+				range(Math.min(trainEnd + gap, size), size));
+	}
+
+	/**
+	 * Walk-forward folds: the view is cut into folds + 1 consecutive blocks,
+	 * and fold k tests on block k + 1 after training on the blocks before it
+	 * (expanding window) or on block k only (sliding window)
+	 *
+	 * @param folds
+	 *            number of folds
+	 * @param gap
+	 *            number of records left out at the start of each testing
+	 *            block (see split)
+	 * @param expanding
+	 *            whether training windows start at the first record
+	 * @return folds, in time order
+	 */
+	public List<Fold> walkForward(int folds, int gap, boolean expanding) {
+		if (folds < 1) {
+			throw new IllegalArgumentException("At least one fold expected");
+		}
+
+		int block = size / (folds + 1);
+		List<Fold> results = new ArrayList<>(folds);
+
+		for (int k = 0; k < folds; k++) {
+			int trainStart = expanding ? 0 : k * block;
+			int testStart = (k + 1) * block;
+			int testEnd = k == folds - 1 ? size : testStart + block;
+
+			results.add(new Fold(range(trainStart, testStart),
+					range(Math.min(testStart + gap, testEnd), testEnd)));
+		}
+
+		return results;
+	}
+
+	/**
+	 * Rolling folds, as a model retrained on a schedule: the view is walked
+	 * in steps, each fold testing on the records of one step after training
+	 * on the trailing window before it. Windows of consecutive folds overlap
+	 * and share their records.
+	 *
+	 * @param window
+	 *            number of training records of each fold
+	 * @param step
+	 *            number of testing records of each fold (the last fold may
+	 *            have less)
+	 * @param gap
+	 *            number of records left out between the training window and
+	 *            the testing records (see split)
+	 * @return folds, in time order
+	 */
+	public List<Fold> rolling(int window, int step, int gap) {
+		if (window < 1 || step < 1 || gap < 0) {
+			throw new IllegalArgumentException("Window " + window + ", step "
+					+ step + ", gap " + gap);
+		}
+
+		List<Fold> results = new ArrayList<>();
+
+		for (long testStart = (long) window + gap; testStart < size;
+				testStart += step) {
+			int t = (int) testStart;
+			results.add(new Fold(range(t - gap - window, t - gap),
+					range(t, (int) Math.min(testStart + step, size))));
+		}
+
+		return results;
+	}
+
+	@Override
+	public RecordStream open() {
+		return new RecordStream() {
+			private final boolean[] record = new boolean[columns()];
+
+			private int range = 0;
+
+			private int next = starts.length == 0 ? 0 : starts[0];
+
+			@Override
+			public boolean[] next() {
+				while (range < starts.length && next >= ends[range]) {
+					range++;
+					if (range < starts.length) {
+						next = starts[range];
+					}
+				}
+				if (range == starts.length) {
+					return null;
+				}
+
+				int i = next++;
+				return records != null ? records.get(i)
+						: snapshot.get(i, record);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	private RecordView withRanges(List<int[]> ranges) {
+		// merge adjacent ranges
+		List<int[]> merged = new ArrayList<>();
+		for (int[] r : ranges) {
+			int[] last = merged.isEmpty() ? null
+					: merged.get(merged.size() - 1);
+			if (last != null && last[1] == r[0]) {
+				last[1] = r[1];
+			} else {
+				merged.add(r);
+			}
+		}
+
+		int[] s = new int[merged.size()];
+		int[] e = new int[merged.size()];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = merged.get(i)[0];
+			e[i] = merged.get(i)[1];
+		}
+		return new RecordView(records, snapshot, s, e);
+	}
+
+	/**
+	 * List of the records of a view with several ranges
+	 */
+	private class RangeList extends AbstractList<boolean[]>
+			implements RandomAccess {
+
+		@Override
+		public boolean[] get(int index) {
+			return records.get(dataIndex(index));
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Training and testing records of a split or fold
+	 */
+	public static class Fold {
+
+		private final RecordView train;
+
+		private final RecordView test;
+
+		public Fold(RecordView train, RecordView test) {
+			this.train = train;
+			this.test = test;
+		}
+
+		public RecordView getTrain() {
+			return train;
+		}
+
+		public RecordView getTest() {
+			return test;
+		}
+	}
+}
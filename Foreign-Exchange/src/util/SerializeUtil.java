@@ -1,14 +1,33 @@
 package util;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 import com.google.gson.Gson;
 
 import dtree.DecisionTree;
+import dtree.FlatTree;
 import forest.RandomForest;
+import prep.QuantileBinarizer;
 
 /**
  * Utilities for serialization
@@ -17,6 +36,22 @@ import forest.RandomForest;
  *
  */
 public class SerializeUtil {
+
+	/*
+	 * Magic number at the start of binary model files ("RFMB")
+	 */
+	public static final int MODEL_MAGIC = 0x52464D42;
+
+	/*
+	 * Version of the binary model format (version 1 has no binarizer)
+	 */
+	public static final int MODEL_VERSION = 2;
+
+	/*
+	 * Name of the manifest file of a sharded binary model
+	 */
+	public static final String MANIFEST_NAME = "forest.manifest";
+
 	/**
 	 * Serialize forest into a file
 	 * 
@@ -28,6 +63,9 @@ public class SerializeUtil {
 		try {
 			PrintWriter writer = new PrintWriter(fileName);
 
+			// nodes of trees of a forest loaded in flat form
+			forest.getTrees();
+
 			Gson gson = new Gson();
 
 			writer.print(gson.toJson(forest));
@@ -72,4 +110,331 @@ public class SerializeUtil {
 		return gson.toJson(dt);
 	}
 
+	/**
+	 * Serialize forest into a file using the binary model format. The format
+	 * is:
+	 * 
+	 * <pre>
+	 * int magic, int version
+	 * int feature count, then for each feature: int length, UTF-8 bytes
+	 * int 1 and the binarizer (see QuantileBinarizer.write), or int 0
+	 * for each tree until the end of file:
+	 *     int node count n
+	 *     int[n] feature, int[n] right, int[n] pos, int[n] neg
+	 * </pre>
+	 * 
+	 * Feature names are stored once, and trees are stored as flat pre-order
+	 * node arrays (see FlatTree). The cut points of the binarizer of the
+	 * forest, if any, are stored with it, so scorers binarize features as in
+	 * training. Version 1 files (without the binarizer flag) are still read.
+	 * All values are big-endian.
+	 * 
+	 * @param forest
+	 * @param fileName
+	 */
+	public static void serializeRandomForestBinary(RandomForest forest,
+			String fileName) {
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(fileName)))) {
+			writeModelHeader(out, forest.getFeatures(),
+					forest.getBinarizer());
+
+			for (DecisionTree tree : forest.getTrees()) {
+				writeTree(out, tree.flatten());
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Deserialize a RandomForest object from a binary model file. The file is
+	 * memory-mapped and node arrays are bulk-copied out of it. The forest is
+	 * made of the flat trees read, and only builds their nodes if needed (see
+	 * RandomForest.getTrees).
+	 * 
+	 * @param fileName
+	 * @return
+	 */
+	public static RandomForest deserializeRandomForestBinary(String fileName) {
+		RandomForest forest = null;
+
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+				FileChannel channel = file.getChannel()) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+
+			List<String> features = new ArrayList<>();
+			QuantileBinarizer binarizer = readModelHeader(buffer, features);
+
+			List<FlatTree> trees = new ArrayList<>();
+
+			while (buffer.hasRemaining()) {
+				trees.add(readTree(buffer));
+			}
+
+			forest = RandomForest.fromFlatTrees(features, trees);
+			forest.setBinarizer(binarizer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return forest;
+	}
+
+	/**
+	 * Deserialize a RandomForest object from a sharded binary model: a
+	 * directory with a manifest (see RandomForestMR) and binary model shards,
+	 * each holding part of the trees. The shards are loaded as one forest,
+	 * with the binarizer of their headers, which must be the same in all
+	 * shards.
+	 * 
+	 * @param dirName
+	 *            directory of the model
+	 * @return
+	 */
+	public static RandomForest deserializeShardedRandomForest(String dirName) {
+		Map<String, File> files = new HashMap<>();
+
+		File[] children = new File(dirName).listFiles();
+		if (children != null) {
+			for (File f : children) {
+				files.put(f.getName(), f);
+			}
+		}
+
+		return deserializeShardedRandomForest(files);
+	}
+
+	/**
+	 * Deserialize a RandomForest object from the files of a sharded binary
+	 * model which may not be in one directory, e.g. the local copies of the
+	 * distributed cache
+	 * 
+	 * @param files
+	 *            files of the model (the manifest and the shards it lists),
+	 *            by name
+	 * @return
+	 */
+	public static RandomForest deserializeShardedRandomForest(
+			Map<String, File> files) {
+		File manifestFile = files.get(MANIFEST_NAME);
+		if (manifestFile == null) {
+			System.err.println("No " + MANIFEST_NAME + " in sharded model");
+			return null;
+		}
+
+		RandomForest forest = null;
+
+		try (FileInputStream in = new FileInputStream(manifestFile)) {
+			Properties manifest = new Properties();
+			manifest.load(in);
+
+			List<String> features = Arrays
+					.asList(manifest.getProperty("features").split(","));
+			int count = Integer.parseInt(manifest.getProperty("trees"));
+
+			List<FlatTree> trees = new ArrayList<>(count);
+
+			// binarizer of the first shard, which all shards must have
+			QuantileBinarizer binarizer = null;
+			boolean first = true;
+
+			for (String shard : manifest.getProperty("shards").split(",")) {
+				if (shard.isEmpty()) {
+					continue;
+				}
+
+				File shardFile = files.get(shard);
+				if (shardFile == null) {
+					throw new IOException("Shard " + shard + " not found");
+				}
+
+				try (RandomAccessFile file = new RandomAccessFile(shardFile,
+						"r");
+						FileChannel channel = file.getChannel()) {
+					ByteBuffer buffer = channel.map(
+							FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+					List<String> shardFeatures = new ArrayList<>();
+					QuantileBinarizer shardBinarizer = readModelHeader(buffer,
+							shardFeatures);
+
+					if (!features.equals(shardFeatures)) {
+						throw new IOException(
+								"Features of shard " + shard + " differ");
+					}
+
+					if (first) {
+						binarizer = shardBinarizer;
+						first = false;
+					} else if (binarizer == null ? shardBinarizer != null
+							: !binarizer.equals(shardBinarizer)) {
+						throw new IOException(
+								"Binarizer of shard " + shard + " differs");
+					}
+
+					while (buffer.hasRemaining()) {
+						trees.add(readTree(buffer));
+					}
+				}
+			}
+
+			if (trees.size() != count) {
+				throw new IOException("Manifest lists " + count
+						+ " trees, shards hold " + trees.size());
+			}
+
+			forest = RandomForest.fromFlatTrees(features, trees);
+			forest.setBinarizer(binarizer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return forest;
+	}
+
+	/**
+	 * Write magic number, version and feature schema of a binary model
+	 * without binarizer
+	 * 
+	 * @param out
+	 * @param features
+	 *            names of features
+	 * @throws IOException
+	 */
+	public static void writeModelHeader(DataOutput out,
+			List<String> features) throws IOException {
+		writeModelHeader(out, features, null);
+	}
+
+	/**
+	 * Write magic number, version, feature schema and binarizer of a binary
+	 * model
+	 * 
+	 * @param out
+	 * @param features
+	 *            names of features
+	 * @param binarizer
+	 *            binarizer of the model, or null
+	 * @throws IOException
+	 */
+	public static void writeModelHeader(DataOutput out, List<String> features,
+			QuantileBinarizer binarizer) throws IOException {
+		out.writeInt(MODEL_MAGIC);
+		out.writeInt(MODEL_VERSION);
+		out.writeInt(features.size());
+
+		for (String f : features) {
+			byte[] bytes = f.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+
+		if (binarizer == null) {
+			out.writeInt(0);
+		} else {
+			out.writeInt(1);
+			binarizer.write(out);
+		}
+	}
+
+	/**
+	 * Write one tree of a binary model
+	 * 
+	 * @param out
+	 * @param tree
+	 *            tree in flat form
+	 * @throws IOException
+	 */
+	public static void writeTree(DataOutput out, FlatTree tree)
+			throws IOException {
+		out.writeInt(tree.size());
+
+		for (int[] array : new int[][] { tree.getFeature(), tree.getRight(),
+				tree.getPos(), tree.getNeg() }) {
+			for (int v : array) {
+				out.writeInt(v);
+			}
+		}
+	}
+
+	/**
+	 * Read and check the header of a binary model, leaving the buffer
+	 * positioned at the first tree
+	 * 
+	 * @param buffer
+	 * @return names of features
+	 * @throws IOException
+	 *             if the buffer doesn't hold a supported binary model
+	 */
+	public static List<String> readModelHeader(ByteBuffer buffer)
+			throws IOException {
+		List<String> features = new ArrayList<>();
+		readModelHeader(buffer, features);
+		return features;
+	}
+
+	/**
+	 * Read and check the header of a binary model, leaving the buffer
+	 * positioned at the first tree
+	 * 
+	 * @param buffer
+	 * @param features
+	 *            list receiving the names of features
+	 * @return binarizer of the model, or null
+	 * @throws IOException
+	 *             if the buffer doesn't hold a supported binary model
+	 */
+	public static QuantileBinarizer readModelHeader(ByteBuffer buffer,
+			List<String> features) throws IOException {
+		if (buffer.remaining() < 12 || buffer.getInt() != MODEL_MAGIC) {
+			throw new IOException("Not a binary random forest model");
+		}
+
+		int version = buffer.getInt();
+		if (version < 1 || version > MODEL_VERSION) {
+			throw new IOException("Unsupported model version: " + version);
+		}
+
+		int count = buffer.getInt();
+
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			features.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+
+		if (version < 2 || buffer.getInt() == 0) {
+			return null;
+		}
+
+		QuantileBinarizer binarizer = QuantileBinarizer.read(buffer);
+		if (!features.equals(binarizer.getFeatures())) {
+			throw new IOException("Features of the binarizer differ");
+		}
+		return binarizer;
+	}
+
+	/**
+	 * Read one tree of a binary model
+	 * 
+	 * @param buffer
+	 *            buffer positioned at the start of a tree
+	 * @return tree in flat form
+	 */
+	public static FlatTree readTree(ByteBuffer buffer) {
+		int size = buffer.getInt();
+
+		int[] feature = new int[size];
+		int[] right = new int[size];
+		int[] pos = new int[size];
+		int[] neg = new int[size];
+
+		IntBuffer ints = buffer.asIntBuffer();
+		ints.get(feature).get(right).get(pos).get(neg);
+		buffer.position(buffer.position() + 16 * size);
+
+		return new FlatTree(feature, right, pos, neg);
+	}
 }
@@ -0,0 +1,110 @@
+import org.apache.spark.ml.attribute.{Attribute, NominalAttribute}
+import org.apache.spark.ml.classification.RandomForestClassificationModel
+import org.apache.spark.ml.tree.{CategoricalSplit, ContinuousSplit, InternalNode, Node}
+import org.apache.spark.sql.DataFrame
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * Exports a random forest trained by RandomForestSpark (MLlib RandomForestClassifier)
+ * to the binary model format of util.SerializeUtil, so it can be loaded as a
+ * forest.RandomForest and scored by a plain JVM process, without Spark.
+ *
+ * Features of RandomForestSpark are vectors in the order of its Vectors.dense call,
+ * which is mapped to the feature order of the Java forest. Feature values are 0 / 1, so
+ * a split sends each value to one side: the side of value 1 becomes the left child of
+ * the Java tree (feature true), and the side of value 0 the right child. Splits sending
+ * both values to the same side are removed. Leaves predicting the positive label get
+ * one positive count, other leaves one negative count.
+ */
+object ForestExporter {
+
+  // features of RandomForestSpark, in the order of its Vectors.dense call
+  val sparkFeatures = Array("avg_bid", "delta_bid", "diff_bid", "range_bid", "spread")
+
+  // features in the order of the Java forest
+  val features = MutualInformationForestSpark.features
+
+  /**
+   * Labels of an indexed label column (as added by StringIndexer), by label index
+   */
+  def labelsOf(df: DataFrame, column: String): Array[String] = {
+    Attribute.fromStructField(df.schema(column)) match {
+      case a: NominalAttribute if a.values.isDefined => a.values.get
+      case _ => throw new IllegalArgumentException("Column " + column + " has no label values")
+    }
+  }
+
+  /**
+   * Export a forest to a binary model file
+   *
+   * @param model trained forest
+   * @param labels original labels by label index (see labelsOf)
+   * @param fileName model file name
+   */
+  def export(model: RandomForestClassificationModel, labels: Array[String], fileName: String) {
+    MutualInformationForestSpark.writeModel(features, toFlatTrees(model, labels), fileName)
+  }
+
+  /**
+   * Convert the trees of a forest into flat node arrays (see
+   * MutualInformationForestSpark.flatten)
+   */
+  def toFlatTrees(model: RandomForestClassificationModel, labels: Array[String]): Array[Array[Array[Int]]] = {
+    // Java index of each Spark feature
+    val featureIndex = sparkFeatures.map(features.indexOf(_))
+    // whether each label index is the positive label
+    val positive = labels.map(_.toDouble == 1.0)
+
+    model.trees.map { tree =>
+      val out = Array.fill(4)(ArrayBuffer[Int]())
+      flattenNode(tree.rootNode, featureIndex, positive, out)
+      out.map(_.toArray)
+    }
+  }
+
+  /**
+   * Write a node and its subtree in pre-order
+   *
+   * @return (positive, negative) counts of the subtree
+   */
+  private def flattenNode(node: Node, featureIndex: Array[Int], positive: Array[Boolean],
+                          out: Array[ArrayBuffer[Int]]): (Int, Int) = {
+    node match {
+      case n: InternalNode =>
+        val f = n.split.featureIndex
+        val (oneLeft, zeroLeft) = n.split match {
+          case s: ContinuousSplit => (1.0 <= s.threshold, 0.0 <= s.threshold)
+          case s: CategoricalSplit => (s.leftCategories.contains(1.0), s.leftCategories.contains(0.0))
+        }
+
+        if (oneLeft == zeroLeft) {
+          // both values go to the same side
+          return flattenNode(if (oneLeft) n.leftChild else n.rightChild, featureIndex, positive, out)
+        }
+
+        val i = out(0).length
+        out(0) += featureIndex(f)
+        out(1) += -1
+        out(2) += 0
+        out(3) += 0
+
+        val (trueChild, falseChild) = if (oneLeft) (n.leftChild, n.rightChild) else (n.rightChild, n.leftChild)
+        val (lp, ln) = flattenNode(trueChild, featureIndex, positive, out)
+        out(1)(i) = out(0).length
+        val (rp, rn) = flattenNode(falseChild, featureIndex, positive, out)
+
+        out(2)(i) = lp + rp
+        out(3)(i) = ln + rn
+        (lp + rp, ln + rn)
+
+      case leaf =>
+        val counts = if (positive(leaf.prediction.toInt)) (1, 0) else (0, 1)
+        out(0) += -1
+        out(1) += -1
+        out(2) += counts._1
+        out(3) += counts._2
+        counts
+    }
+  }
+}
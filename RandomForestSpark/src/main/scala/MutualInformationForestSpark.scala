@@ -0,0 +1,520 @@
+import org.apache.spark.{SparkContext, SparkConf}
+import org.apache.spark.broadcast.Broadcast
+import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
+
+import java.io.{BufferedInputStream, BufferedOutputStream, DataInputStream, DataOutputStream,
+  EOFException, FileInputStream, FileOutputStream, IOException}
+import java.nio.charset.StandardCharsets
+
+import scala.collection.mutable.ArrayBuffer
+
+import com.datastax.spark.connector._
+
+/**
+ * Spark implementation of the random forest of the Java project (forest.RandomForest),
+ * with the same mutual information split criterion (dtree.TreeNode.mutualInformation).
+ *
+ * Trees are grown level by level. Records are bit-packed and cached, and each level
+ * takes one treeAggregate over them, computing positive / negative counts of every
+ * (tree, frontier node, feature, feature value) at once, so all trees of the forest
+ * are grown in the same passes. Bootstrap samples are drawn as Poisson weights derived
+ * from a hash of (seed, tree, record index), like RandomForest.trainOutOfCore.
+ *
+ * The forest is written in the binary model format of util.SerializeUtil, so it can be
+ * loaded with SerializeUtil.deserializeRandomForestBinary.
+ */
+object MutualInformationForestSpark {
+
+  // Cassandra address
+  var cassandraAddr = "192.168.69.1"
+
+  // spark master address
+  var sparkAddr = "local[4]"
+
+  // main class for jar
+  var mainClass = "MutualInformationForestSpark"
+
+  // Cassandra keyspace
+  var keySpace = "test"
+
+  // train data table
+  var trainTable = "train_data"
+
+  // test data table
+  var testTable = "test_data"
+
+  // performance metrics table
+  var perfTable = "test_perf"
+
+  // features in the order of the Java forest (bit i of a packed record is feature i)
+  val features = Array("avg_bid", "range_bid", "diff_bid", "delta_bid", "spread")
+
+  // bit of the label in a packed record
+  val labelBit = features.length
+
+  // records are packed into the low byte of a Long, the record index into the rest
+  val indexShift = 8
+
+  // fraction of training records in the bootstrap sample of a tree (mean Poisson weight)
+  val fractionTrainingRecords = 2.0 / 3.0
+
+  // binary model format of util.SerializeUtil ("RFMB"), written in version 1 (without
+  // binarizer), read up to version 2
+  val modelMagic = 0x52464D42
+  val modelVersion = 1
+  val maxModelVersion = 2
+
+  /**
+   * Quantile cut points of a model (see prep.QuantileBinarizer): model feature i is
+   * true if input sources(i) is above cuts(i)
+   */
+  case class Binarizer(inputs: Array[String], sources: Array[Int], cuts: Array[Double])
+
+  /**
+   * Routing state of all trees, broadcast for each level. For tree t and node n,
+   * feature(t)(n) is -1 for leaves, and slot(t)(n) is the frontier index of a leaf
+   * that is still growing (-1 for finished leaves).
+   */
+  case class Routing(feature: Array[Array[Int]], left: Array[Array[Int]],
+                     right: Array[Array[Int]], slot: Array[Array[Int]])
+
+  /**
+   * A tree being grown on the driver, nodes are kept in growth order
+   */
+  class GrowingTree(val featureIds: Array[Int]) extends Serializable {
+    val feature = ArrayBuffer(-1)
+    val left = ArrayBuffer(-1)
+    val right = ArrayBuffer(-1)
+    val pos = ArrayBuffer(0)
+    val neg = ArrayBuffer(0)
+    // features used on the path to each node, as a bit mask
+    val used = ArrayBuffer(0)
+
+    def addNode(p: Int, n: Int, usedMask: Int): Int = {
+      feature += -1; left += -1; right += -1
+      pos += p; neg += n; used += usedMask
+      feature.length - 1
+    }
+  }
+
+  def main (args: Array[String]) {
+    // configures Spark
+    val conf = new SparkConf(true)
+      .set("spark.cassandra.connection.host", cassandraAddr)
+
+    // connect to the Spark cluster
+    val sc = new SparkContext(sparkAddr, mainClass, conf)
+
+    val trees = args(0).toInt
+    val modelFile = if (args.length > 1) args(1) else "forest.rfm"
+
+    // bit-packed training records, tagged with their index for bootstrap weights
+    val train = readPacked(sc, trainTable).zipWithIndex().map { case (bits, i) =>
+      (i << indexShift) | bits
+    }.persist(StorageLevel.MEMORY_AND_DISK)
+
+    val forest = grow(sc, train, trees, scala.util.Random.nextLong())
+    train.unpersist()
+
+    writeModel(forest, modelFile)
+
+    // make predictions over test data
+    val flat = sc.broadcast(distinct(forest.map(flatten)))
+    val (correct, total) = readPacked(sc, testTable).map { bits =>
+      val label = ((bits >> labelBit) & 1) == 1
+      val (trees, weights) = flat.value
+      if (vote(trees, weights, bits) == label) (1L, 1L) else (0L, 1L)
+    }.fold((0L, 0L)) { (a, b) => (a._1 + b._1, a._2 + b._2) }
+
+    val accuracy = correct.toDouble / total
+    println("Test accuracy: " + accuracy)
+
+    // save performance metrics (accuracy) to Cassandra
+    val metricsData = sc.parallelize(Seq((System.currentTimeMillis(), trees, accuracy)))
+    metricsData.saveToCassandra(keySpace, perfTable, SomeColumns("ts", "trees", "accuracy"))
+  }
+
+  /**
+   * Read records of a table, pushing the column selection down to Cassandra, and pack
+   * the features and the label of each record into the bits of an Int
+   */
+  def readPacked(sc: SparkContext, table: String): RDD[Int] = {
+    sc.cassandraTable(keySpace, table).select((features :+ "label").map(ColumnName(_)): _*).map { row =>
+      var bits = 0
+      for (i <- 0 to labelBit) {
+        if (row.getBoolean(i)) bits |= 1 << i
+      }
+      bits
+    }
+  }
+
+  /**
+   * Grow a forest, level by level, with one aggregation over the records per level
+   *
+   * @param records packed records with their index (see indexShift)
+   * @param n number of trees
+   * @param seed seed of feature selection and bootstrap weights
+   * @return grown trees
+   */
+  def grow(sc: SparkContext, records: RDD[Long], n: Int, seed: Long): Array[GrowingTree] = {
+    val random = new scala.util.Random(seed)
+    val featuresPerTree = math.sqrt(features.length).toInt
+    val numFeatures = features.length
+
+    val forest = Array.fill(n) {
+      new GrowingTree(random.shuffle((0 until numFeatures).toList).take(featuresPerTree).sorted.toArray)
+    }
+
+    // (tree, node) of each frontier slot, starting from the roots
+    var frontier: Array[(Int, Int)] = Array.tabulate(n)(t => (t, 0))
+    var level = 0
+
+    while (frontier.nonEmpty) {
+      val routing = sc.broadcast(routingOf(forest, frontier))
+      val size = frontier.length * numFeatures * 4
+
+      // counts(((slot * numFeatures + f) * 2 + side) * 2 + label), side 0: feature true,
+      // label 0: positive
+      val counts = records.treeAggregate(new Array[Long](size))(
+        (c, rec) => accumulate(c, rec, routing.value, seed, numFeatures),
+        (c1, c2) => {
+          for (i <- c1.indices) c1(i) += c2(i)
+          c1
+        })
+
+      routing.unpersist()
+
+      val next = ArrayBuffer[(Int, Int)]()
+      for (s <- frontier.indices) {
+        val (t, node) = frontier(s)
+        split(forest(t), node, counts, s * numFeatures * 4, numFeatures, next, t)
+      }
+
+      level += 1
+      println("Level " + level + ": " + frontier.length + " nodes, " + next.length + " to grow")
+      frontier = next.toArray
+    }
+
+    forest
+  }
+
+  def routingOf(forest: Array[GrowingTree], frontier: Array[(Int, Int)]): Routing = {
+    val slot = forest.map(t => Array.fill(t.feature.length)(-1))
+    for (s <- frontier.indices) {
+      val (t, node) = frontier(s)
+      slot(t)(node) = s
+    }
+    Routing(forest.map(_.feature.toArray), forest.map(_.left.toArray),
+      forest.map(_.right.toArray), slot)
+  }
+
+  /**
+   * Add a record to the counts of the frontier node it falls into, in every tree
+   */
+  def accumulate(c: Array[Long], rec: Long, r: Routing, seed: Long, numFeatures: Int): Array[Long] = {
+    val bits = (rec & ((1 << indexShift) - 1)).toInt
+    val index = rec >>> indexShift
+    val label = if (((bits >> labelBit) & 1) == 1) 0 else 1
+
+    var t = 0
+    while (t < r.feature.length) {
+      val feature = r.feature(t)
+      var node = 0
+      while (feature(node) >= 0) {
+        node = if (((bits >> feature(node)) & 1) == 1) r.left(t)(node) else r.right(t)(node)
+      }
+
+      val s = r.slot(t)(node)
+      if (s >= 0) {
+        val w = bootstrapWeight(seed, t, index)
+        if (w > 0) {
+          var f = 0
+          while (f < numFeatures) {
+            val side = if (((bits >> f) & 1) == 1) 0 else 1
+            c(((s * numFeatures + f) * 2 + side) * 2 + label) += w
+            f += 1
+          }
+        }
+      }
+      t += 1
+    }
+    c
+  }
+
+  /**
+   * Split a frontier node on the feature with max mutual information, following the
+   * same rules as dtree.DecisionTree.trainNode
+   */
+  def split(tree: GrowingTree, node: Int, c: Array[Long], base: Int, numFeatures: Int,
+            next: ArrayBuffer[(Int, Int)], t: Int) {
+    // every feature sees every record, so the first one gives the totals
+    val pos = c(base) + c(base + 2)
+    val neg = c(base + 1) + c(base + 3)
+    tree.pos(node) = pos.toInt
+    tree.neg(node) = neg.toInt
+
+    val candidates = tree.featureIds.filter(f => (tree.used(node) & (1 << f)) == 0)
+    if (pos == 0 || neg == 0 || candidates.isEmpty) return
+
+    var maxMI = 0.0
+    var maxF = -1
+    for (f <- candidates) {
+      val i = base + f * 4
+      val mi = mutualInformation(c(i), c(i + 1), c(i + 2), c(i + 3))
+      if (mi > maxMI) {
+        maxMI = mi
+        maxF = f
+      }
+    }
+
+    if (maxMI <= 0) return
+
+    val i = base + maxF * 4
+    val usedMask = tree.used(node) | (1 << maxF)
+    val l = tree.addNode(c(i).toInt, c(i + 1).toInt, usedMask)
+    val r = tree.addNode(c(i + 2).toInt, c(i + 3).toInt, usedMask)
+    tree.feature(node) = maxF
+    tree.left(node) = l
+    tree.right(node) = r
+
+    if (candidates.length > 1) {
+      for (child <- Seq(l, r) if tree.pos(child) > 0 && tree.neg(child) > 0) {
+        next += ((t, child))
+      }
+    }
+  }
+
+  def entropy(pos: Long, neg: Long): Double = {
+    if (pos == 0 || neg == 0) return 0.0
+    val p = pos / (pos + neg).toDouble
+    val q = neg / (pos + neg).toDouble
+    -(p * math.log(p) / math.log(2) + q * math.log(q) / math.log(2))
+  }
+
+  /**
+   * Mutual information of a split, as in dtree.TreeNode.mutualInformation
+   */
+  def mutualInformation(leftPos: Long, leftNeg: Long, rightPos: Long, rightNeg: Long): Double = {
+    val total = (leftPos + leftNeg + rightPos + rightNeg).toDouble
+    entropy(leftPos + rightPos, leftNeg + rightNeg) -
+      (leftPos + leftNeg) / total * entropy(leftPos, leftNeg) -
+      (rightPos + rightNeg) / total * entropy(rightPos, rightNeg)
+  }
+
+  /**
+   * Poisson bootstrap weight of a record for a tree, same as
+   * RandomForest.bootstrapWeight, so every level sees the same sample
+   */
+  def bootstrapWeight(seed: Long, tree: Int, record: Long): Int = {
+    var h = seed ^ (tree * 0x9E3779B97F4A7C15L) ^ (record * 0xC2B2AE3D27D4EB4FL)
+    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL
+    h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L
+    h = h ^ (h >>> 33)
+
+    val u = (h >>> 11) * 1.1102230246251565E-16
+
+    // invert the Poisson cumulative distribution
+    var k = 0
+    var p = math.exp(-fractionTrainingRecords)
+    var cdf = p
+    while (u > cdf && k < 32) {
+      k += 1
+      p *= fractionTrainingRecords / k
+      cdf += p
+    }
+    k
+  }
+
+  /**
+   * Flatten a grown tree into pre-order node arrays (feature, right, pos, neg), the
+   * layout of dtree.FlatTree
+   */
+  def flatten(tree: GrowingTree): Array[Array[Int]] = {
+    val out = Array.fill(4)(ArrayBuffer[Int]())
+
+    def visit(node: Int) {
+      val i = out(0).length
+      out(0) += tree.feature(node)
+      out(1) += -1
+      out(2) += tree.pos(node)
+      out(3) += tree.neg(node)
+      if (tree.feature(node) >= 0) {
+        visit(tree.left(node))
+        out(1)(i) = out(0).length
+        visit(tree.right(node))
+      }
+    }
+
+    visit(0)
+    out.map(_.toArray)
+  }
+
+  /**
+   * Canonical form of a flat tree, as in dtree.FlatTree.canonical: leaves keep their
+   * decision, and a split whose subtrees are the same becomes that subtree
+   */
+  def canonical(tree: Array[Array[Int]]): Array[Array[Int]] = {
+    // pre-order code, two ints per node: feature and 0 for a split, -1 and the
+    // decision for a leaf; returns the code and the index of the next node
+    def encode(i: Int): (Vector[Int], Int) = {
+      if (tree(0)(i) < 0) {
+        (Vector(-1, if (tree(2)(i) > tree(3)(i)) 1 else 0), i + 1)
+      } else {
+        val (left, _) = encode(i + 1)
+        val (right, next) = encode(tree(1)(i))
+        (if (left == right) left else Vector(tree(0)(i), 0) ++ left ++ right, next)
+      }
+    }
+
+    val code = encode(0)._1
+    val out = Array.fill(4)(new Array[Int](code.length / 2))
+
+    // returns the position in the code after the subtree of node i
+    def decode(c: Int, i: Int): Int = {
+      out(0)(i) = code(c)
+      if (code(c) < 0) {
+        out(1)(i) = -1
+        out(2)(i) = code(c + 1)
+        out(3)(i) = 1 - code(c + 1)
+        c + 2
+      } else {
+        val next = decode(c + 2, i + 1)
+        out(1)(i) = i + 1 + (next - c - 2) / 2
+        decode(next, out(1)(i))
+      }
+    }
+
+    decode(0, 0)
+    out
+  }
+
+  /**
+   * Merge flat trees with the same canonical form, which make the same decisions, into
+   * one tree weighted by their number, as in RandomForest
+   *
+   * @return distinct trees, and their vote weights
+   */
+  def distinct(flat: Array[Array[Array[Int]]]): (Array[Array[Array[Int]]], Array[Int]) = {
+    val weights = scala.collection.mutable.LinkedHashMap[Seq[Seq[Int]], Int]()
+    for (tree <- flat) {
+      val key = canonical(tree).map(_.toSeq).toSeq
+      weights(key) = weights.getOrElse(key, 0) + 1
+    }
+    val entries = weights.toArray
+    (entries.map(_._1.map(_.toArray).toArray), entries.map(_._2))
+  }
+
+  /**
+   * Majority vote of distinct flat trees (see distinct) on a packed record, each tree
+   * voting with its weight, as in RandomForest.decide
+   */
+  def vote(flat: Array[Array[Array[Int]]], weights: Array[Int], bits: Int): Boolean = {
+    var pos = 0
+    var total = 0
+    for (t <- flat.indices) {
+      val tree = flat(t)
+      var i = 0
+      while (tree(0)(i) >= 0) {
+        i = if (((bits >> tree(0)(i)) & 1) == 1) i + 1 else tree(1)(i)
+      }
+      if (tree(2)(i) > tree(3)(i)) pos += weights(t)
+      total += weights(t)
+    }
+    pos >= total - pos
+  }
+
+  /**
+   * Write the forest in the binary model format of util.SerializeUtil
+   */
+  def writeModel(forest: Array[GrowingTree], fileName: String) {
+    writeModel(features, forest.map(flatten), fileName)
+  }
+
+  /**
+   * Write trees as flat node arrays (see flatten) in the binary model format of
+   * util.SerializeUtil
+   */
+  def writeModel(names: Array[String], trees: Array[Array[Array[Int]]], fileName: String) {
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))
+    try {
+      out.writeInt(modelMagic)
+      out.writeInt(modelVersion)
+      out.writeInt(names.length)
+      for (f <- names) {
+        val bytes = f.getBytes(StandardCharsets.UTF_8)
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+
+      for (flat <- trees) {
+        out.writeInt(flat(0).length)
+        for (array <- flat; v <- array) out.writeInt(v)
+      }
+    } finally {
+      out.close()
+    }
+  }
+
+  /**
+   * Read a model in the binary model format of util.SerializeUtil
+   *
+   * @return feature names, trees as flat node arrays (see flatten), and quantile cut
+   *         points of the model if it has any
+   */
+  def readModel(fileName: String): (Array[String], Array[Array[Array[Int]]], Option[Binarizer]) = {
+    val in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))
+    try {
+      if (in.readInt() != modelMagic) throw new IOException("Not a binary random forest model")
+      val version = in.readInt()
+      if (version < 1 || version > maxModelVersion) {
+        throw new IOException("Unsupported model version: " + version)
+      }
+
+      val names = readNames(in)
+
+      // version 2: a flag, then the binarizer (features, inputs, source and cut points)
+      val binarizer = if (version >= 2 && in.readInt() == 1) {
+        val features = readNames(in)
+        val inputs = readNames(in)
+        val sources = new Array[Int](features.length)
+        val cuts = new Array[Double](features.length)
+        for (i <- features.indices) {
+          sources(i) = in.readInt()
+          cuts(i) = in.readDouble()
+        }
+        Some(Binarizer(inputs, sources, cuts))
+      } else {
+        None
+      }
+
+      val trees = ArrayBuffer[Array[Array[Int]]]()
+      var size = readSize(in)
+      while (size >= 0) {
+        trees += Array.fill(4)(Array.fill(size)(in.readInt()))
+        size = readSize(in)
+      }
+
+      (names, trees.toArray, binarizer)
+    } finally {
+      in.close()
+    }
+  }
+
+  private def readNames(in: DataInputStream): Array[String] = {
+    Array.fill(in.readInt()) {
+      val bytes = new Array[Byte](in.readInt())
+      in.readFully(bytes)
+      new String(bytes, StandardCharsets.UTF_8)
+    }
+  }
+
+  // node count of the next tree, -1 at the end of the model
+  private def readSize(in: DataInputStream): Int = {
+    try {
+      in.readInt()
+    } catch {
+      case e: EOFException => -1
+    }
+  }
+}
@@ -5,9 +5,13 @@ import org.apache.spark.ml.Pipeline
 import org.apache.spark.ml.classification.RandomForestClassifier
 import org.apache.spark.ml.classification.RandomForestClassificationModel
 import org.apache.spark.ml.evaluation.BinaryClassificationEvaluator
+import org.apache.spark.ml.tree.{CategoricalSplit, ContinuousSplit, InternalNode, Node}
 import org.apache.spark.mllib.regression.LabeledPoint
-import org.apache.spark.mllib.linalg.Vectors
+import org.apache.spark.mllib.linalg.{Vector, Vectors}
 import org.apache.spark.rdd.RDD
+import org.apache.spark.storage.StorageLevel
+
+import org.apache.hadoop.fs.Path
 
 import java.sql.Timestamp
 
@@ -39,6 +43,12 @@ object RandomForestSpark {
   // performance metrics table
   var perfTable = "test_perf"
 
+  // file of the forest exported in the binary model format
+  var modelFile = "forest.rfm"
+
+  // storage level of cached train and test data
+  var storageLevel = StorageLevel.MEMORY_AND_DISK
+
   def main (args: Array[String]) {
     // configures Spark
     val conf = new SparkConf(true)
@@ -47,29 +57,14 @@ object RandomForestSpark {
     // connect to the Spark cluster
     val sc = new SparkContext(sparkAddr, mainClass, conf)
 
-    // fetch data from Cassandra tables
-    val rddTrain : RDD[LabeledPoint] = sc.cassandraTable(keySpace, trainTable).map { row  => { 
-      (LabeledPoint(row.getInt("label").toDouble, Vectors.dense(
-        row.getInt("avg_bid").toDouble, 
-        row.getInt("delta_bid").toDouble, 
-        row.getInt("diff_bid").toDouble, 
-        row.getInt("range_bid").toDouble, 
-        row.getInt("spread").toDouble)))
-    }}
-
-    val rddTest : RDD[LabeledPoint] = sc.cassandraTable(keySpace, testTable).map { row  => { 
-      (LabeledPoint(row.getInt("label").toDouble, Vectors.dense(
-        row.getInt("avg_bid").toDouble, 
-        row.getInt("delta_bid").toDouble, 
-        row.getInt("diff_bid").toDouble, 
-        row.getInt("range_bid").toDouble, 
-        row.getInt("spread").toDouble)))
-    }}
-
-    // Create data frames
     val sqlContext = new SQLContext(sc)
-    val trainDF = sqlContext.createDataFrame(rddTrain)
-    val testDF = sqlContext.createDataFrame(rddTest)
+
+    // optional local Parquet snapshot of the decoded tables
+    val snapshotDir = if (args.length > 1) Some(args(1)) else None
+
+    // decoded train and test data frames, cached for the pipeline and evaluation
+    val trainDF = readData(sc, sqlContext, trainTable, snapshotDir).persist(storageLevel)
+    val testDF = readData(sc, sqlContext, testTable, snapshotDir).persist(storageLevel)
 
     // index label for use of RandomForestClassifier
     val indexer = new StringIndexer()
@@ -93,12 +88,133 @@ object RandomForestSpark {
     // make predictions over test data
     val pred = model.transform(testDF)
 
-    // calculate accuracy
-    val accuracy = pred.filter("predictedLabel = indexedLabel").count.toDouble / pred.count()
+    // evaluate in a single pass over the predictions
+    val forest = model.stages.last.asInstanceOf[RandomForestClassificationModel]
+    val metrics = evaluate(sc, pred, forest)
+
+    // export the forest for scoring without Spark
+    ForestExporter.export(forest, ForestExporter.labelsOf(pred, "indexedLabel"), modelFile)
+
+    println("Confusion matrix (label, prediction): " + metrics.confusion.map(_.mkString(" ")).mkString(", "))
+    println("Accuracy: " + metrics.accuracy + ", AUC: " + metrics.auc)
+
+    val accuracy = metrics.accuracy
 
     // save performance metrics (accuracy) to Cassandra
     val metricsData = sc.parallelize(Seq((System.currentTimeMillis(), trees, accuracy.toDouble)))
     metricsData.saveToCassandra(keySpace, perfTable, SomeColumns("ts", "trees", "accuracy"))
+
+    trainDF.unpersist()
+    testDF.unpersist()
+  }
+
+  /**
+   * Read labeled points of a table as a data frame. Only the feature and label columns
+   * are fetched from Cassandra. If a snapshot directory is given, the table is read from
+   * its Parquet snapshot there, or the snapshot is written after reading from Cassandra
+   * and the table read back from it, so Cassandra is scanned once.
+   */
+  def readData(sc: SparkContext, sqlContext: SQLContext, table: String,
+               snapshotDir: Option[String]): DataFrame = {
+    val snapshot = snapshotDir.map(dir => new Path(dir, table))
+
+    snapshot match {
+      case Some(path) if path.getFileSystem(sc.hadoopConfiguration).exists(path) =>
+        return sqlContext.read.parquet(path.toString)
+      case _ =>
+    }
+
+    val rdd : RDD[LabeledPoint] = sc.cassandraTable(keySpace, table)
+      .select("avg_bid", "delta_bid", "diff_bid", "range_bid", "spread", "label")
+      .map { row => {
+        (LabeledPoint(row.getInt("label").toDouble, Vectors.dense(
+          row.getInt("avg_bid").toDouble,
+          row.getInt("delta_bid").toDouble,
+          row.getInt("diff_bid").toDouble,
+          row.getInt("range_bid").toDouble,
+          row.getInt("spread").toDouble)))
+      }}
+
+    val df = sqlContext.createDataFrame(rdd)
+    snapshot match {
+      case Some(path) =>
+        // the write scans Cassandra, later actions read the snapshot
+        df.write.parquet(path.toString)
+        sqlContext.read.parquet(path.toString)
+      case None => df
+    }
+  }
+
+  /**
+   * Test metrics: confusion(label)(prediction) counts, accuracy and AUC
+   */
+  case class Metrics(confusion: Array[Array[Long]], accuracy: Double, auc: Double)
+
+  /**
+   * Compute accuracy, confusion matrix and AUC of predictions in one aggregation pass.
+   * The score of a record is the number of trees voting for (indexed) label 1, so a
+   * histogram of scores per label gives the exact ROC curve.
+   */
+  def evaluate(sc: SparkContext, pred: DataFrame, forest: RandomForestClassificationModel): Metrics = {
+    val trees = sc.broadcast(forest.trees.map(_.rootNode))
+    val numTrees = forest.trees.length
+
+    // counts(0 until 4): confusion matrix, counts(4 + label * (numTrees + 1) + score):
+    // score histogram
+    val counts = pred.select("indexedLabel", "predictedLabel", "features").rdd
+      .treeAggregate(new Array[Long](4 + 2 * (numTrees + 1)))(
+        (c, row) => {
+          val label = row.getDouble(0).toInt
+          val prediction = row.getDouble(1).toInt
+          val features = row.getAs[Vector](2)
+          val score = trees.value.count(predictTree(_, features) == 1.0)
+          c(label * 2 + prediction) += 1
+          c(4 + label * (numTrees + 1) + score) += 1
+          c
+        },
+        (c1, c2) => {
+          for (i <- c1.indices) c1(i) += c2(i)
+          c1
+        })
+
+    trees.unpersist()
+
+    val confusion = Array(Array(counts(0), counts(1)), Array(counts(2), counts(3)))
+    val total = counts.take(4).sum
+    val accuracy = (counts(0) + counts(3)).toDouble / total
+
+    // area under the ROC curve, sweeping the threshold down from the highest score
+    val negatives = counts(0) + counts(1)
+    val positives = counts(2) + counts(3)
+    var area = 0.0
+    var tp = 0L
+    var fp = 0L
+    for (score <- numTrees to 0 by -1) {
+      val p = counts(4 + (numTrees + 1) + score)
+      val n = counts(4 + score)
+      area += n * (tp + p / 2.0)
+      tp += p
+      fp += n
+    }
+    val auc = if (positives == 0 || negatives == 0) 0.5 else area / (positives * negatives)
+
+    Metrics(confusion, accuracy, auc)
+  }
+
+  /**
+   * Prediction of a tree of the forest on a feature vector
+   */
+  def predictTree(root: Node, features: Vector): Double = {
+    var node = root
+    while (node.isInstanceOf[InternalNode]) {
+      val n = node.asInstanceOf[InternalNode]
+      val goLeft = n.split match {
+        case s: ContinuousSplit => features(s.featureIndex) <= s.threshold
+        case s: CategoricalSplit => s.leftCategories.contains(features(s.featureIndex))
+      }
+      node = if (goLeft) n.leftChild else n.rightChild
+    }
+    node.prediction
   }
 }
 
@@ -0,0 +1,215 @@
+import org.apache.spark.{SparkConf, SparkContext}
+import org.apache.spark.streaming.{Milliseconds, StreamingContext}
+
+import java.io.{File, PrintWriter}
+import java.nio.file.{Files, StandardCopyOption}
+import java.text.SimpleDateFormat
+import java.util.TimeZone
+
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuffer
+import scala.io.Source
+import scala.util.Random
+
+/**
+ * Local check of the streaming scoring job (StreamingScoringSpark), run with local[*].
+ * Ticks are dropped into the source directory of the stream in small batches and scored with a random forest, with
+ * mean thresholds. As each batch resumes from the state of the pairs (windows, running
+ * thresholds and pending predictions) after the previous one, the predictions and
+ * accuracy of the stream must be those of scoring all ticks of each pair in one pass.
+ * Every tick after the warm-up of its pair must get a prediction.
+ *
+ * Exits with status 1 if a check fails, so it can be run as a build step.
+ *
+ * Usage: StreamingScoringCheck [ticks.csv] (ticks in the raw data format, e.g. written by
+ * prep.TickGenerator; ticks of two pairs are generated by default)
+ */
+object StreamingScoringCheck {
+
+  // number of generated ticks, and of ticks in a batch
+  val ticks = 6000
+  val batchTicks = 500
+
+  // trees of the random forest, and their depth
+  val trees = 10
+  val depth = 3
+
+  def main(args: Array[String]) {
+    val lines = if (args.length > 0) {
+      val source = Source.fromFile(args(0))
+      try source.getLines().filter(_.nonEmpty).toArray finally source.close()
+    } else {
+      generateTicks(new Random(0))
+    }
+
+    val (flat, weights) = MutualInformationForestSpark.distinct(randomTrees(new Random(0)))
+    val forest = StreamingScoringSpark.Forest(
+      StreamingScoringSpark.featureOrder(StreamingScoringSpark.features), None, flat, weights)
+
+    val (expected, expectedAccuracy) = reference(lines, forest)
+    val (actual, accuracy) = stream(lines, forest)
+
+    var ok = true
+    for ((pair, predictions) <- expected) {
+      val got = actual.getOrElse(pair, ArrayBuffer[String]())
+      val count = lines.count(_.startsWith(pair + ","))
+      val same = got == predictions && accuracy.get(pair) == expectedAccuracy.get(pair)
+      val complete = predictions.length == count - StreamingScoringSpark.warmUpTicks
+      ok &&= same && complete
+      println("%-8s %8d ticks %8d predictions: %s".format(pair, count, got.length,
+        if (same && complete) "OK" else "FAIL"))
+    }
+
+    if (!ok) sys.exit(1)
+  }
+
+  /**
+   * Score all ticks of each pair in one pass
+   *
+   * @return predictions of each pair, and the labeled predictions of each pair that
+   *         were right and their total
+   */
+  def reference(lines: Array[String], forest: StreamingScoringSpark.Forest)
+      : (Map[String, ArrayBuffer[String]], Map[String, (Long, Long)]) = {
+    val format = new SimpleDateFormat("yyyyMMdd HH:mm:ss.SSS")
+    format.setTimeZone(TimeZone.getTimeZone("UTC"))
+    val states = mutable.LinkedHashMap[String, StreamingScoringSpark.PairState]()
+    val predictions = mutable.LinkedHashMap[String, ArrayBuffer[String]]()
+
+    for (line <- lines) {
+      val strs = line.split(",")
+      val s = states.getOrElseUpdate(strs(0), new StreamingScoringSpark.PairState)
+      StreamingScoringSpark.addTick(s, strs(0), StreamingScoringSpark.Tick(
+        format.parse(strs(1)).getTime, strs(2).toDouble, strs(3).toDouble), forest)
+
+      predictions.getOrElseUpdate(strs(0), ArrayBuffer[String]()) ++=
+        s.predictions.map(toLine)
+      s.predictions.clear()
+    }
+
+    (predictions.toMap, states.mapValues(s => (s.correct, s.total)).toMap)
+  }
+
+  /**
+   * Score ticks as a stream of batches: each batch is a file dropped into the directory
+   * read by the stream once the previous batch is scored
+   *
+   * @return predictions of each pair, and the labeled predictions of each pair that
+   *         were right and their total, after the last batch
+   */
+  def stream(lines: Array[String], forest: StreamingScoringSpark.Forest)
+      : (Map[String, ArrayBuffer[String]], Map[String, (Long, Long)]) = {
+    val dir = Files.createTempDirectory("scoringcheck").toFile
+    val source = new File(dir, "ticks")
+    source.mkdirs()
+
+    val sc = new SparkContext(StreamingScoringSpark.sparkAddr, "StreamingScoringCheck",
+      new SparkConf(true))
+    val ssc = new StreamingContext(sc, Milliseconds(200))
+    ssc.checkpoint(new File(dir, "checkpoint").getPath)
+
+    val predictions = mutable.LinkedHashMap[String, ArrayBuffer[String]]()
+    val accuracy = mutable.Map[String, (Long, Long)]()
+    val ticks = mutable.Map[String, Long]()
+
+    val states = StreamingScoringSpark.score(ssc.textFileStream(source.getPath),
+      sc.broadcast(forest))
+
+    states.foreachRDD { rdd =>
+      val results = rdd.map { case (pair, s) =>
+        (pair, s.predictions.map(toLine).toArray, (s.correct, s.total), s.ticks)
+      }.collect()
+
+      predictions.synchronized {
+        for ((pair, p, c, n) <- results) {
+          predictions.getOrElseUpdate(pair, ArrayBuffer[String]()) ++= p
+          accuracy(pair) = c
+          ticks(pair) = n
+        }
+        predictions.notifyAll()
+      }
+    }
+
+    ssc.start()
+    try {
+      var written = 0
+      for ((batch, i) <- lines.grouped(batchTicks).zipWithIndex) {
+        // written aside, then moved, so the stream reads whole files
+        val file = new File(dir, "batch-" + i)
+        val out = new PrintWriter(file)
+        try batch.foreach(out.println) finally out.close()
+        Files.move(file.toPath, new File(source, file.getName).toPath,
+          StandardCopyOption.ATOMIC_MOVE)
+        written += batch.length
+
+        predictions.synchronized {
+          while (ticks.values.sum < written) predictions.wait()
+        }
+      }
+    } finally {
+      ssc.stop(true, false)
+      deleteRecursively(dir)
+    }
+
+    (predictions.toMap, accuracy.toMap)
+  }
+
+  def toLine(p: StreamingScoringSpark.Prediction): String = {
+    p.pair + "," + p.time + "," + p.bid + "," + p.bits + "," + p.decision
+  }
+
+  /**
+   * Random walk ticks of two pairs, in time order, in the raw data format
+   */
+  def generateTicks(random: Random): Array[String] = {
+    val format = new SimpleDateFormat("yyyyMMdd HH:mm:ss.SSS")
+    format.setTimeZone(TimeZone.getTimeZone("UTC"))
+
+    val pairs = Array("EUR/USD", "USD/JPY")
+    val bids = Array(120000, 120000)
+    var time = 1420416000000L
+
+    Array.fill(ticks) {
+      time += random.nextInt(2000)
+      val i = random.nextInt(pairs.length)
+      bids(i) += random.nextInt(3) - 1
+      val spread = 2 + random.nextInt(4)
+      val scale = if (i == 0) 100000.0 else 1000.0
+      pairs(i) + "," + format.format(time) + "," + bids(i) / scale + "," +
+        (bids(i) + spread) / scale
+    }
+  }
+
+  /**
+   * Random flat trees over the features of the Java order (see
+   * MutualInformationForestSpark.flatten)
+   */
+  def randomTrees(random: Random): Array[Array[Array[Int]]] = {
+    Array.fill(trees) {
+      val out = Array.fill(4)(ArrayBuffer[Int]())
+
+      def grow(level: Int) {
+        val i = out(0).length
+        val leaf = level == depth
+        out(0) += (if (leaf) -1 else random.nextInt(StreamingScoringSpark.features.length))
+        out(1) += -1
+        out(2) += random.nextInt(10)
+        out(3) += random.nextInt(10)
+        if (!leaf) {
+          grow(level + 1)
+          out(1)(i) = out(0).length
+          grow(level + 1)
+        }
+      }
+
+      grow(0)
+      out.map(_.toArray)
+    }
+  }
+
+  private def deleteRecursively(f: File) {
+    val children = f.listFiles()
+    if (children != null) children.foreach(deleteRecursively)
+    f.delete()
+  }
+}
@@ -0,0 +1,315 @@
+import org.apache.spark.{HashPartitioner, SparkContext, SparkConf}
+import org.apache.spark.broadcast.Broadcast
+import org.apache.spark.streaming.{Seconds, StreamingContext}
+import org.apache.spark.streaming.dstream.DStream
+
+import java.text.SimpleDateFormat
+import java.util.{ArrayDeque, TimeZone}
+
+import scala.collection.mutable.ArrayBuffer
+
+/**
+ * Spark Streaming scoring of live ticks with a random forest in the binary model format.
+ *
+ * Ticks ("pair,yyyyMMdd HH:mm:ss.SSS,bid,ask", the raw data format of prep.DataPrep) are
+ * read from a socket or from files dropped into a directory. For every pair, the state of
+ * its 5 minute window is updated incrementally with each tick, giving the same features
+ * as DataPrep.processRecord. Features are binarized with the quantile cut points saved
+ * with the model (see prep.QuantileBinarizer), or with running mean thresholds for
+ * models without cut points, and each tick is scored with the broadcast forest. A prediction is checked once the next
+ * different bid of the pair arrives (the label of DataPrep).
+ */
+object StreamingScoringSpark {
+
+  // spark master address
+  var sparkAddr = "local[*]"
+
+  // main class for jar
+  var mainClass = "StreamingScoringSpark"
+
+  // batch interval in seconds
+  var batchSeconds = 5
+
+  // length in seconds of the window of rolling accuracy
+  var accuracyWindowSeconds = 60
+
+  // size of the feature window, as DataPrep.WINDOW_SIZE_IN_MILLIS
+  val windowMillis = 1000L * 60 * 5
+
+  // ticks of a pair used to warm up its window and thresholds before scoring (DataPrep
+  // skips the first 100 records)
+  val warmUpTicks = 100
+
+  // features in the order of the Java forest
+  val features = Array("avg_bid", "range_bid", "diff_bid", "delta_bid", "spread")
+
+  case class Tick(time: Long, bid: Double, ask: Double)
+
+  /**
+   * Forest broadcast to scorers: for each model feature, the index in the Java feature
+   * order of its feature (or input, with cut points), the cut point of each model
+   * feature if the model has some, and the distinct trees with their vote weights (see
+   * MutualInformationForestSpark.distinct)
+   */
+  case class Forest(order: Array[Int], cuts: Option[Array[Double]],
+                    trees: Array[Array[Array[Int]]], weights: Array[Int])
+
+  /**
+   * Prediction made on a tick, with its binarized features (bit i is feature i of the
+   * Java order, or of the model if it has cut points)
+   */
+  case class Prediction(pair: String, time: Long, bid: Double, bits: Int, decision: Boolean)
+
+  /**
+   * State of a pair: its feature window, running thresholds, the predictions waiting for
+   * a label, and the output of the last batch
+   */
+  class PairState extends Serializable {
+    // ticks in the window, and ticks that are the min / max of the window from their
+    // position on (monotonic queues)
+    var window = new ArrayDeque[Tick]()
+    var minQueue = new ArrayDeque[Tick]()
+    var maxQueue = new ArrayDeque[Tick]()
+    var windowSum = 0.0
+
+    // first bid of the pair, and last bid that left the window
+    var firstBid = Double.NaN
+    var lastEvictedBid = Double.NaN
+    var prevBid = Double.NaN
+    var ticks = 0L
+
+    // sums of feature values for the mean thresholds
+    var sumAvg = 0.0
+    var sumRange = 0.0
+    var sumSpread = 0.0
+
+    // bid of predictions not labeled yet, and their counts by decision
+    var pendingBid = Double.NaN
+    var pendingTrue = 0L
+    var pendingFalse = 0L
+
+    // labeled predictions of this pair
+    var correct = 0L
+    var total = 0L
+
+    // output of the last batch
+    var predictions = ArrayBuffer[Prediction]()
+    var batchCorrect = 0L
+    var batchTotal = 0L
+
+    override def clone(): PairState = {
+      val s = new PairState
+      s.window = window.clone()
+      s.minQueue = minQueue.clone()
+      s.maxQueue = maxQueue.clone()
+      s.windowSum = windowSum
+      s.firstBid = firstBid
+      s.lastEvictedBid = lastEvictedBid
+      s.prevBid = prevBid
+      s.ticks = ticks
+      s.sumAvg = sumAvg
+      s.sumRange = sumRange
+      s.sumSpread = sumSpread
+      s.pendingBid = pendingBid
+      s.pendingTrue = pendingTrue
+      s.pendingFalse = pendingFalse
+      s.correct = correct
+      s.total = total
+      s
+    }
+  }
+
+  /**
+   * Usage: StreamingScoringSpark model source output
+   *
+   * source is either host:port of a socket, or a directory where tick files are dropped;
+   * predictions and accuracy are written under output
+   */
+  def main (args: Array[String]) {
+    val conf = new SparkConf(true)
+
+    val sc = new SparkContext(sparkAddr, mainClass, conf)
+    val ssc = new StreamingContext(sc, Seconds(batchSeconds))
+    ssc.checkpoint(args(2) + "/checkpoint")
+
+    val (names, trees, binarizer) = MutualInformationForestSpark.readModel(args(0))
+    val (distinctTrees, weights) = MutualInformationForestSpark.distinct(trees)
+    val forest = sc.broadcast(binarizer match {
+      case Some(b) =>
+        Forest(featureOrder(b.sources.map(b.inputs(_))), Some(b.cuts), distinctTrees, weights)
+      case None => Forest(featureOrder(names), None, distinctTrees, weights)
+    })
+
+    val source = args(1)
+    val lines = if (source.matches("[^/]+:\\d+")) {
+      val Array(host, port) = source.split(":")
+      ssc.socketTextStream(host, port.toInt)
+    } else {
+      ssc.textFileStream(source)
+    }
+
+    val states = score(lines, forest)
+
+    val predictions = states.flatMap { case (pair, s) => s.predictions }
+    predictions.map(p => p.pair + "," + p.time + "," + p.bid + "," + p.bits + "," + p.decision)
+      .saveAsTextFiles(args(2) + "/predictions")
+
+    // accuracy of each pair since the start, and rolling accuracy of all pairs
+    states.map { case (pair, s) =>
+      pair + "," + s.correct + "," + s.total + "," + s.correct.toDouble / s.total
+    }.saveAsTextFiles(args(2) + "/accuracy")
+
+    states.map { case (pair, s) => (s.batchCorrect, s.batchTotal) }
+      .reduceByWindow((a, b) => (a._1 + b._1, a._2 + b._2),
+        Seconds(accuracyWindowSeconds), Seconds(batchSeconds))
+      .foreachRDD { rdd =>
+        rdd.collect().foreach { case (correct, total) =>
+          println("Rolling accuracy: " + correct.toDouble / total + " (" + total + " predictions)")
+        }
+      }
+
+    ssc.start()
+    ssc.awaitTermination()
+  }
+
+  /**
+   * Index in the Java feature order of each feature of a model
+   */
+  def featureOrder(names: Array[String]): Array[Int] = {
+    names.map { name =>
+      val i = features.indexOf(name)
+      if (i < 0) throw new IllegalArgumentException("Unknown feature: " + name)
+      i
+    }
+  }
+
+  /**
+   * Parse ticks, update the state of each pair and score its ticks
+   *
+   * @param forest broadcast forest
+   * @return state of each pair after each batch
+   */
+  def score(lines: DStream[String], forest: Broadcast[Forest]): DStream[(String, PairState)] = {
+    val ticks = lines.flatMap { line =>
+      val strs = line.split(",")
+      if (strs.length < 4) {
+        None
+      } else {
+        // times are UTC, as written by prep.CsvTickSink
+        val format = new SimpleDateFormat("yyyyMMdd HH:mm:ss.SSS")
+        format.setTimeZone(TimeZone.getTimeZone("UTC"))
+        Some((strs(0), Tick(format.parse(strs(1)).getTime, strs(2).toDouble, strs(3).toDouble)))
+      }
+    }
+
+    val update = (states: Iterator[(String, Seq[Tick], Option[PairState])]) => {
+      states.map { case (pair, batch, previous) =>
+        // states may be recomputed from checkpoints, so the previous one is not modified
+        val s = previous.map(_.clone()).getOrElse(new PairState)
+        for (tick <- batch.sortBy(_.time)) {
+          addTick(s, pair, tick, forest.value)
+        }
+        (pair, s)
+      }
+    }
+
+    ticks.updateStateByKey(update,
+      new HashPartitioner(lines.context.sparkContext.defaultParallelism), true)
+  }
+
+  /**
+   * Add a tick to the state of its pair: check the predictions waiting for a bid change,
+   * update the window and score the tick
+   */
+  def addTick(s: PairState, pair: String, tick: Tick, forest: Forest) {
+    // label the pending predictions with the direction of the bid change
+    if (!s.pendingBid.isNaN && tick.bid != s.pendingBid) {
+      val up = tick.bid > s.pendingBid
+      val labeled = s.pendingTrue + s.pendingFalse
+      val correct = if (up) s.pendingTrue else s.pendingFalse
+      s.correct += correct
+      s.total += labeled
+      s.batchCorrect += correct
+      s.batchTotal += labeled
+      s.pendingTrue = 0
+      s.pendingFalse = 0
+      s.pendingBid = Double.NaN
+    }
+
+    if (s.firstBid.isNaN) s.firstBid = tick.bid
+
+    // add the tick to the window, and remove ticks at least windowMillis older
+    s.window.addLast(tick)
+    s.windowSum += tick.bid
+    while (!s.minQueue.isEmpty && s.minQueue.peekLast().bid >= tick.bid) s.minQueue.pollLast()
+    s.minQueue.addLast(tick)
+    while (!s.maxQueue.isEmpty && s.maxQueue.peekLast().bid <= tick.bid) s.maxQueue.pollLast()
+    s.maxQueue.addLast(tick)
+
+    while (s.window.peekFirst().time <= tick.time - windowMillis) {
+      val old = s.window.pollFirst()
+      s.windowSum -= old.bid
+      s.lastEvictedBid = old.bid
+      if (s.minQueue.peekFirst() eq old) s.minQueue.pollFirst()
+      if (s.maxQueue.peekFirst() eq old) s.maxQueue.pollFirst()
+    }
+
+    val prevBid = s.prevBid
+    s.prevBid = tick.bid
+    s.ticks += 1
+
+    if (s.ticks < 2) return
+
+    // features, as in DataPrep.processRecord
+    // DataPrep divides the window sum by the number of ticks in the window plus one
+    val avgBid = s.windowSum / (s.window.size + 1)
+    val rangeBid = s.maxQueue.peekFirst().bid - s.minQueue.peekFirst().bid
+    val diffBid = tick.bid - (if (s.lastEvictedBid.isNaN) s.firstBid else s.lastEvictedBid)
+    val deltaBid = tick.bid - prevBid
+    val spread = tick.ask - tick.bid
+
+    s.sumAvg += avgBid
+    s.sumRange += rangeBid
+    s.sumSpread += spread
+
+    if (s.ticks <= warmUpTicks) return
+
+    val (bits, decision) = forest.cuts match {
+      case Some(cuts) =>
+        // binarize with the cut points of the model
+        val values = Array(avgBid, rangeBid, diffBid, deltaBid, spread)
+        var modelBits = 0
+        for (i <- cuts.indices) {
+          if (values(forest.order(i)) > cuts(i)) modelBits |= 1 << i
+        }
+        (modelBits, MutualInformationForestSpark.vote(forest.trees, forest.weights, modelBits))
+
+      case None =>
+        // binarize with mean thresholds, as in DataPrep.binarizeRecords
+        val n = s.ticks - 1
+        var bits = 0
+        if (avgBid > s.sumAvg / n) bits |= 1
+        if (rangeBid > s.sumRange / n) bits |= 2
+        if (diffBid > 0) bits |= 4
+        if (deltaBid > 0) bits |= 8
+        if (spread > s.sumSpread / n) bits |= 16
+        (bits, decide(forest, bits))
+    }
+
+    s.predictions += Prediction(pair, tick.time, tick.bid, bits, decision)
+
+    s.pendingBid = tick.bid
+    if (decision) s.pendingTrue += 1 else s.pendingFalse += 1
+  }
+
+  /**
+   * Majority vote of the forest on features binarized in the Java order
+   */
+  def decide(forest: Forest, bits: Int): Boolean = {
+    var modelBits = 0
+    for (i <- forest.order.indices) {
+      if (((bits >> forest.order(i)) & 1) == 1) modelBits |= 1 << i
+    }
+    MutualInformationForestSpark.vote(forest.trees, forest.weights, modelBits)
+  }
+}